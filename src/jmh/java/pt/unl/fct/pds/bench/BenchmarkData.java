@@ -0,0 +1,95 @@
+package pt.unl.fct.pds.bench;
+
+import pt.unl.fct.pds.model.Node;
+import pt.unl.fct.pds.utils.ConsensusParser;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Base64;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Inputs shared by the benchmarks: the bundled consensus, overridable with -Dbench.consensus.
+ */
+final class BenchmarkData {
+    static final String CONSENSUS_PATH =
+            System.getProperty("bench.consensus", "src/main/java/pt/unl/fct/pds/data/consensus.txt");
+
+    private static Path microdesc;
+
+    private BenchmarkData() {}
+
+    /** A gzip copy of a consensus in a temporary file, as archives store them. */
+    static String gzipped(String path) {
+        try {
+            Path out = Files.createTempFile("consensus", ".gz");
+            out.toFile().deleteOnExit();
+            try (OutputStream gz = new GZIPOutputStream(Files.newOutputStream(out))) {
+                Files.copy(Paths.get(path), gz);
+            }
+            return out.toString();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * The bundled consensus rewritten as the microdesc flavor: no descriptor digest on r lines,
+     * an m line per relay and no p lines. Written once to a temporary file.
+     */
+    static synchronized String microdescConsensusPath() {
+        if (microdesc != null) return microdesc.toString();
+        try {
+            Path out = Files.createTempFile("consensus-microdesc", ".txt");
+            out.toFile().deleteOnExit();
+            try (BufferedReader in = Files.newBufferedReader(Paths.get(CONSENSUS_PATH), StandardCharsets.UTF_8);
+                 Writer w = Files.newBufferedWriter(out, StandardCharsets.UTF_8)) {
+                String line;
+                while ((line = in.readLine()) != null) {
+                    if (line.startsWith("network-status-version ")) {
+                        w.write("network-status-version 3 microdesc\n");
+                    } else if (line.startsWith("r ")) {
+                        String[] t = line.split("\\s+");
+                        StringBuilder r = new StringBuilder("r");
+                        for (int i = 1; i < t.length; i++) if (i != 3) r.append(' ').append(t[i]);
+                        w.write(r.append('\n').toString());
+                        // stand-in digest of the same length as a real one
+                        byte[] digest = new byte[32];
+                        byte[] seed = t.length > 3 ? t[3].getBytes(StandardCharsets.UTF_8) : new byte[0];
+                        for (int i = 0; i < seed.length; i++) digest[i % 32] ^= seed[i];
+                        w.write("m " + Base64.getEncoder().withoutPadding().encodeToString(digest) + "\n");
+                    } else if (!line.startsWith("p ")) {
+                        w.write(line);
+                        w.write('\n');
+                    }
+                }
+            }
+            microdesc = out;
+            return out.toString();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    static Node[] loadNodes() {
+        Node[] nodes = new ConsensusParser(CONSENSUS_PATH, new SyntheticCountryFinder()).parseConsensus();
+        if (nodes.length == 0) {
+            throw new IllegalStateException("No relays parsed from " + CONSENSUS_PATH
+                    + " (run from the project root or set -Dbench.consensus)");
+        }
+        return nodes;
+    }
+
+    static String[] ipsOf(Node[] nodes) {
+        String[] ips = new String[nodes.length];
+        for (int i = 0; i < nodes.length; i++) ips[i] = nodes[i].getIpAddress();
+        return ips;
+    }
+}
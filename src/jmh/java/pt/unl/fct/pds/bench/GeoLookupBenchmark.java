@@ -0,0 +1,71 @@
+package pt.unl.fct.pds.bench;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import pt.unl.fct.pds.utils.CountryFinder;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-IP cost of {@link CountryFinder#lookupCountryForIp}, over the first {@link #IPS} relay
+ * addresses of the consensus. "cold" starts each invocation with an empty cache, "warm" hits
+ * the cache only.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class GeoLookupBenchmark {
+    /** Lookups per invocation, so the reported time is per IP. */
+    static final int IPS = 4096;
+
+    @State(Scope.Benchmark)
+    public static class Ips {
+        String[] ips;
+
+        @Setup(Level.Trial)
+        public void load() {
+            String[] all = BenchmarkData.ipsOf(BenchmarkData.loadNodes());
+            if (all.length < IPS) {
+                throw new IllegalStateException("Need at least " + IPS + " relays, " + BenchmarkData.CONSENSUS_PATH
+                        + " has " + all.length);
+            }
+            ips = Arrays.copyOf(all, IPS);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class ColdFinder {
+        CountryFinder finder;
+
+        @Setup(Level.Invocation)
+        public void reset() {
+            finder = new SyntheticCountryFinder();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class WarmFinder {
+        CountryFinder finder;
+
+        @Setup(Level.Trial)
+        public void warm(Ips data) {
+            finder = new SyntheticCountryFinder();
+            for (String ip : data.ips) finder.lookupCountryForIp(ip);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(IPS)
+    public void lookupCold(Ips data, ColdFinder state, Blackhole bh) {
+        for (String ip : data.ips) bh.consume(state.finder.lookupCountryForIp(ip));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(IPS)
+    public void lookupWarm(Ips data, WarmFinder state, Blackhole bh) {
+        for (String ip : data.ips) bh.consume(state.finder.lookupCountryForIp(ip));
+    }
+}
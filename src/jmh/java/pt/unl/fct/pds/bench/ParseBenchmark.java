@@ -0,0 +1,47 @@
+package pt.unl.fct.pds.bench;
+
+import org.openjdk.jmh.annotations.*;
+import pt.unl.fct.pds.model.Node;
+import pt.unl.fct.pds.utils.ConsensusParser;
+
+import java.util.concurrent.TimeUnit;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ParseBenchmark {
+
+    @Param({"ns", "microdesc"})
+    public String flavor;
+
+    @Param({"false", "true"})
+    public boolean lazy;
+
+    @Param({"plain", "gzip"})
+    public String compression;
+
+    private String path;
+    private ConsensusParser parser;
+
+    @Setup(Level.Trial)
+    public void document() {
+        path = ConsensusParser.FLAVOR_MICRODESC.equals(flavor)
+                ? BenchmarkData.microdescConsensusPath() : BenchmarkData.CONSENSUS_PATH;
+        if ("gzip".equals(compression)) path = BenchmarkData.gzipped(path);
+    }
+
+    @Setup(Level.Invocation)
+    public void freshParser() {
+        // new resolver every time so country lookups are not served from a previous run's cache
+        parser = new ConsensusParser(path, new SyntheticCountryFinder());
+        parser.setLazy(lazy);
+    }
+
+    @Benchmark
+    public Node[] parseConsensus() {
+        return parser.parseConsensus();
+    }
+}
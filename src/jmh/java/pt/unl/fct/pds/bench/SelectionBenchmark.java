@@ -0,0 +1,56 @@
+package pt.unl.fct.pds.bench;
+
+import org.openjdk.jmh.annotations.*;
+import pt.unl.fct.pds.model.Circuit;
+import pt.unl.fct.pds.model.Node;
+import pt.unl.fct.pds.utils.GeoSelector;
+import pt.unl.fct.pds.utils.PathSelector;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Single-threaded latency of one selectPath call, per selector and destination port, and of
+ * the allocation-free selectPacked (its gc.alloc.rate.norm should be ~0 B/op).
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SelectionBenchmark {
+
+    @Param({"80", "443", "22", "6667"})
+    public int destPort;
+
+    private PathSelector tor;
+    private GeoSelector geo;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Node[] nodes = BenchmarkData.loadNodes();
+        tor = new PathSelector(nodes, new Random(42));
+        geo = new GeoSelector(nodes, new Random(42));
+    }
+
+    @Benchmark
+    public Circuit pathSelector() {
+        return tor.selectPath(destPort);
+    }
+
+    @Benchmark
+    public Circuit geoSelector() {
+        return geo.selectPath(destPort);
+    }
+
+    @Benchmark
+    public long pathSelectorPacked() {
+        return tor.selectPacked(destPort);
+    }
+
+    @Benchmark
+    public long geoSelectorPacked() {
+        return geo.selectPacked(destPort);
+    }
+}
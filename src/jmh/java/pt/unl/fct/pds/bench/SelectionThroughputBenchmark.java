@@ -0,0 +1,56 @@
+package pt.unl.fct.pds.bench;
+
+import org.openjdk.jmh.annotations.*;
+import pt.unl.fct.pds.model.Circuit;
+import pt.unl.fct.pds.model.Node;
+import pt.unl.fct.pds.utils.GeoSelector;
+import pt.unl.fct.pds.utils.PathSelector;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Circuits per second with several threads selecting over one shared consensus.
+ * Each thread owns its selectors (and Random), as a multi-threaded caller would.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(4)
+public class SelectionThroughputBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Consensus {
+        Node[] nodes;
+
+        @Setup(Level.Trial)
+        public void load() {
+            nodes = BenchmarkData.loadNodes();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Selectors {
+        PathSelector tor;
+        GeoSelector geo;
+
+        @Setup(Level.Trial)
+        public void setUp(Consensus consensus) {
+            Random rng = new Random(Thread.currentThread().getId());
+            tor = new PathSelector(consensus.nodes, rng);
+            geo = new GeoSelector(consensus.nodes, rng);
+        }
+    }
+
+    @Benchmark
+    public Circuit pathSelector(Selectors s) {
+        return s.tor.selectPath(443);
+    }
+
+    @Benchmark
+    public Circuit geoSelector(Selectors s) {
+        return s.geo.selectPath(443);
+    }
+}
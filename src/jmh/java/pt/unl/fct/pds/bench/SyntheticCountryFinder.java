@@ -0,0 +1,28 @@
+package pt.unl.fct.pds.bench;
+
+import pt.unl.fct.pds.utils.CountryFinder;
+
+import java.net.InetAddress;
+
+/**
+ * GeoIP stand-in so benchmarks run without GeoLite2-Country.mmdb.
+ * Maps each address deterministically onto a fixed set of countries, keeping the
+ * parse / cache / InetAddress path of {@link CountryFinder} intact.
+ */
+public class SyntheticCountryFinder extends CountryFinder {
+    private static final String[] COUNTRIES = {
+            "Germany", "United States", "France", "Netherlands", "Finland", "Switzerland",
+            "Sweden", "Canada", "United Kingdom", "Poland", "Romania", "Austria",
+            "Luxembourg", "Norway", "Czechia", "Russia", "Ukraine", "Japan", "Singapore", "Brazil"
+    };
+
+    @Override
+    protected String resolveCountry(InetAddress addr) {
+        byte[] b = addr.getAddress();
+        int h = 0;
+        for (byte x : b) h = 31 * h + (x & 0xff);
+        // skew towards the first entries, like the real relay distribution
+        int idx = (h & 0x7fffffff) % (COUNTRIES.length * 3);
+        return COUNTRIES[idx < COUNTRIES.length ? idx : idx % 4];
+    }
+}
@@ -2,9 +2,14 @@ package pt.unl.fct.pds;
 
 import pt.unl.fct.pds.model.Node;
 
+import java.io.File;
 import java.util.Arrays;
+import java.util.Random;
 
+import pt.unl.fct.pds.metrics.Metrics;
 import pt.unl.fct.pds.model.Circuit;
+import pt.unl.fct.pds.service.SelectionService;
+import pt.unl.fct.pds.utils.AsnFinder;
 import pt.unl.fct.pds.utils.ConsensusParser;
 import pt.unl.fct.pds.utils.CountryFinder;
 import pt.unl.fct.pds.utils.GeoSelector;
@@ -19,19 +24,29 @@ public class Project2
 {
     public static void main( String[] args ) throws Exception
     {
+        // "serve [port]" keeps the consensus loaded and answers selections over loopback HTTP
+        if (args.length > 0 && args[0].equals("serve")) {
+            SelectionService.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+
         String consensusPath = "src/main/java/pt/unl/fct/pds/data/consensus.txt";
         String countryDbPath = "src/main/java/pt/unl/fct/pds/data/GeoLite2-Country.mmdb";
+        String asnDbPath = "src/main/java/pt/unl/fct/pds/data/GeoLite2-ASN.mmdb";
 
         CountryFinder resolver = new CountryFinder(countryDbPath);
-        ConsensusParser parser = new ConsensusParser(consensusPath, resolver);
+        // ASN data is optional; without it GeoSelector only diversifies by country and /16
+        AsnFinder asnResolver = new File(asnDbPath).exists() ? new AsnFinder(asnDbPath) : null;
+        ConsensusParser parser = new ConsensusParser(consensusPath, resolver, asnResolver);
 
         Node[] nodes = parser.parseConsensus();
         resolver.close();
+        if (asnResolver != null) asnResolver.close();
 
         PathSelector selector = new PathSelector(nodes);
         Circuit c1 = selector.selectPath(80);
 
-        GeoSelector geo = new GeoSelector(nodes);
+        GeoSelector geo = new GeoSelector(nodes, new Random(), asnResolver != null);
         Circuit c2 = geo.selectPath(80);
 
     
@@ -62,6 +77,12 @@ public class Project2
         printNode("Guard Node",  c2.getNodes()[0]);
         printNode("Middle Node", c2.getNodes()[1]);
         printNode("Exit Node",   c2.getNodes()[2]);
+
+        if (Metrics.isEnabled()) {
+            System.out.println("================================================");
+            System.out.println("Metrics (latencies in ns).\n");
+            Metrics.snapshot().writeTo(System.out);
+        }
     }
 
     private static void printNode(String title, Node n) {
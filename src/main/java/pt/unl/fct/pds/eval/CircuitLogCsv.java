@@ -0,0 +1,96 @@
+package pt.unl.fct.pds.eval;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Converts a {@link CircuitLogWriter} log to the evaluation CSV layout
+ * ("selector,trial,role,nickname,fingerprint,ip,country,bandwidth", one line per hop).
+ * Each relay's columns are sanitized and encoded once, not once per line.
+ *
+ * Usage: CircuitLogCsv &lt;log&gt; &lt;csv&gt;
+ */
+public class CircuitLogCsv {
+    public static final String HEADER = "selector,trial,role,nickname,fingerprint,ip,country,bandwidth\n";
+
+    private static final byte[] GUARD = ",guard".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] MIDDLE = ",middle".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] EXIT = ",exit".getBytes(StandardCharsets.US_ASCII);
+
+    private CircuitLogCsv() {}
+
+    /** Returns the number of circuits converted. */
+    public static long convert(Path log, Path csv) throws IOException {
+        try (CircuitLogReader reader = new CircuitLogReader(log);
+             OutputStream out = new BufferedOutputStream(Files.newOutputStream(csv), 1 << 16)) {
+
+            byte[][] relayColumns = new byte[reader.relayCount()][];
+            for (int i = 0; i < relayColumns.length; i++) {
+                String cols = "," + sanitize(reader.nickname(i))
+                        + "," + sanitize(reader.fingerprint(i))
+                        + "," + sanitize(reader.ipAddress(i))
+                        + "," + sanitize(reader.country(i))
+                        + "," + reader.bandwidth(i) + "\n";
+                relayColumns[i] = cols.getBytes(StandardCharsets.UTF_8);
+            }
+
+            Map<String, byte[]> selectors = new HashMap<>();
+            byte[] digits = new byte[20];
+
+            out.write(HEADER.getBytes(StandardCharsets.US_ASCII));
+            return reader.read((selector, trial, guard, middle, exit) -> {
+                byte[] name = selectors.computeIfAbsent(selector,
+                        s -> sanitize(s).getBytes(StandardCharsets.UTF_8));
+                int len = formatTrial(trial, digits);
+                line(out, name, digits, len, GUARD, relayColumns[guard]);
+                line(out, name, digits, len, MIDDLE, relayColumns[middle]);
+                line(out, name, digits, len, EXIT, relayColumns[exit]);
+            });
+        }
+    }
+
+    private static void line(OutputStream out, byte[] selector, byte[] digits, int len,
+                             byte[] role, byte[] relay) throws IOException {
+        out.write(selector);
+        out.write(',');
+        out.write(digits, digits.length - len, len);
+        out.write(role);
+        out.write(relay);
+    }
+
+    // right-aligned decimal digits of a trial number, returns how many were written
+    private static int formatTrial(long trial, byte[] digits) {
+        if (trial < 0) {
+            byte[] s = Long.toString(trial).getBytes(StandardCharsets.US_ASCII);
+            System.arraycopy(s, 0, digits, digits.length - s.length, s.length);
+            return s.length;
+        }
+        int pos = digits.length;
+        do {
+            digits[--pos] = (byte) ('0' + trial % 10);
+            trial /= 10;
+        } while (trial != 0);
+        return digits.length - pos;
+    }
+
+    static String sanitize(String s) {
+        if (s == null) return "";
+        return s.replace(",", "_").replace("\n", " ").replace("\r", " ");
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: CircuitLogCsv <log> <csv>");
+            return;
+        }
+        long n = convert(Paths.get(args[0]), Paths.get(args[1]));
+        System.out.println("Converted " + n + " circuits to " + args[1]);
+    }
+}
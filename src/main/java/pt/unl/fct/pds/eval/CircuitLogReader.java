@@ -0,0 +1,165 @@
+package pt.unl.fct.pds.eval;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Reads logs written by {@link CircuitLogWriter}; gzip is detected from the first bytes.
+ * The relay dictionary is available right after opening, circuits are streamed to a visitor.
+ */
+public class CircuitLogReader implements AutoCloseable {
+
+    /** Receives each circuit as relay indexes into the log's dictionary. */
+    public interface Visitor {
+        void circuit(String selector, long trial, int guard, int middle, int exit) throws IOException;
+    }
+
+    private final ReadableByteChannel in;
+    private final ByteBuffer buf = ByteBuffer.allocateDirect(1 << 16);
+    private final String[] nicknames, fingerprints, ips, countries;
+    private final int[] bandwidths;
+    private final List<String> selectors = new ArrayList<>();
+
+    public CircuitLogReader(Path path) throws IOException {
+        PushbackInputStream raw = new PushbackInputStream(
+                Channels.newInputStream(FileChannel.open(path, StandardOpenOption.READ)), 2);
+        InputStream stream = raw;
+        try {
+            int b0 = raw.read(), b1 = raw.read();
+            if (b1 >= 0) raw.unread(b1);
+            if (b0 >= 0) raw.unread(b0);
+            if (b0 == 0x1f && b1 == 0x8b) stream = new GZIPInputStream(raw, 1 << 16);
+            this.in = Channels.newChannel(stream);
+            buf.limit(0);
+
+            need(10);
+            if (buf.getInt() != CircuitLogWriter.MAGIC) throw new IOException("Not a circuit log: " + path);
+            short version = buf.getShort();
+            if (version != CircuitLogWriter.VERSION) throw new IOException("Unsupported circuit log version " + version);
+
+            int n = buf.getInt();
+            nicknames = new String[n];
+            fingerprints = new String[n];
+            ips = new String[n];
+            countries = new String[n];
+            bandwidths = new int[n];
+            for (int i = 0; i < n; i++) {
+                nicknames[i] = getString();
+                fingerprints[i] = getString();
+                ips[i] = getString();
+                countries[i] = getString();
+                need(4);
+                bandwidths[i] = buf.getInt();
+            }
+        } catch (IOException | RuntimeException e) {
+            stream.close();
+            throw e;
+        }
+    }
+
+    public int relayCount() { return nicknames.length; }
+    public String nickname(int relay) { return nicknames[relay]; }
+    public String fingerprint(int relay) { return fingerprints[relay]; }
+    public String ipAddress(int relay) { return ips[relay]; }
+    public String country(int relay) { return countries[relay]; }
+    public int bandwidth(int relay) { return bandwidths[relay]; }
+
+    /** Streams every remaining circuit to the visitor; returns how many were read. */
+    public long read(Visitor visitor) throws IOException {
+        long total = 0;
+        long[] trials = new long[CircuitLogWriter.BLOCK_SIZE];
+        int[] guards = new int[CircuitLogWriter.BLOCK_SIZE];
+        int[] middles = new int[CircuitLogWriter.BLOCK_SIZE];
+        int[] exits = new int[CircuitLogWriter.BLOCK_SIZE];
+
+        while (true) {
+            need(1);
+            byte type = buf.get();
+            if (type == CircuitLogWriter.END) return total;
+
+            if (type == CircuitLogWriter.SELECTOR) {
+                int id = (int) getVarLong();
+                String name = getString();
+                while (selectors.size() <= id) selectors.add(null);
+                selectors.set(id, name);
+                continue;
+            }
+            if (type != CircuitLogWriter.CIRCUITS) throw new IOException("Corrupt circuit log (block type " + type + ")");
+
+            String selector = selectors.get((int) getVarLong());
+            long trial = getVarLong();
+            int count = (int) getVarLong();
+            if (count > trials.length) {
+                trials = new long[count];
+                guards = new int[count];
+                middles = new int[count];
+                exits = new int[count];
+            }
+            for (int i = 0; i < count; i++) {
+                long zz = getVarLong();
+                trial += (zz >>> 1) ^ -(zz & 1);
+                trials[i] = trial;
+            }
+            for (int i = 0; i < count; i++) guards[i] = (int) getVarLong();
+            for (int i = 0; i < count; i++) middles[i] = (int) getVarLong();
+            for (int i = 0; i < count; i++) exits[i] = (int) getVarLong();
+
+            for (int i = 0; i < count; i++) {
+                visitor.circuit(selector, trials[i], guards[i], middles[i], exits[i]);
+            }
+            total += count;
+        }
+    }
+
+    private String getString() throws IOException {
+        need(4);
+        int len = buf.getInt();
+        if (len < 0) return null;
+        byte[] b = new byte[len];
+        int off = 0;
+        while (off < len) {
+            need(1);
+            int chunk = Math.min(buf.remaining(), len - off);
+            buf.get(b, off, chunk);
+            off += chunk;
+        }
+        return new String(b, StandardCharsets.UTF_8);
+    }
+
+    private long getVarLong() throws IOException {
+        long v = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            need(1);
+            byte b = buf.get();
+            v |= (long) (b & 0x7F) << shift;
+            if (b >= 0) return v;
+        }
+        throw new IOException("Corrupt circuit log (varint too long)");
+    }
+
+    private void need(int bytes) throws IOException {
+        if (buf.remaining() >= bytes) return;
+        buf.compact();
+        while (buf.position() < bytes) {
+            if (in.read(buf) < 0) throw new EOFException("Truncated circuit log");
+        }
+        buf.flip();
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+}
@@ -0,0 +1,214 @@
+package pt.unl.fct.pds.eval;
+
+import pt.unl.fct.pds.model.Circuit;
+import pt.unl.fct.pds.model.Node;
+import pt.unl.fct.pds.utils.RelayIndex;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Streams evaluated circuits to a compact binary log instead of one CSV line per hop.
+ *
+ * Layout (big-endian): a header with the relay dictionary (nickname, fingerprint, IP,
+ * country and bandwidth once per relay), then a sequence of blocks. A selector block
+ * names a selector id; a circuit block holds up to {@link #BLOCK_SIZE} circuits of one
+ * selector stored column by column as varints: trial deltas, guard, middle and exit relay
+ * indexes. A typical circuit takes 6-8 bytes, versus ~270 bytes in the CSV layout.
+ * Output goes through a direct buffer into a file channel, optionally gzip-compressed.
+ *
+ * {@link CircuitLogReader} reads it back; {@link CircuitLogCsv} converts it to the CSV layout.
+ * {@link #write} buffers per selector and is not thread-safe; {@link #writeBlock} is, and
+ * is what parallel producers use.
+ */
+public class CircuitLogWriter implements AutoCloseable {
+    static final int MAGIC = 0x50445343; // "PDSC"
+    static final short VERSION = 1;
+    static final byte END = 0;
+    static final byte SELECTOR = 1;
+    static final byte CIRCUITS = 2;
+
+    public static final int BLOCK_SIZE = 4096;
+
+    private final RelayIndex relays;
+    private final WritableByteChannel out;
+    private final ByteBuffer buf = ByteBuffer.allocateDirect(1 << 16);
+    private final Map<String, Integer> selectorIds = new HashMap<>();
+    private final Map<String, Block> pending = new LinkedHashMap<>();
+    private long circuits;
+    private boolean closed;
+
+    public CircuitLogWriter(Path path, RelayIndex relays, boolean gzip) throws IOException {
+        this.relays = relays;
+        FileChannel file = FileChannel.open(path, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+        try {
+            this.out = gzip
+                    ? Channels.newChannel(new GZIPOutputStream(Channels.newOutputStream(file), 1 << 16))
+                    : file;
+            writeHeader();
+        } catch (IOException | RuntimeException e) {
+            file.close();
+            throw e;
+        }
+    }
+
+    public long getCircuits() { return circuits; }
+
+    /** Buffers one circuit (relay indexes of {@link RelayIndex}); trials should be increasing. */
+    public void write(String selector, long trial, int guard, int middle, int exit) throws IOException {
+        Block b = pending.get(selector);
+        if (b == null) {
+            b = new Block();
+            pending.put(selector, b);
+        }
+        if (b.add(trial, guard, middle, exit)) {
+            writeBlock(selector, b.trials, b.guards, b.middles, b.exits, b.count);
+            b.count = 0;
+        }
+    }
+
+    public void write(String selector, long trial, Circuit c) throws IOException {
+        Node[] path = c.getNodes();
+        write(selector, trial, index(path[0]), index(path[1]), index(path[2]));
+    }
+
+    /** Writes count circuits of one selector as a single block. */
+    public synchronized void writeBlock(String selector, long[] trials, int[] guards, int[] middles,
+                                        int[] exits, int count) throws IOException {
+        if (count == 0) return;
+        int id = selectorId(selector);
+
+        ensure(1 + 5 + 10 + 5);
+        buf.put(CIRCUITS);
+        putVarLong(id);
+        putVarLong(trials[0]);
+        putVarLong(count);
+
+        long prev = trials[0];
+        for (int i = 0; i < count; i++) {
+            putVarLong(zigzag(trials[i] - prev));
+            prev = trials[i];
+        }
+        for (int i = 0; i < count; i++) putVarLong(guards[i]);
+        for (int i = 0; i < count; i++) putVarLong(middles[i]);
+        for (int i = 0; i < count; i++) putVarLong(exits[i]);
+        circuits += count;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) return;
+        for (Map.Entry<String, Block> e : pending.entrySet()) {
+            Block b = e.getValue();
+            writeBlock(e.getKey(), b.trials, b.guards, b.middles, b.exits, b.count);
+        }
+        ensure(1);
+        buf.put(END);
+        flush();
+        out.close();
+        closed = true;
+    }
+
+    private int index(Node n) {
+        int i = relays.indexOf(n);
+        if (i < 0) throw new IllegalArgumentException("Relay is not part of the logged consensus");
+        return i;
+    }
+
+    private int selectorId(String selector) throws IOException {
+        Integer id = selectorIds.get(selector);
+        if (id == null) {
+            id = selectorIds.size();
+            selectorIds.put(selector, id);
+            ensure(1 + 5);
+            buf.put(SELECTOR);
+            putVarLong(id);
+            putString(selector);
+        }
+        return id;
+    }
+
+    private void writeHeader() throws IOException {
+        buf.putInt(MAGIC);
+        buf.putShort(VERSION);
+        buf.putInt(relays.size());
+        for (int i = 0; i < relays.size(); i++) {
+            Node n = relays.node(i);
+            putString(n.getNickname());
+            putString(n.getFingerprint());
+            putString(n.getIpAddress());
+            putString(n.getCountry());
+            ensure(4);
+            buf.putInt(n.getBandwidth());
+        }
+    }
+
+    private void putString(String s) throws IOException {
+        if (s == null) {
+            ensure(4);
+            buf.putInt(-1);
+            return;
+        }
+        byte[] b = s.getBytes(StandardCharsets.UTF_8);
+        ensure(4);
+        buf.putInt(b.length);
+        int off = 0;
+        while (off < b.length) {
+            ensure(1);
+            int len = Math.min(buf.remaining(), b.length - off);
+            buf.put(b, off, len);
+            off += len;
+        }
+    }
+
+    private void putVarLong(long v) throws IOException {
+        ensure(10);
+        while ((v & ~0x7FL) != 0) {
+            buf.put((byte) ((v & 0x7F) | 0x80));
+            v >>>= 7;
+        }
+        buf.put((byte) v);
+    }
+
+    private static long zigzag(long v) {
+        return (v << 1) ^ (v >> 63);
+    }
+
+    private void ensure(int bytes) throws IOException {
+        if (buf.remaining() < bytes) flush();
+    }
+
+    private void flush() throws IOException {
+        buf.flip();
+        while (buf.hasRemaining()) out.write(buf);
+        buf.clear();
+    }
+
+    // circuits of one selector waiting to fill a block
+    private static final class Block {
+        final long[] trials = new long[BLOCK_SIZE];
+        final int[] guards = new int[BLOCK_SIZE];
+        final int[] middles = new int[BLOCK_SIZE];
+        final int[] exits = new int[BLOCK_SIZE];
+        int count;
+
+        boolean add(long trial, int guard, int middle, int exit) {
+            trials[count] = trial;
+            guards[count] = guard;
+            middles[count] = middle;
+            exits[count] = exit;
+            return ++count == BLOCK_SIZE;
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package pt.unl.fct.pds.eval;
+
+import pt.unl.fct.pds.utils.RelayIndex;
+
+import java.util.Arrays;
+
+/**
+ * Aggregated outcome of a Monte Carlo run for one selector at one destination port.
+ *
+ * Counters are indexed by relay (see {@link RelayIndex}); rates come with 95% Wilson
+ * score intervals, which stay sensible for relays that are almost never picked.
+ * When the relays have coordinates, the estimated guard-middle-exit RTT of every circuit
+ * is kept in 1 ms buckets (see {@link pt.unl.fct.pds.utils.LatencyModel}).
+ */
+public class EvaluationResult {
+    public static final int GUARD = 0;
+    public static final int MIDDLE = 1;
+    public static final int EXIT = 2;
+
+    /** RTT histogram buckets of 1 ms; the last one collects everything slower. */
+    public static final int RTT_BUCKETS = 2000;
+
+    private static final double Z95 = 1.959963984540054;
+
+    private final String selector;
+    private final int destPort;
+    private final RelayIndex relays;
+    private final long[][] roleCounts;
+    private final long requested;
+    private final long completed;
+    private final long failures;
+    private final long distinctCountry;
+    private final long subnetCollisions;
+    private final long elapsedNanos;
+    private final long[] rttHistogram;
+    private final double rttSum;
+
+    EvaluationResult(String selector, int destPort, RelayIndex relays, long[][] roleCounts,
+                     long requested, long completed, long failures,
+                     long distinctCountry, long subnetCollisions, long elapsedNanos,
+                     long[] rttHistogram, double rttSum) {
+        this.selector = selector;
+        this.destPort = destPort;
+        this.relays = relays;
+        this.roleCounts = roleCounts;
+        this.requested = requested;
+        this.completed = completed;
+        this.failures = failures;
+        this.distinctCountry = distinctCountry;
+        this.subnetCollisions = subnetCollisions;
+        this.elapsedNanos = elapsedNanos;
+        this.rttHistogram = rttHistogram;
+        this.rttSum = rttSum;
+    }
+
+    public String getSelector() { return selector; }
+    public int getDestPort() { return destPort; }
+    public RelayIndex getRelays() { return relays; }
+    public long getRequested() { return requested; }
+    public long getCompleted() { return completed; }
+    public long getFailures() { return failures; }
+    public long getDistinctCountry() { return distinctCountry; }
+    public long getSubnetCollisions() { return subnetCollisions; }
+    public long getElapsedNanos() { return elapsedNanos; }
+
+    /** How many completed circuits used relay i in the given role. */
+    public long count(int role, int relay) { return roleCounts[role][relay]; }
+
+    public double frequency(int role, int relay) { return rate(roleCounts[role][relay], completed); }
+    public double[] frequencyCi(int role, int relay) { return wilson(roleCounts[role][relay], completed); }
+
+    /** Share of circuits whose guard, middle and exit are in three different countries. */
+    public double distinctCountryRate() { return rate(distinctCountry, completed); }
+    public double[] distinctCountryCi() { return wilson(distinctCountry, completed); }
+
+    /** Share of circuits with at least two relays in the same /16. */
+    public double subnetCollisionRate() { return rate(subnetCollisions, completed); }
+    public double[] subnetCollisionCi() { return wilson(subnetCollisions, completed); }
+
+    /** Whether RTTs were estimated (the relays had coordinates). */
+    public boolean hasRttEstimates() { return rttHistogram != null && completed > 0; }
+
+    public double meanRttMs() { return hasRttEstimates() ? rttSum / completed : Double.NaN; }
+
+    /** RTT below which a fraction p of the circuits fall, to the 1 ms bucket. */
+    public double rttPercentileMs(double p) {
+        if (!hasRttEstimates()) return Double.NaN;
+        long rank = (long) Math.ceil(p * completed);
+        long seen = 0;
+        for (int b = 0; b < rttHistogram.length; b++) {
+            seen += rttHistogram[b];
+            if (seen >= Math.max(1, rank)) return b + 1;
+        }
+        return rttHistogram.length;
+    }
+
+    public double circuitsPerSecond() {
+        return elapsedNanos == 0 ? 0.0 : completed * 1e9 / elapsedNanos;
+    }
+
+    /** Relay indexes sorted by descending count in a role, truncated to limit. */
+    public int[] top(int role, int limit) {
+        long[] counts = roleCounts[role];
+        int k = Math.min(limit, counts.length);
+        int[] best = new int[k];
+        int filled = 0;
+        for (int i = 0; i < counts.length; i++) {
+            if (counts[i] == 0) continue;
+            int pos = filled < k ? filled++ : k;
+            while (pos > 0 && counts[best[pos - 1]] < counts[i]) {
+                if (pos < k) best[pos] = best[pos - 1];
+                pos--;
+            }
+            if (pos < k) best[pos] = i;
+        }
+        return Arrays.copyOf(best, filled);
+    }
+
+    private static double rate(long k, long n) {
+        return n == 0 ? 0.0 : (double) k / n;
+    }
+
+    static double[] wilson(long k, long n) {
+        if (n == 0) return new double[]{ 0.0, 0.0 };
+        double p = (double) k / n;
+        double z2 = Z95 * Z95;
+        double denom = 1 + z2 / n;
+        double centre = (p + z2 / (2.0 * n)) / denom;
+        double half = Z95 * Math.sqrt(p * (1 - p) / n + z2 / (4.0 * n * n)) / denom;
+        double lo = k == 0 ? 0.0 : Math.max(0.0, centre - half);
+        double hi = k == n ? 1.0 : Math.min(1.0, centre + half);
+        return new double[]{ lo, hi };
+    }
+}
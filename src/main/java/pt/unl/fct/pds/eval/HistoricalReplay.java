@@ -0,0 +1,339 @@
+package pt.unl.fct.pds.eval;
+
+import pt.unl.fct.pds.model.Node;
+import pt.unl.fct.pds.utils.AsnFinder;
+import pt.unl.fct.pds.utils.CircuitSelector;
+import pt.unl.fct.pds.utils.ConsensusParser;
+import pt.unl.fct.pds.utils.CountryFinder;
+import pt.unl.fct.pds.utils.GeoSelector;
+import pt.unl.fct.pds.utils.PackedSelector;
+import pt.unl.fct.pds.utils.PathSelector;
+import pt.unl.fct.pds.utils.RelayIndex;
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.BiFunction;
+import java.util.function.Predicate;
+
+/**
+ * Replays a sequence of consensuses and follows a population of simulated clients through it.
+ *
+ * At every consensus each client builds circuitsPerHour circuits with each configured selector.
+ * A circuit is compromised when both its guard and exit satisfy the adversary predicate, and
+ * same-country when guard and exit sit in the same known country. Clients remember the first
+ * hour they were exposed, which gives the cumulative exposure curves of {@link ReplayResult}.
+ *
+ * Clients keep their guard: a client's first circuit picks one, and later circuits, in this and
+ * the following consensuses, only pick exit and middle around it
+ * ({@link PackedSelector#selectPacked(int, int)}). A new guard is picked once the relay leaves
+ * the consensus or loses its Guard, Running or Valid flag; there is no time-based rotation and
+ * a client has a single guard. Selectors that are not {@link PackedSelector}s over the hour's
+ * index cannot be given a guard, so their clients draw a fresh one for every circuit.
+ *
+ * Clients are split into one block per worker thread; a worker keeps its own Random across
+ * hours and builds a fresh selector over each consensus's {@link RelayIndex}, so results depend
+ * only on the seed and the thread count. Only the current and the next consensus are held in
+ * memory: the next one is parsed on a separate thread while the current one is simulated. Of
+ * the previous hour only the guards' fingerprints are kept, to carry clients' guards over.
+ *
+ * Usage: HistoricalReplay &lt;consensus dir&gt; [clients] [threads] [port] [adversary country] [csv]
+ */
+public class HistoricalReplay {
+    private static final int NEVER = -1;
+    private static final int NO_GUARD = -1;
+    private static final int GUARD = RelayIndex.FLAG_GUARD | RelayIndex.FLAG_RUNNING | RelayIndex.FLAG_VALID;
+
+    private final int clients;
+    private final int circuitsPerHour;
+    private final int destPort;
+    private final int threads;
+    private final Predicate<Node> adversary;
+    private final List<String> names = new ArrayList<>();
+    private final List<BiFunction<RelayIndex, Random, CircuitSelector>> factories = new ArrayList<>();
+
+    public HistoricalReplay(int clients, int circuitsPerHour, int destPort, int threads, Predicate<Node> adversary) {
+        if (clients < 1) throw new IllegalArgumentException("clients must be >= 1");
+        if (circuitsPerHour < 1) throw new IllegalArgumentException("circuitsPerHour must be >= 1");
+        if (threads < 1) throw new IllegalArgumentException("threads must be >= 1");
+        this.clients = clients;
+        this.circuitsPerHour = circuitsPerHour;
+        this.destPort = destPort;
+        this.threads = threads;
+        this.adversary = adversary;
+    }
+
+    /** Adds a selector; the factory gets each consensus's index and a worker's Random. */
+    public HistoricalReplay selector(String name, BiFunction<RelayIndex, Random, CircuitSelector> factory) {
+        names.add(name);
+        factories.add(factory);
+        return this;
+    }
+
+    /** Regular files of a directory, in file name order (Tor's archive names sort by time). */
+    public static List<Path> consensusFiles(Path dir) throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> ds = Files.newDirectoryStream(dir)) {
+            for (Path p : ds) if (Files.isRegularFile(p)) files.add(p);
+        }
+        files.sort((a, b) -> a.getFileName().toString().compareTo(b.getFileName().toString()));
+        return files;
+    }
+
+    /** Replays consensus files in the given order. The resolvers are only used by the parser thread. */
+    public ReplayResult run(List<Path> files, CountryFinder geo, AsnFinder asn, long seed) {
+        LocalDateTime[] validAfter = new LocalDateTime[files.size()];
+        List<Callable<Node[]>> loaders = new ArrayList<>();
+        for (int k = 0; k < files.size(); k++) {
+            int hour = k;
+            Path file = files.get(k);
+            loaders.add(() -> {
+                ConsensusParser parser = new ConsensusParser(file.toString(), geo, asn);
+                parser.setLazy(true);
+                Node[] nodes = parser.parseConsensus();
+                validAfter[hour] = parser.getValidAfter();
+                return nodes;
+            });
+        }
+        return replay(loaders, validAfter, seed);
+    }
+
+    /** Replays consensuses produced by the loaders, one per hour, in order. */
+    public ReplayResult run(List<Callable<Node[]>> consensuses, long seed) {
+        return replay(consensuses, new LocalDateTime[consensuses.size()], seed);
+    }
+
+    private ReplayResult replay(List<Callable<Node[]>> loaders, LocalDateTime[] validAfter, long seed) {
+        if (names.isEmpty()) throw new IllegalStateException("No selectors configured");
+        int hours = loaders.size();
+        int selectors = names.size();
+        int workers = Math.min(threads, clients);
+
+        long[][] circuits = new long[selectors][hours];
+        long[][] failures = new long[selectors][hours];
+        long[][] compromised = new long[selectors][hours];
+        long[][] sameCountry = new long[selectors][hours];
+        int[][] clientsCompromised = new int[selectors][hours];
+        int[][] clientsSameCountry = new int[selectors][hours];
+
+        // first exposure hour of each client, written only by the worker owning its block
+        int[][] firstCompromised = new int[selectors][clients];
+        int[][] firstSameCountry = new int[selectors][clients];
+        // each client's guard, as an index of the current consensus
+        int[][] guards = new int[selectors][clients];
+        for (int s = 0; s < selectors; s++) {
+            Arrays.fill(firstCompromised[s], NEVER);
+            Arrays.fill(firstSameCountry[s], NEVER);
+            Arrays.fill(guards[s], NO_GUARD);
+        }
+        Random[][] randoms = new Random[selectors][workers];
+        for (int s = 0; s < selectors; s++) {
+            for (int w = 0; w < workers; w++) {
+                randoms[s][w] = new Random(seed + 0x9E3779B97F4A7C15L * (s * workers + w + 1));
+            }
+        }
+
+        ExecutorService parser = Executors.newSingleThreadExecutor();
+        ExecutorService pool = Executors.newFixedThreadPool(workers);
+        long start = System.nanoTime();
+        long[] parseNanos = new long[1];
+        long simulateNanos = 0;
+        int[] exposedC = new int[selectors], exposedS = new int[selectors];
+        String[] previousGuards = null;
+
+        try {
+            Future<Node[]> next = hours == 0 ? null : parser.submit(timed(loaders.get(0), parseNanos));
+            for (int h = 0; h < hours; h++) {
+                Node[] nodes = next.get();
+                next = h + 1 < hours ? parser.submit(timed(loaders.get(h + 1), parseNanos)) : null;
+
+                long simStart = System.nanoTime();
+                RelayIndex relays = new RelayIndex(nodes);
+                boolean[] bad = new boolean[relays.size()];
+                for (int i = 0; i < bad.length; i++) bad[i] = adversary.test(relays.node(i));
+                int unknown = unknownCountry(relays);
+                int[] carried = previousGuards == null ? null : carriedGuards(previousGuards, relays);
+                previousGuards = guardFingerprints(relays);
+
+                List<Future<long[]>> futures = new ArrayList<>();
+                for (int s = 0; s < selectors; s++) {
+                    for (int w = 0; w < workers; w++) {
+                        int sel = s, hour = h;
+                        int from = (int) ((long) clients * w / workers);
+                        int to = (int) ((long) clients * (w + 1) / workers);
+                        Random rng = randoms[s][w];
+                        futures.add(pool.submit(() -> simulate(factories.get(sel).apply(relays, rng), relays, bad,
+                                unknown, hour, from, to, carried, guards[sel], firstCompromised[sel], firstSameCountry[sel])));
+                    }
+                }
+                for (int s = 0; s < selectors; s++) {
+                    for (int w = 0; w < workers; w++) {
+                        long[] p = futures.get(s * workers + w).get();
+                        circuits[s][h] += p[0];
+                        failures[s][h] += p[1];
+                        compromised[s][h] += p[2];
+                        sameCountry[s][h] += p[3];
+                        exposedC[s] += (int) p[4];
+                        exposedS[s] += (int) p[5];
+                    }
+                    clientsCompromised[s][h] = exposedC[s];
+                    clientsSameCountry[s][h] = exposedS[s];
+                }
+                simulateNanos += System.nanoTime() - simStart;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Replay interrupted", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Replay failed: " + e.getCause().getMessage(), e.getCause());
+        } finally {
+            parser.shutdownNow();
+            pool.shutdownNow();
+        }
+
+        return new ReplayResult(new ArrayList<>(names), validAfter, clients, destPort,
+                circuits, failures, compromised, sameCountry, clientsCompromised, clientsSameCountry,
+                parseNanos[0], simulateNanos, System.nanoTime() - start);
+    }
+
+    // circuits, failures, compromised, same-country, newly compromised clients, newly same-country clients
+    private long[] simulate(CircuitSelector selector, RelayIndex relays, boolean[] bad, int unknown, int hour,
+                            int from, int to, int[] carried, int[] guards,
+                            int[] firstCompromised, int[] firstSameCountry) {
+        long[] p = new long[6];
+        // selectors over this hour's index hand back indexes, no Circuit per trial
+        PackedSelector packed = selector instanceof PackedSelector
+                && ((PackedSelector) selector).getRelays() == relays ? (PackedSelector) selector : null;
+
+        for (int client = from; client < to; client++) {
+            if (guards[client] != NO_GUARD) guards[client] = carried == null ? NO_GUARD : carried[guards[client]];
+
+            for (int k = 0; k < circuitsPerHour; k++) {
+                int g, x;
+                try {
+                    if (packed != null) {
+                        long path = guards[client] == NO_GUARD ? packed.selectPacked(destPort)
+                                : packed.selectPacked(destPort, guards[client]);
+                        g = RelayIndex.guardOf(path);
+                        x = RelayIndex.exitOf(path);
+                        guards[client] = g;
+                    } else {
+                        Node[] path = selector.selectPath(destPort).getNodes();
+                        g = relays.indexOf(path[0]);
+                        x = relays.indexOf(path[2]);
+                    }
+                } catch (IllegalStateException e) {
+                    p[1]++;
+                    continue;
+                }
+                if (g < 0 || x < 0) throw new IllegalArgumentException("Selector returned a relay outside the consensus");
+                p[0]++;
+
+                if (bad[g] && bad[x]) {
+                    p[2]++;
+                    if (firstCompromised[client] == NEVER) {
+                        firstCompromised[client] = hour;
+                        p[4]++;
+                    }
+                }
+                int cg = relays.country(g);
+                if (cg != RelayIndex.NO_COUNTRY && cg != unknown && cg == relays.country(x)) {
+                    p[3]++;
+                    if (firstSameCountry[client] == NEVER) {
+                        firstSameCountry[client] = hour;
+                        p[5]++;
+                    }
+                }
+            }
+        }
+        return p;
+    }
+
+    // fingerprint of each relay a client may hold as guard, null for the others
+    private static String[] guardFingerprints(RelayIndex relays) {
+        String[] fingerprints = new String[relays.size()];
+        for (int i = 0; i < fingerprints.length; i++) {
+            if (usableGuard(relays, i)) fingerprints[i] = relays.node(i).getFingerprint();
+        }
+        return fingerprints;
+    }
+
+    // index in relays of each previous guard that is still usable as one, else NO_GUARD
+    private static int[] carriedGuards(String[] previousGuards, RelayIndex relays) {
+        int[] carried = new int[previousGuards.length];
+        for (int i = 0; i < carried.length; i++) {
+            int j = previousGuards[i] == null ? -1 : relays.indexOfFingerprint(previousGuards[i]);
+            carried[i] = j >= 0 && usableGuard(relays, j) ? j : NO_GUARD;
+        }
+        return carried;
+    }
+
+    private static boolean usableGuard(RelayIndex relays, int i) {
+        return relays.hasFlags(i, GUARD) && relays.bandwidth(i) > 0;
+    }
+
+    // "UNKNOWN" (no GeoIP answer) must not count as a shared country
+    private static int unknownCountry(RelayIndex relays) {
+        for (int c = 0; c < relays.countryCount(); c++) {
+            if ("UNKNOWN".equals(relays.countryName(c))) return c;
+        }
+        return RelayIndex.NO_COUNTRY;
+    }
+
+    private static Callable<Node[]> timed(Callable<Node[]> loader, long[] nanos) {
+        return () -> {
+            long t = System.nanoTime();
+            try {
+                return loader.call();
+            } finally {
+                nanos[0] += System.nanoTime() - t;
+            }
+        };
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.err.println("Usage: HistoricalReplay <consensus dir> [clients] [threads] [port] [adversary country] [csv]");
+            return;
+        }
+        Path dir = Paths.get(args[0]);
+        int clients = args.length > 1 ? Integer.parseInt(args[1]) : 10_000;
+        int threads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+        int port = args.length > 3 ? Integer.parseInt(args[3]) : 443;
+        String country = args.length > 4 ? args[4] : "Germany";
+        String csv = args.length > 5 ? args[5] : "replay.csv";
+
+        String countryDbPath = "src/main/java/pt/unl/fct/pds/data/GeoLite2-Country.mmdb";
+        CountryFinder resolver = CountryFinder.openIfPresent(countryDbPath);
+
+        List<Path> files = consensusFiles(dir);
+        System.out.println("Consensuses: " + files.size() + ", clients: " + clients + ", threads: " + threads
+                + ", adversary: relays in " + country);
+
+        HistoricalReplay replay = new HistoricalReplay(clients, 1, port, threads, n -> country.equals(n.getCountry()))
+                .selector("Tor", PathSelector::new)
+                .selector("Geo", (relays, rng) -> new GeoSelector(relays, rng, false));
+        ReplayResult result = replay.run(files, resolver, null, 1);
+        if (resolver != null) resolver.close();
+
+        result.printSummary(System.out);
+        try (BufferedWriter bw = new BufferedWriter(new FileWriter(csv))) {
+            result.writeCsv(bw);
+        }
+        System.out.println("Exposure curves written to " + csv);
+    }
+}
@@ -0,0 +1,163 @@
+package pt.unl.fct.pds.eval;
+
+import pt.unl.fct.pds.utils.RelayIndex;
+
+import java.io.PrintStream;
+import java.util.Arrays;
+
+/**
+ * Outcome of a {@link LoadSimulator} run for one selector.
+ *
+ * Utilization of a relay is the demand of the circuits crossing it divided by its capacity
+ * (the consensus Bandwidth weight), averaged over the measured interval. A circuit's
+ * throughput is what it gets at its most contended hop when it opens, under proportional
+ * sharing of an overloaded relay's capacity.
+ */
+public class LoadReport {
+    /** Throughput/demand histogram buckets (1% each). */
+    public static final int RATIO_BUCKETS = 100;
+
+    private final String selector;
+    private final RelayIndex relays;
+    private final boolean[] eligible;
+    private final double[] utilization;
+    private final double[] peakUtilization;
+    private final double[] overloadedTime;
+    private final long[] carried;
+    private final long circuits;
+    private final long failures;
+    private final long measured;
+    private final long congested;
+    private final double seconds;
+    private final double throughputSum;
+    private final double demandSum;
+    private final long[] ratioHistogram;
+    private final long elapsedNanos;
+
+    LoadReport(String selector, RelayIndex relays, boolean[] eligible, double[] utilization,
+               double[] peakUtilization, double[] overloadedTime, long[] carried,
+               long circuits, long failures, long measured, long congested, double seconds,
+               double throughputSum, double demandSum, long[] ratioHistogram, long elapsedNanos) {
+        this.selector = selector;
+        this.relays = relays;
+        this.eligible = eligible;
+        this.utilization = utilization;
+        this.peakUtilization = peakUtilization;
+        this.overloadedTime = overloadedTime;
+        this.carried = carried;
+        this.circuits = circuits;
+        this.failures = failures;
+        this.measured = measured;
+        this.congested = congested;
+        this.seconds = seconds;
+        this.throughputSum = throughputSum;
+        this.demandSum = demandSum;
+        this.ratioHistogram = ratioHistogram;
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    public String getSelector() { return selector; }
+    public RelayIndex getRelays() { return relays; }
+    /** Circuits offered, including the warm-up and the ones the selector could not build. */
+    public long getCircuits() { return circuits; }
+    public long getFailures() { return failures; }
+    /** Circuits opened after the warm-up, the ones throughput statistics cover. */
+    public long getMeasured() { return measured; }
+    /** Simulated seconds after the warm-up. */
+    public double getSeconds() { return seconds; }
+    public long getElapsedNanos() { return elapsedNanos; }
+
+    public double utilization(int relay) { return utilization[relay]; }
+    public double peakUtilization(int relay) { return peakUtilization[relay]; }
+    /** Share of the measured time the relay's demand exceeded its capacity. */
+    public double overloadedFraction(int relay) { return seconds == 0 ? 0.0 : overloadedTime[relay] / seconds; }
+    /** Circuits that used the relay in any position, warm-up included. */
+    public long carried(int relay) { return carried[relay]; }
+
+    public double meanThroughputKBps() { return measured == 0 ? 0.0 : throughputSum / measured; }
+
+    /** Mean of throughput / demand over measured circuits. */
+    public double meanThroughputRatio() {
+        long n = 0;
+        double sum = 0;
+        for (int b = 0; b < ratioHistogram.length; b++) {
+            n += ratioHistogram[b];
+            sum += ratioHistogram[b] * (b + 0.5) / RATIO_BUCKETS;
+        }
+        return n == 0 ? 0.0 : sum / n;
+    }
+
+    /** Throughput / demand below which a fraction p of the measured circuits fall (1% resolution). */
+    public double throughputRatioPercentile(double p) {
+        long rank = Math.max(1, (long) Math.ceil(p * measured));
+        long seen = 0;
+        for (int b = 0; b < ratioHistogram.length; b++) {
+            seen += ratioHistogram[b];
+            if (seen >= rank) return (b + 1) / (double) RATIO_BUCKETS;
+        }
+        return 1.0;
+    }
+
+    /** Share of measured circuits that got less than they asked for. */
+    public double congestedFraction() { return measured == 0 ? 0.0 : (double) congested / measured; }
+
+    /** Delivered throughput over the demand asked for. */
+    public double demandServed() { return demandSum == 0 ? 0.0 : throughputSum / demandSum; }
+
+    /**
+     * Jain's fairness index of utilization over every relay able to carry circuits
+     * (Running, Valid, Bandwidth &gt; 0): 1 when all are equally loaded, 1/n when one carries everything.
+     */
+    public double jainFairness() {
+        double sum = 0, sq = 0;
+        int n = 0;
+        for (int i = 0; i < utilization.length; i++) {
+            if (!eligible[i]) continue;
+            sum += utilization[i];
+            sq += utilization[i] * utilization[i];
+            n++;
+        }
+        return sq == 0 ? 1.0 : sum * sum / (n * sq);
+    }
+
+    /** Share of the eligible relays' capacity in use on average. */
+    public double capacityUsed() {
+        double used = 0, capacity = 0;
+        for (int i = 0; i < utilization.length; i++) {
+            if (!eligible[i]) continue;
+            used += utilization[i] * relays.bandwidth(i);
+            capacity += relays.bandwidth(i);
+        }
+        return capacity == 0 ? 0.0 : used / capacity;
+    }
+
+    /** Relay indexes by descending mean utilization. */
+    public int[] topOverloaded(int limit) {
+        Integer[] order = new Integer[utilization.length];
+        for (int i = 0; i < order.length; i++) order[i] = i;
+        Arrays.sort(order, (a, b) -> Double.compare(utilization[b], utilization[a]));
+        int k = Math.min(limit, order.length);
+        int[] top = new int[k];
+        for (int i = 0; i < k; i++) top[i] = order[i];
+        return top;
+    }
+
+    public void printSummary(PrintStream out) {
+        out.println("=== Load: " + selector + " ===");
+        out.printf("Circuits: %d offered, %d failed, %d measured over %.0f simulated s (%.1f s wall)%n",
+                circuits, failures, measured, seconds, elapsedNanos / 1e9);
+        out.printf("Throughput: mean %.1f KB/s, %.1f%% of demand served, %.2f%% of circuits congested%n",
+                meanThroughputKBps(), 100 * demandServed(), 100 * congestedFraction());
+        out.printf("Throughput/demand: p10 %.2f, median %.2f%n",
+                throughputRatioPercentile(0.1), throughputRatioPercentile(0.5));
+        out.printf("Capacity used: %.2f%%, Jain fairness of utilization: %.3f%n",
+                100 * capacityUsed(), jainFairness());
+        out.println("Most loaded relays:");
+        for (int i : topOverloaded(5)) {
+            out.printf("  %s (%s, bw %d) -> mean %.2f, peak %.2f, overloaded %.1f%% of the time%n",
+                    relays.node(i).getNickname(), relays.countryName(relays.country(i)), relays.bandwidth(i),
+                    utilization[i], peakUtilization[i], 100 * overloadedFraction(i));
+        }
+        out.println();
+    }
+}
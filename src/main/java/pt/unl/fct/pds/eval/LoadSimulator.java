@@ -0,0 +1,406 @@
+package pt.unl.fct.pds.eval;
+
+import pt.unl.fct.pds.model.Node;
+import pt.unl.fct.pds.utils.CircuitSelector;
+import pt.unl.fct.pds.utils.ConsensusParser;
+import pt.unl.fct.pds.utils.CountryFinder;
+import pt.unl.fct.pds.utils.GeoSelector;
+import pt.unl.fct.pds.utils.PackedSelector;
+import pt.unl.fct.pds.utils.PathSelector;
+import pt.unl.fct.pds.utils.RelayIndex;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+
+/**
+ * Discrete-event simulation of relay load under a selector.
+ *
+ * Circuits arrive as a Poisson process mixing several {@link Traffic} classes (destination port,
+ * arrival rate, exponentially distributed lifetime, demanded throughput). Each circuit adds its
+ * demand to its guard, middle and exit until it closes. A relay's capacity is its consensus
+ * Bandwidth weight, read as KB/s; when demand exceeds it, capacity is shared in proportion to
+ * demand. Per-relay load is integrated over time, and every circuit records the throughput it
+ * gets at its most contended hop when it opens (see {@link LoadReport}).
+ *
+ * Selection is the expensive part, and circuits are independent draws, so every circuit the run
+ * needs is sampled first, in parallel with one selector per worker. The event loop itself is
+ * single-threaded over primitive arrays: a binary heap of departure times, slot arrays for the
+ * open circuits and a few doubles per relay. It handles millions of circuits.
+ *
+ * Usage: LoadSimulator [circuits] [target utilization, e.g. 0.5] [threads]
+ */
+public class LoadSimulator {
+
+    /** One class of circuits in the workload. */
+    public static final class Traffic {
+        final int port;
+        final double ratePerSecond;
+        final double meanSeconds;
+        final double demandKBps;
+
+        public Traffic(int port, double ratePerSecond, double meanSeconds, double demandKBps) {
+            if (!(ratePerSecond > 0) || !(meanSeconds > 0) || !(demandKBps > 0))
+                throw new IllegalArgumentException("rate, duration and demand must be > 0");
+            this.port = port;
+            this.ratePerSecond = ratePerSecond;
+            this.meanSeconds = meanSeconds;
+            this.demandKBps = demandKBps;
+        }
+
+        public int getPort() { return port; }
+        public double getRatePerSecond() { return ratePerSecond; }
+        public double getMeanSeconds() { return meanSeconds; }
+        public double getDemandKBps() { return demandKBps; }
+
+        /** The same class with its arrival rate multiplied by factor. */
+        public Traffic scaled(double factor) {
+            return new Traffic(port, ratePerSecond * factor, meanSeconds, demandKBps);
+        }
+    }
+
+    private final RelayIndex relays;
+    private final int threads;
+
+    public LoadSimulator(RelayIndex relays, int threads) {
+        if (threads < 1) throw new IllegalArgumentException("threads must be >= 1");
+        this.relays = relays;
+        this.threads = threads;
+    }
+
+    /**
+     * Scales the arrival rates so that, at steady state, the offered demand is target times the
+     * capacity of the relays able to carry circuits (each circuit loads three relays).
+     */
+    public List<Traffic> scaleTo(List<Traffic> traffic, double target) {
+        double offered = 0;
+        for (Traffic t : traffic) offered += 3 * t.ratePerSecond * t.meanSeconds * t.demandKBps;
+        double capacity = 0;
+        for (int i = 0; i < relays.size(); i++) if (eligible(i)) capacity += relays.bandwidth(i);
+        List<Traffic> out = new ArrayList<>();
+        for (Traffic t : traffic) out.add(t.scaled(target * capacity / offered));
+        return out;
+    }
+
+    /**
+     * Simulates circuits arrivals; statistics start at the arrival of circuit warmup, so the
+     * network can fill up first.
+     */
+    public LoadReport run(String name, Function<Random, CircuitSelector> factory, List<Traffic> traffic,
+                          int circuits, int warmup, long seed) {
+        if (traffic.isEmpty() || traffic.size() > Byte.MAX_VALUE)
+            throw new IllegalArgumentException("Expected 1 to " + Byte.MAX_VALUE + " traffic classes");
+        long started = System.nanoTime();
+        int classes = traffic.size();
+        Random rng = new Random(seed);
+
+        // arrival schedule: class, arrival time and lifetime of every circuit
+        double totalRate = 0;
+        for (Traffic t : traffic) totalRate += t.ratePerSecond;
+        double[] cumulative = new double[classes];
+        double acc = 0;
+        for (int c = 0; c < classes; c++) {
+            acc += traffic.get(c).ratePerSecond / totalRate;
+            cumulative[c] = acc;
+        }
+        byte[] klass = new byte[circuits];
+        double[] arrival = new double[circuits];
+        double[] lifetime = new double[circuits];
+        int[] perClass = new int[classes];
+        double t = 0;
+        for (int k = 0; k < circuits; k++) {
+            t += exponential(rng, 1.0 / totalRate);
+            double u = rng.nextDouble();
+            int c = 0;
+            while (c < classes - 1 && u > cumulative[c]) c++;
+            klass[k] = (byte) c;
+            arrival[k] = t;
+            lifetime[k] = exponential(rng, traffic.get(c).meanSeconds);
+            perClass[c]++;
+        }
+
+        int[][][] paths = new int[classes][][];
+        for (int c = 0; c < classes; c++) {
+            paths[c] = sample(factory, traffic.get(c).port, perClass[c], seed + 31L * (c + 1));
+        }
+
+        Simulation sim = new Simulation(relays.size());
+        int[] next = new int[classes];
+        long failures = 0;
+        double statsStart = circuits == 0 ? 0 : arrival[Math.min(warmup, circuits - 1)];
+        boolean measuring = false;
+
+        for (int k = 0; k < circuits; k++) {
+            double now = arrival[k];
+            sim.departUntil(now);
+            if (!measuring && k >= warmup) {
+                sim.startMeasuring(now);
+                measuring = true;
+            }
+            int c = klass[k];
+            int j = next[c]++;
+            int g = paths[c][0][j], m = paths[c][1][j], x = paths[c][2][j];
+            if (g < 0) {
+                failures++;
+                continue;
+            }
+            sim.open(now, now + lifetime[k], g, m, x, traffic.get(c).demandKBps, measuring);
+        }
+        double end = circuits == 0 ? 0 : arrival[circuits - 1];
+        sim.finish(end);
+
+        double seconds = measuring ? end - statsStart : 0;
+        double[] utilization = new double[relays.size()];
+        double[] peak = new double[relays.size()];
+        boolean[] eligible = new boolean[relays.size()];
+        for (int i = 0; i < relays.size(); i++) {
+            eligible[i] = eligible(i);
+            double cap = relays.bandwidth(i);
+            if (cap <= 0) continue;
+            utilization[i] = seconds == 0 ? 0.0 : sim.integral[i] / seconds / cap;
+            peak[i] = sim.peak[i] / cap;
+        }
+        return new LoadReport(name, relays, eligible, utilization, peak, sim.overloaded, sim.carried,
+                circuits, failures, sim.measured, sim.congested, seconds,
+                sim.throughputSum, sim.demandSum, sim.ratioHistogram, System.nanoTime() - started);
+    }
+
+    private boolean eligible(int i) {
+        return relays.hasFlags(i, RelayIndex.FLAG_RUNNING | RelayIndex.FLAG_VALID) && relays.bandwidth(i) > 0;
+    }
+
+    private static double exponential(Random rng, double mean) {
+        return -mean * Math.log(1.0 - rng.nextDouble());
+    }
+
+    // {guards, middles, exits} relay indexes of count circuits; -1 where selection failed
+    private int[][] sample(Function<Random, CircuitSelector> factory, int port, int count, long seed) {
+        int[][] out = new int[3][count];
+        int workers = Math.max(1, Math.min(threads, count));
+        ExecutorService pool = Executors.newFixedThreadPool(workers);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int w = 0; w < workers; w++) {
+                int from = (int) ((long) count * w / workers);
+                int to = (int) ((long) count * (w + 1) / workers);
+                CircuitSelector selector = factory.apply(new Random(seed + 0x9E3779B97F4A7C15L * (w + 1)));
+                PackedSelector packed = selector instanceof PackedSelector
+                        && ((PackedSelector) selector).getRelays().nodes() == relays.nodes() ? (PackedSelector) selector : null;
+                futures.add(pool.submit(() -> {
+                    for (int k = from; k < to; k++) {
+                        try {
+                            if (packed != null) {
+                                long path = packed.selectPacked(port);
+                                out[0][k] = RelayIndex.guardOf(path);
+                                out[1][k] = RelayIndex.middleOf(path);
+                                out[2][k] = RelayIndex.exitOf(path);
+                            } else {
+                                Node[] p = selector.selectPath(port).getNodes();
+                                out[0][k] = index(p[0]);
+                                out[1][k] = index(p[1]);
+                                out[2][k] = index(p[2]);
+                            }
+                        } catch (IllegalStateException e) {
+                            out[0][k] = -1;
+                        }
+                    }
+                }));
+            }
+            for (Future<?> f : futures) f.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Sampling interrupted", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Sampling failed: " + e.getCause().getMessage(), e.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+        return out;
+    }
+
+    private int index(Node n) {
+        int i = relays.indexOf(n);
+        if (i < 0) throw new IllegalArgumentException("Selector returned a relay outside the simulated consensus");
+        return i;
+    }
+
+    // event loop state, all primitive
+    private final class Simulation {
+        final double[] demand;
+        final double[] lastChange;
+        final double[] integral;
+        final double[] overloaded;
+        final double[] peak;
+        final long[] carried;
+        final long[] ratioHistogram = new long[LoadReport.RATIO_BUCKETS];
+        long measured, congested;
+        double throughputSum, demandSum;
+
+        // open circuits: slot arrays plus a binary min-heap of (close time, slot)
+        int[] slotG = new int[1024], slotM = new int[1024], slotX = new int[1024];
+        double[] slotDemand = new double[1024];
+        int[] free = new int[1024];
+        int freeCount, slots;
+        double[] heapTime = new double[1024];
+        int[] heapSlot = new int[1024];
+        int heapSize;
+
+        Simulation(int n) {
+            demand = new double[n];
+            lastChange = new double[n];
+            integral = new double[n];
+            overloaded = new double[n];
+            peak = new double[n];
+            carried = new long[n];
+        }
+
+        void startMeasuring(double now) {
+            Arrays.fill(lastChange, now);
+            Arrays.fill(integral, 0.0);
+            Arrays.fill(overloaded, 0.0);
+            for (int i = 0; i < demand.length; i++) peak[i] = demand[i];
+        }
+
+        void open(double now, double close, int g, int m, int x, double d, boolean measuring) {
+            add(g, now, d);
+            add(m, now, d);
+            add(x, now, d);
+            carried[g]++;
+            carried[m]++;
+            carried[x]++;
+
+            if (measuring) {
+                double got = Math.min(share(g, d), Math.min(share(m, d), share(x, d)));
+                double ratio = got / d;
+                ratioHistogram[Math.min(LoadReport.RATIO_BUCKETS - 1, (int) (ratio * LoadReport.RATIO_BUCKETS))]++;
+                measured++;
+                if (ratio < 1.0 - 1e-9) congested++;
+                throughputSum += got;
+                demandSum += d;
+            }
+
+            int s = freeCount > 0 ? free[--freeCount] : newSlot();
+            slotG[s] = g;
+            slotM[s] = m;
+            slotX[s] = x;
+            slotDemand[s] = d;
+            push(close, s);
+        }
+
+        void departUntil(double now) {
+            while (heapSize > 0 && heapTime[0] <= now) {
+                double at = heapTime[0];
+                int s = pop();
+                double d = slotDemand[s];
+                add(slotG[s], at, -d);
+                add(slotM[s], at, -d);
+                add(slotX[s], at, -d);
+                if (freeCount == free.length) free = Arrays.copyOf(free, free.length * 2);
+                free[freeCount++] = s;
+            }
+        }
+
+        void finish(double end) {
+            for (int i = 0; i < demand.length; i++) add(i, end, 0);
+        }
+
+        // proportional share of relay i's capacity for a circuit demanding d
+        private double share(int i, double d) {
+            double cap = relays.bandwidth(i);
+            return demand[i] <= cap ? d : d * cap / demand[i];
+        }
+
+        private void add(int i, double now, double delta) {
+            double dt = now - lastChange[i];
+            if (dt > 0) {
+                integral[i] += demand[i] * dt;
+                if (demand[i] > relays.bandwidth(i)) overloaded[i] += dt;
+                lastChange[i] = now;
+            }
+            demand[i] += delta;
+            if (demand[i] < 1e-9) demand[i] = 0;
+            if (demand[i] > peak[i]) peak[i] = demand[i];
+        }
+
+        private int newSlot() {
+            if (slots == slotG.length) {
+                int n = slots * 2;
+                slotG = Arrays.copyOf(slotG, n);
+                slotM = Arrays.copyOf(slotM, n);
+                slotX = Arrays.copyOf(slotX, n);
+                slotDemand = Arrays.copyOf(slotDemand, n);
+            }
+            return slots++;
+        }
+
+        private void push(double time, int slot) {
+            if (heapSize == heapTime.length) {
+                heapTime = Arrays.copyOf(heapTime, heapSize * 2);
+                heapSlot = Arrays.copyOf(heapSlot, heapSize * 2);
+            }
+            int i = heapSize++;
+            while (i > 0) {
+                int parent = (i - 1) >>> 1;
+                if (heapTime[parent] <= time) break;
+                heapTime[i] = heapTime[parent];
+                heapSlot[i] = heapSlot[parent];
+                i = parent;
+            }
+            heapTime[i] = time;
+            heapSlot[i] = slot;
+        }
+
+        private int pop() {
+            int top = heapSlot[0];
+            double time = heapTime[--heapSize];
+            int slot = heapSlot[heapSize];
+            int i = 0;
+            while (true) {
+                int child = 2 * i + 1;
+                if (child >= heapSize) break;
+                if (child + 1 < heapSize && heapTime[child + 1] < heapTime[child]) child++;
+                if (heapTime[child] >= time) break;
+                heapTime[i] = heapTime[child];
+                heapSlot[i] = heapSlot[child];
+                i = child;
+            }
+            heapTime[i] = time;
+            heapSlot[i] = slot;
+            return top;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int circuits = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+        double target = args.length > 1 ? Double.parseDouble(args[1]) : 0.5;
+        int threads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+
+        String consensusPath = "src/main/java/pt/unl/fct/pds/data/consensus.txt";
+        String countryDbPath = "src/main/java/pt/unl/fct/pds/data/GeoLite2-Country.mmdb";
+        CountryFinder resolver = CountryFinder.openIfPresent(countryDbPath);
+        ConsensusParser parser = new ConsensusParser(consensusPath, resolver);
+        parser.setLazy(true);
+        Node[] nodes = parser.parseConsensus();
+        if (resolver != null) resolver.close();
+
+        RelayIndex relays = new RelayIndex(nodes);
+        LoadSimulator sim = new LoadSimulator(relays, threads);
+        // web browsing, plain HTTP and long-lived, low-rate IRC
+        List<Traffic> traffic = sim.scaleTo(Arrays.asList(
+                new Traffic(443, 70, 30, 50),
+                new Traffic(80, 20, 30, 50),
+                new Traffic(6667, 10, 600, 2)), target);
+        int warmup = circuits / 3;
+        System.out.println("Relays: " + nodes.length + ", circuits: " + circuits + ", target utilization: " + target);
+        System.out.println();
+
+        sim.run("Tor", rng -> new PathSelector(relays, rng), traffic, circuits, warmup, 1).printSummary(System.out);
+        sim.run("Geo", rng -> new GeoSelector(relays, rng, false), traffic, circuits, warmup, 1).printSummary(System.out);
+    }
+}
@@ -0,0 +1,327 @@
+package pt.unl.fct.pds.eval;
+
+import pt.unl.fct.pds.model.Node;
+import pt.unl.fct.pds.utils.CircuitSelector;
+import pt.unl.fct.pds.utils.ConsensusParser;
+import pt.unl.fct.pds.utils.CountryFinder;
+import pt.unl.fct.pds.utils.GeoSelector;
+import pt.unl.fct.pds.utils.LatencySelector;
+import pt.unl.fct.pds.utils.LocationFinder;
+import pt.unl.fct.pds.utils.PackedSelector;
+import pt.unl.fct.pds.utils.PathSelector;
+import pt.unl.fct.pds.utils.RelayIndex;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+
+/**
+ * Parallel Monte Carlo evaluation of path selectors.
+ *
+ * The requested number of circuits is split across worker threads. Each worker owns a
+ * selector (built from its own seeded Random) and a private set of primitive counters
+ * indexed by relay; nothing is shared while sampling and the partial results are summed
+ * once at the end.
+ *
+ * Every circuit can also be streamed to a {@link CircuitLogWriter}; workers hand it whole blocks.
+ *
+ * Usage: MonteCarloEvaluator [circuits] [threads] [ports, e.g. 80,443,6667] [relay csv] [circuit log(.gz)]
+ */
+public class MonteCarloEvaluator {
+
+    private final RelayIndex relays;
+    private final int threads;
+
+    public MonteCarloEvaluator(Node[] nodes) {
+        this(new RelayIndex(nodes), Runtime.getRuntime().availableProcessors());
+    }
+
+    public MonteCarloEvaluator(RelayIndex relays, int threads) {
+        if (threads < 1) throw new IllegalArgumentException("threads must be >= 1");
+        this.relays = relays;
+        this.threads = threads;
+    }
+
+    public RelayIndex getRelays() { return relays; }
+    public int getThreads() { return threads; }
+
+    /**
+     * Samples circuits with selectors produced by the factory. The factory is called once per
+     * worker with that worker's Random and must build the selector over this evaluator's nodes.
+     */
+    public EvaluationResult evaluate(String name, Function<Random, CircuitSelector> factory,
+                                     int destPort, long circuits, long seed) {
+        return evaluate(name, factory, destPort, circuits, seed, null);
+    }
+
+    /** Same as above, also logging every built circuit (trial numbers are unique per call). */
+    public EvaluationResult evaluate(String name, Function<Random, CircuitSelector> factory,
+                                     int destPort, long circuits, long seed, CircuitLogWriter log) {
+        int workers = (int) Math.max(1, Math.min(threads, circuits));
+        ExecutorService pool = Executors.newFixedThreadPool(workers);
+        long start = System.nanoTime();
+
+        try {
+            List<Future<Partial>> futures = new ArrayList<>();
+            long base = circuits / workers;
+            long rest = circuits % workers;
+            long firstTrial = 0;
+            for (int w = 0; w < workers; w++) {
+                long share = base + (w < rest ? 1 : 0);
+                long trial = firstTrial;
+                CircuitSelector selector = factory.apply(new Random(seed + 0x9E3779B97F4A7C15L * (w + 1)));
+                futures.add(pool.submit(() -> run(selector, destPort, share, name, trial, log)));
+                firstTrial += share;
+            }
+
+            Partial total = new Partial(relays.size(), relays.locatedCount() > 0);
+            for (Future<Partial> f : futures) {
+                total.merge(f.get());
+            }
+
+            return new EvaluationResult(name, destPort, relays, total.roleCounts, circuits,
+                    total.completed, total.failures, total.distinctCountry, total.subnetCollisions,
+                    System.nanoTime() - start, total.rtt, total.rttSum);
+
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Evaluation interrupted", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Evaluation failed: " + e.getCause().getMessage(), e.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private Partial run(CircuitSelector selector, int destPort, long circuits,
+                        String name, long firstTrial, CircuitLogWriter log) throws IOException {
+        Partial p = new Partial(relays.size(), relays.locatedCount() > 0);
+        LogBuffer buffer = log == null ? null : new LogBuffer();
+
+        // selectors over this consensus hand back indexes, no Circuit per trial
+        PackedSelector packed = selector instanceof PackedSelector
+                && ((PackedSelector) selector).getRelays().nodes() == relays.nodes() ? (PackedSelector) selector : null;
+
+        for (long i = 0; i < circuits; i++) {
+            int g, m, x;
+            try {
+                if (packed != null) {
+                    long path = packed.selectPacked(destPort);
+                    g = RelayIndex.guardOf(path);
+                    m = RelayIndex.middleOf(path);
+                    x = RelayIndex.exitOf(path);
+                } else {
+                    Node[] path = selector.selectPath(destPort).getNodes();
+                    g = indexOf(path[0]);
+                    m = indexOf(path[1]);
+                    x = indexOf(path[2]);
+                }
+            } catch (IllegalStateException e) {
+                p.failures++;
+                continue;
+            }
+
+            if (buffer != null && buffer.add(firstTrial + i, g, m, x)) {
+                buffer.flush(log, name);
+            }
+
+            p.completed++;
+            p.roleCounts[EvaluationResult.GUARD][g]++;
+            p.roleCounts[EvaluationResult.MIDDLE][m]++;
+            p.roleCounts[EvaluationResult.EXIT][x]++;
+
+            int cg = relays.country(g), cm = relays.country(m), cx = relays.country(x);
+            if (cg != cm && cg != cx && cm != cx) p.distinctCountry++;
+            if (relays.same16(g, m) || relays.same16(g, x) || relays.same16(m, x)) p.subnetCollisions++;
+
+            if (p.rtt != null) {
+                double rtt = relays.rttMs(g, m) + relays.rttMs(m, x);
+                p.rtt[(int) Math.min(EvaluationResult.RTT_BUCKETS - 1, rtt)]++;
+                p.rttSum += rtt;
+            }
+        }
+        if (buffer != null) buffer.flush(log, name);
+        return p;
+    }
+
+    private int indexOf(Node n) {
+        int i = relays.indexOf(n);
+        if (i < 0) throw new IllegalArgumentException("Selector returned a relay outside the evaluated consensus");
+        return i;
+    }
+
+    // per-worker counters, merged once at the end
+    private static final class Partial {
+        final long[][] roleCounts;
+        final long[] rtt;
+        long completed, failures, distinctCountry, subnetCollisions;
+        double rttSum;
+
+        Partial(int relays, boolean withRtt) {
+            roleCounts = new long[3][relays];
+            rtt = withRtt ? new long[EvaluationResult.RTT_BUCKETS] : null;
+        }
+
+        void merge(Partial o) {
+            for (int r = 0; r < 3; r++) {
+                long[] dst = roleCounts[r], src = o.roleCounts[r];
+                for (int i = 0; i < dst.length; i++) dst[i] += src[i];
+            }
+            completed += o.completed;
+            failures += o.failures;
+            distinctCountry += o.distinctCountry;
+            subnetCollisions += o.subnetCollisions;
+            if (rtt != null) {
+                for (int b = 0; b < rtt.length; b++) rtt[b] += o.rtt[b];
+                rttSum += o.rttSum;
+            }
+        }
+    }
+
+    // per-worker block of circuits waiting for the log
+    private static final class LogBuffer {
+        final long[] trials = new long[CircuitLogWriter.BLOCK_SIZE];
+        final int[] guards = new int[CircuitLogWriter.BLOCK_SIZE];
+        final int[] middles = new int[CircuitLogWriter.BLOCK_SIZE];
+        final int[] exits = new int[CircuitLogWriter.BLOCK_SIZE];
+        int count;
+
+        boolean add(long trial, int guard, int middle, int exit) {
+            trials[count] = trial;
+            guards[count] = guard;
+            middles[count] = middle;
+            exits[count] = exit;
+            return ++count == CircuitLogWriter.BLOCK_SIZE;
+        }
+
+        void flush(CircuitLogWriter log, String name) throws IOException {
+            log.writeBlock(name, trials, guards, middles, exits, count);
+            count = 0;
+        }
+    }
+
+    // --- reporting ---
+    public static void printSummary(PrintStream out, EvaluationResult r) {
+        double[] dc = r.distinctCountryCi();
+        double[] sc = r.subnetCollisionCi();
+        out.println("=== " + r.getSelector() + " / port " + r.getDestPort() + " ===");
+        out.println("Completed circuits: " + r.getCompleted() + " of " + r.getRequested()
+                + " (" + r.getFailures() + " failed)");
+        out.printf("Throughput: %.0f circuits/s%n", r.circuitsPerSecond());
+        out.printf("Distinct-country circuits: %.4f%% [%.4f, %.4f]%n",
+                100 * r.distinctCountryRate(), 100 * dc[0], 100 * dc[1]);
+        out.printf("Subnet collisions (/16): %.4f%% [%.4f, %.4f]%n",
+                100 * r.subnetCollisionRate(), 100 * sc[0], 100 * sc[1]);
+        if (r.hasRttEstimates()) {
+            out.printf("Estimated RTT guard-middle-exit: mean %.0f ms, median %.0f ms, p90 %.0f ms%n",
+                    r.meanRttMs(), r.rttPercentileMs(0.5), r.rttPercentileMs(0.9));
+        }
+
+        String[] roles = { "guards", "middles", "exits" };
+        for (int role = 0; role < 3; role++) {
+            out.println("Top " + roles[role] + ":");
+            for (int i : r.top(role, 5)) {
+                double[] ci = r.frequencyCi(role, i);
+                out.printf("  %s -> %.4f%% [%.4f, %.4f]%n", r.getRelays().node(i).getNickname(),
+                        100 * r.frequency(role, i), 100 * ci[0], 100 * ci[1]);
+            }
+        }
+        out.println();
+    }
+
+    /** One row per relay that was picked at least once: frequency and CI bounds for each role. */
+    public static void writeRelayFrequencies(BufferedWriter bw, EvaluationResult r) throws IOException {
+        RelayIndex relays = r.getRelays();
+        StringBuilder sb = new StringBuilder(256);
+        for (int i = 0; i < relays.size(); i++) {
+            long total = r.count(EvaluationResult.GUARD, i) + r.count(EvaluationResult.MIDDLE, i)
+                    + r.count(EvaluationResult.EXIT, i);
+            if (total == 0) continue;
+
+            String country = relays.countryName(relays.country(i));
+            sb.setLength(0);
+            sb.append(r.getSelector()).append(',').append(r.getDestPort()).append(',')
+              .append(i).append(',').append(relays.node(i).getFingerprint()).append(',')
+              .append(country == null ? "" : country.replace(',', '_'));
+            for (int role = 0; role < 3; role++) {
+                double[] ci = r.frequencyCi(role, i);
+                sb.append(',').append(r.count(role, i))
+                  .append(',').append(r.frequency(role, i))
+                  .append(',').append(ci[0])
+                  .append(',').append(ci[1]);
+            }
+            sb.append('\n');
+            bw.write(sb.toString());
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        long circuits = args.length > 0 ? Long.parseLong(args[0]) : 100_000;
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        String[] ports = (args.length > 2 ? args[2] : "80,443,6667").split(",");
+        String relayCsv = args.length > 3 ? args[3] : "evaluation-relays.csv";
+        String circuitLog = args.length > 4 ? args[4] : null;
+
+        String consensusPath = "src/main/java/pt/unl/fct/pds/data/consensus.txt";
+        String countryDbPath = "src/main/java/pt/unl/fct/pds/data/GeoLite2-Country.mmdb";
+
+        CountryFinder resolver = CountryFinder.openIfPresent(countryDbPath);
+        ConsensusParser parser = new ConsensusParser(consensusPath, resolver);
+        parser.setLazy(true);
+        Node[] nodes = parser.parseConsensus();
+        if (resolver != null) resolver.close();
+
+        // coordinates for the RTT estimates: per-IP from a city DB, else per country
+        String cityDbPath = "src/main/java/pt/unl/fct/pds/data/GeoLite2-City.mmdb";
+        try (LocationFinder locations = new File(cityDbPath).exists()
+                ? new LocationFinder(cityDbPath) : new LocationFinder()) {
+            System.out.println("Relays with coordinates: " + locations.locate(nodes));
+        }
+
+        MonteCarloEvaluator eval = new MonteCarloEvaluator(new RelayIndex(nodes), threads);
+        System.out.println("Relays: " + nodes.length + ", circuits per run: " + circuits + ", threads: " + threads);
+        System.out.println();
+
+        CircuitLogWriter log = circuitLog == null ? null
+                : new CircuitLogWriter(Paths.get(circuitLog), eval.getRelays(), circuitLog.endsWith(".gz"));
+
+        try (BufferedWriter bw = new BufferedWriter(new FileWriter(relayCsv))) {
+            bw.write("selector,port,relay,fingerprint,country,"
+                    + "guard_count,guard_freq,guard_lo,guard_hi,"
+                    + "middle_count,middle_freq,middle_lo,middle_hi,"
+                    + "exit_count,exit_freq,exit_lo,exit_hi\n");
+
+            for (String p : ports) {
+                int port = Integer.parseInt(p.trim());
+
+                EvaluationResult tor = eval.evaluate("Tor", rng -> new PathSelector(eval.getRelays(), rng), port, circuits, 1, log);
+                printSummary(System.out, tor);
+                writeRelayFrequencies(bw, tor);
+
+                EvaluationResult geo = eval.evaluate("Geo", rng -> new GeoSelector(eval.getRelays(), rng, false), port, circuits, 1, log);
+                printSummary(System.out, geo);
+                writeRelayFrequencies(bw, geo);
+
+                EvaluationResult lat = eval.evaluate("Latency", rng -> new LatencySelector(eval.getRelays(), rng,
+                        LatencySelector.DEFAULT_TAU_MS, LatencySelector.DEFAULT_MIN_COUNTRIES), port, circuits, 1, log);
+                printSummary(System.out, lat);
+                writeRelayFrequencies(bw, lat);
+            }
+        } finally {
+            if (log != null) log.close();
+        }
+        System.out.println("Per-relay frequencies written to " + relayCsv);
+        if (log != null) System.out.println(log.getCircuits() + " circuits logged to " + circuitLog);
+    }
+}
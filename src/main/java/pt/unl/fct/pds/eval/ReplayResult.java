@@ -0,0 +1,118 @@
+package pt.unl.fct.pds.eval;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * Outcome of a {@link HistoricalReplay}: per selector and consensus hour, how many circuits
+ * were compromised (adversary guard and exit) or stayed in one country (guard and exit in the
+ * same known country), and how many clients had been exposed at least once up to that hour.
+ */
+public class ReplayResult {
+    private final List<String> selectors;
+    private final LocalDateTime[] validAfter;
+    private final int clients;
+    private final int destPort;
+    private final long[][] circuits, failures, compromised, sameCountry;
+    private final int[][] clientsCompromised, clientsSameCountry;
+    private final long parseNanos, simulateNanos, elapsedNanos;
+
+    ReplayResult(List<String> selectors, LocalDateTime[] validAfter, int clients, int destPort,
+                 long[][] circuits, long[][] failures, long[][] compromised, long[][] sameCountry,
+                 int[][] clientsCompromised, int[][] clientsSameCountry,
+                 long parseNanos, long simulateNanos, long elapsedNanos) {
+        this.selectors = selectors;
+        this.validAfter = validAfter;
+        this.clients = clients;
+        this.destPort = destPort;
+        this.circuits = circuits;
+        this.failures = failures;
+        this.compromised = compromised;
+        this.sameCountry = sameCountry;
+        this.clientsCompromised = clientsCompromised;
+        this.clientsSameCountry = clientsSameCountry;
+        this.parseNanos = parseNanos;
+        this.simulateNanos = simulateNanos;
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    public List<String> getSelectors() { return selectors; }
+    public int getClients() { return clients; }
+    public int getDestPort() { return destPort; }
+    public int hourCount() { return validAfter.length; }
+
+    /** valid-after time of a replayed consensus, or null when it was not known. */
+    public LocalDateTime validAfter(int hour) { return validAfter[hour]; }
+
+    /** Time spent parsing, simulating, and overall; parsing overlaps simulation. */
+    public long getParseNanos() { return parseNanos; }
+    public long getSimulateNanos() { return simulateNanos; }
+    public long getElapsedNanos() { return elapsedNanos; }
+
+    public long circuits(int selector, int hour) { return circuits[selector][hour]; }
+    public long failures(int selector, int hour) { return failures[selector][hour]; }
+    public long compromisedCircuits(int selector, int hour) { return compromised[selector][hour]; }
+    public long sameCountryCircuits(int selector, int hour) { return sameCountry[selector][hour]; }
+
+    /** Share of the hour's completed circuits with an adversary guard and exit. */
+    public double compromisedRate(int selector, int hour) { return rate(compromised[selector][hour], circuits[selector][hour]); }
+    public double sameCountryRate(int selector, int hour) { return rate(sameCountry[selector][hour], circuits[selector][hour]); }
+
+    /** Clients with at least one compromised circuit up to and including the hour. */
+    public int clientsCompromised(int selector, int hour) { return clientsCompromised[selector][hour]; }
+    public int clientsSameCountry(int selector, int hour) { return clientsSameCountry[selector][hour]; }
+
+    public double cumulativeCompromised(int selector, int hour) { return rate(clientsCompromised[selector][hour], clients); }
+    public double cumulativeSameCountry(int selector, int hour) { return rate(clientsSameCountry[selector][hour], clients); }
+
+    public int selectorIndex(String name) { return selectors.indexOf(name); }
+
+    /** One row per selector and hour with the hourly rates and the cumulative exposure curves. */
+    public void writeCsv(Writer out) throws IOException {
+        out.write("selector,hour,valid_after,circuits,failures,compromised_rate,same_country_rate,"
+                + "cumulative_compromised_fraction,cumulative_same_country_fraction\n");
+        StringBuilder sb = new StringBuilder(128);
+        for (int s = 0; s < selectors.size(); s++) {
+            for (int h = 0; h < validAfter.length; h++) {
+                sb.setLength(0);
+                sb.append(selectors.get(s)).append(',').append(h).append(',')
+                  .append(validAfter[h] == null ? "" : validAfter[h].toString()).append(',')
+                  .append(circuits[s][h]).append(',').append(failures[s][h]).append(',')
+                  .append(compromisedRate(s, h)).append(',').append(sameCountryRate(s, h)).append(',')
+                  .append(cumulativeCompromised(s, h)).append(',').append(cumulativeSameCountry(s, h))
+                  .append('\n');
+                out.write(sb.toString());
+            }
+        }
+    }
+
+    public void printSummary(PrintStream out) {
+        int last = validAfter.length - 1;
+        out.println("=== Replay of " + validAfter.length + " consensuses, " + clients
+                + " clients, port " + destPort + " ===");
+        out.printf("Parse %.1f s, simulate %.1f s, wall %.1f s%n",
+                parseNanos / 1e9, simulateNanos / 1e9, elapsedNanos / 1e9);
+        if (last < 0) return;
+        for (int s = 0; s < selectors.size(); s++) {
+            long total = 0, bad = 0, same = 0;
+            for (int h = 0; h <= last; h++) {
+                total += circuits[s][h];
+                bad += compromised[s][h];
+                same += sameCountry[s][h];
+            }
+            out.println(selectors.get(s) + ":");
+            out.printf("  compromised circuits: %.4f%%, clients ever compromised: %.2f%%%n",
+                    100 * rate(bad, total), 100 * cumulativeCompromised(s, last));
+            out.printf("  same-country circuits: %.4f%%, clients ever same-country: %.2f%%%n",
+                    100 * rate(same, total), 100 * cumulativeSameCountry(s, last));
+        }
+        out.println();
+    }
+
+    private static double rate(long k, long n) {
+        return n == 0 ? 0.0 : (double) k / n;
+    }
+}
@@ -0,0 +1,124 @@
+package pt.unl.fct.pds.eval;
+
+import pt.unl.fct.pds.utils.RelayIndex;
+
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Exact per-relay role probabilities for one selector at one destination port, as computed by
+ * {@link SelectionProbabilityCalculator}. Probabilities are conditional on the circuit being
+ * built (the selectors throw otherwise); {@link #failureProbability()} gives that remainder.
+ * Roles use the {@link EvaluationResult} constants.
+ */
+public class SelectionProbabilities {
+    private final String selector;
+    private final int destPort;
+    private final RelayIndex relays;
+    private final double[][] mass;
+    private final double failure;
+    private final double sameCountry;
+    private final int[][] candidates;
+
+    SelectionProbabilities(String selector, int destPort, RelayIndex relays, double[][] mass,
+                           double failure, double sameCountry, int[][] candidates) {
+        this.selector = selector;
+        this.destPort = destPort;
+        this.relays = relays;
+        this.mass = mass;
+        this.failure = Math.min(1.0, Math.max(0.0, failure));
+        this.sameCountry = sameCountry;
+        this.candidates = candidates;
+    }
+
+    public String getSelector() { return selector; }
+    public int getDestPort() { return destPort; }
+    public RelayIndex getRelays() { return relays; }
+
+    /** Probability that selectPath throws because some position has no candidate. */
+    public double failureProbability() { return failure; }
+
+    public double probability(int role, int relay) {
+        double ok = 1.0 - failure;
+        return ok <= 0 ? 0.0 : mass[role][relay] / ok;
+    }
+
+    /** Relays that pass the role's flag, bandwidth (and for exits, port) filters. */
+    public int[] candidates(int role) { return candidates[role].clone(); }
+
+    /** Probability that guard and exit resolve to the same (known) country. */
+    public double guardExitSameCountry() {
+        double ok = 1.0 - failure;
+        return ok <= 0 ? 0.0 : sameCountry / ok;
+    }
+
+    /** Shannon entropy, in bits, of the relay chosen for a role. */
+    public double entropy(int role) {
+        double h = 0;
+        for (int i = 0; i < relays.size(); i++) {
+            double p = probability(role, i);
+            if (p > 0) h -= p * Math.log(p) / Math.log(2);
+        }
+        return h;
+    }
+
+    /** Gini coefficient of the selection probabilities over the role's candidates (0 = uniform). */
+    public double gini(int role) {
+        int[] c = candidates[role];
+        if (c.length == 0) return 0.0;
+
+        double[] p = new double[c.length];
+        double total = 0;
+        for (int i = 0; i < c.length; i++) {
+            p[i] = probability(role, c[i]);
+            total += p[i];
+        }
+        if (total <= 0) return 0.0;
+
+        Arrays.sort(p);
+        double weighted = 0;
+        for (int i = 0; i < p.length; i++) weighted += (i + 1) * p[i];
+        return 2 * weighted / (p.length * total) - (p.length + 1.0) / p.length;
+    }
+
+    /** Probability of the role landing in each country, most exposed first ("UNKNOWN" if unset). */
+    public Map<String, Double> countryExposure(int role) {
+        double[] byCountry = new double[relays.countryCount() + 1];
+        for (int i = 0; i < relays.size(); i++) {
+            int c = relays.country(i);
+            byCountry[c == RelayIndex.NO_COUNTRY ? byCountry.length - 1 : c] += probability(role, i);
+        }
+
+        Integer[] order = new Integer[byCountry.length];
+        for (int i = 0; i < order.length; i++) order[i] = i;
+        Arrays.sort(order, (a, b) -> Double.compare(byCountry[b], byCountry[a]));
+
+        Map<String, Double> out = new LinkedHashMap<>();
+        for (int c : order) {
+            if (byCountry[c] <= 0) continue;
+            String name = c == byCountry.length - 1 ? "UNKNOWN" : relays.countryName(c);
+            out.merge(name, byCountry[c], Double::sum);
+        }
+        return out;
+    }
+
+    public void printSummary(PrintStream out) {
+        String[] roles = { "guard", "middle", "exit" };
+        out.println("=== " + selector + " / port " + destPort + " (exact) ===");
+        out.printf("Failure probability: %.6f%n", failure);
+        out.printf("Guard/exit same country: %.4f%%%n", 100 * guardExitSameCountry());
+        for (int role = 0; role < 3; role++) {
+            out.printf("%-6s candidates: %5d  entropy: %.3f bits  gini: %.3f  top countries:",
+                    roles[role], candidates[role].length, entropy(role), gini(role));
+            int shown = 0;
+            for (Map.Entry<String, Double> e : countryExposure(role).entrySet()) {
+                if (shown++ == 3) break;
+                out.printf(" %s %.2f%%", e.getKey(), 100 * e.getValue());
+            }
+            out.println();
+        }
+        out.println();
+    }
+}
@@ -0,0 +1,411 @@
+package pt.unl.fct.pds.eval;
+
+import pt.unl.fct.pds.model.Node;
+import pt.unl.fct.pds.utils.ConsensusParser;
+import pt.unl.fct.pds.utils.CountryFinder;
+import pt.unl.fct.pds.utils.RelayIndex;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Exact selection probabilities for {@code PathSelector} and {@code GeoSelector}, without sampling.
+ *
+ * Follows the selectors' rules step by step: a bandwidth-weighted exit for the port, then a
+ * guard given that exit, then a middle given both, including GeoSelector's fallback tiers
+ * (different country, then only /16 (and AS), then only a different relay).
+ *
+ * Guards are handled by scanning the guard list once per exit. For middles the excluded
+ * weight of every (guard, exit) pair is obtained by inclusion-exclusion over precomputed
+ * bandwidth sums per /16, country, AS and their combinations, and each pair's mass is pushed
+ * into accumulators over the same keys, so a middle's probability is read back with a fixed
+ * number of lookups instead of revisiting every pair.
+ *
+ * Usage: SelectionProbabilityCalculator [ports, e.g. 80,443,6667]
+ */
+public class SelectionProbabilityCalculator {
+
+    private static final int EXIT_FLAGS = RelayIndex.FLAG_EXIT | RelayIndex.FLAG_FAST
+            | RelayIndex.FLAG_RUNNING | RelayIndex.FLAG_VALID;
+    private static final int GUARD_FLAGS = RelayIndex.FLAG_GUARD | RelayIndex.FLAG_RUNNING | RelayIndex.FLAG_VALID;
+    private static final int MIDDLE_FLAGS = RelayIndex.FLAG_FAST | RelayIndex.FLAG_RUNNING | RelayIndex.FLAG_VALID;
+
+    private final RelayIndex relays;
+    private final int[] prefixId;
+    private final int prefixCount;
+    private final int[] asnId;
+    private final int asnCount;
+    private final int[] guards;
+    private final int[] middles;
+
+    public SelectionProbabilityCalculator(RelayIndex relays) {
+        this.relays = relays;
+        int n = relays.size();
+
+        // dense ids so per-key sums fit in plain arrays
+        prefixId = new int[n];
+        asnId = new int[n];
+        Map<Integer, Integer> prefixes = new HashMap<>();
+        Map<Integer, Integer> asns = new HashMap<>();
+        for (int i = 0; i < n; i++) {
+            Integer p = prefixes.get(relays.prefix16(i));
+            if (p == null) {
+                p = prefixes.size();
+                prefixes.put(relays.prefix16(i), p);
+            }
+            prefixId[i] = p;
+
+            if (relays.asn(i) == 0) {
+                asnId[i] = -1;
+            } else {
+                Integer a = asns.get(relays.asn(i));
+                if (a == null) {
+                    a = asns.size();
+                    asns.put(relays.asn(i), a);
+                }
+                asnId[i] = a;
+            }
+        }
+        prefixCount = prefixes.size();
+        asnCount = asns.size();
+
+        guards = eligible(GUARD_FLAGS);
+        middles = eligible(MIDDLE_FLAGS);
+    }
+
+    public SelectionProbabilities forPathSelector(int destPort) {
+        return compute("Tor", destPort, false, false);
+    }
+
+    public SelectionProbabilities forGeoSelector(int destPort, boolean asnDiverse) {
+        return compute(asnDiverse ? "Geo+AS" : "Geo", destPort, true, asnDiverse);
+    }
+
+    private SelectionProbabilities compute(String name, int destPort, boolean geo, boolean asnDiverse) {
+        int n = relays.size();
+        double[][] mass = new double[3][n];
+        int[] exits = exits(destPort);
+
+        long exitWeight = 0;
+        for (int e : exits) exitWeight += relays.bandwidth(e);
+
+        MiddleModel middle = new MiddleModel(geo, geo && asnDiverse);
+        double failure = exitWeight == 0 ? 1.0 : 0.0;
+        double sameCountry = 0;
+
+        for (int e : exits) {
+            double pe = (double) relays.bandwidth(e) / exitWeight;
+            int ce = relays.country(e);
+            int ae = asnDiverse ? asnId[e] : -1;
+
+            // guard tiers; PathSelector only has the /16 one
+            long w1 = 0, w2 = 0, w3 = 0;
+            for (int g : guards) {
+                if (!geo) {
+                    if (!relays.same16(g, e)) w2 += relays.bandwidth(g);
+                    continue;
+                }
+                if (g == e) continue;
+                w3 += relays.bandwidth(g);
+                if (relays.same16(g, e) || (ae >= 0 && asnId[g] == ae)) continue;
+                w2 += relays.bandwidth(g);
+                if (relays.country(g) != ce) w1 += relays.bandwidth(g);
+            }
+            int tier = w1 > 0 ? 1 : w2 > 0 ? 2 : w3 > 0 ? 3 : 0;
+            if (tier == 0) {
+                failure += pe;
+                continue;
+            }
+            long w = tier == 1 ? w1 : tier == 2 ? w2 : w3;
+
+            for (int g : guards) {
+                if (!guardAllowed(g, e, tier, geo, ae)) continue;
+
+                double pair = pe * relays.bandwidth(g) / w;
+                if (!middle.add(g, e, pair)) {
+                    failure += pair;
+                    continue;
+                }
+                mass[EvaluationResult.GUARD][g] += pair;
+                mass[EvaluationResult.EXIT][e] += pair;
+                if (ce != RelayIndex.NO_COUNTRY && relays.country(g) == ce) sameCountry += pair;
+            }
+        }
+
+        for (int m : middles) {
+            mass[EvaluationResult.MIDDLE][m] = middle.probability(m);
+        }
+
+        return new SelectionProbabilities(name, destPort, relays, mass, failure, sameCountry,
+                new int[][]{ guards, middles, exits });
+    }
+
+    private boolean guardAllowed(int g, int e, int tier, boolean geo, int ae) {
+        if (!geo) return !relays.same16(g, e);
+        if (g == e) return false;
+        if (tier == 3) return true;
+        if (relays.same16(g, e) || (ae >= 0 && asnId[g] == ae)) return false;
+        return tier == 2 || relays.country(g) != relays.country(e);
+    }
+
+    private int[] exits(int destPort) {
+        int[] out = new int[relays.size()];
+        int k = 0;
+        for (int i = 0; i < relays.size(); i++) {
+            if (relays.hasFlags(i, EXIT_FLAGS) && relays.bandwidth(i) > 0 && relays.exitAllows(i, destPort)) {
+                out[k++] = i;
+            }
+        }
+        return Arrays.copyOf(out, k);
+    }
+
+    private int[] eligible(int flags) {
+        int[] out = new int[relays.size()];
+        int k = 0;
+        for (int i = 0; i < relays.size(); i++) {
+            if (relays.hasFlags(i, flags) && relays.bandwidth(i) > 0) out[k++] = i;
+        }
+        return Arrays.copyOf(out, k);
+    }
+
+    /**
+     * Middle candidates under the tiers of one selector. Holds the bandwidth per key
+     * (/16 = P, country = C, AS = A and their combinations) and, with the same layout, the
+     * accumulated v = mass / tierWeight of every (guard, exit) pair that excluded that key.
+     */
+    private final class MiddleModel {
+        final boolean useCountry;
+        final boolean useAsn;
+        final boolean geo;
+
+        long total;
+        final long[] wP, wC, wA;
+        final LongIntMap pc, pa, ca, pca;
+        final long[] wPC, wPA, wCA, wPCA;
+        final boolean[] isMiddle;
+
+        double sum;
+        final double[] accP, accC, accA, accPC, accPA, accCA, accPCA, accNode;
+
+        // scratch sets of the current pair (at most two distinct values each)
+        final int[] ps = new int[2], cs = new int[2], as = new int[2];
+        int np, nc, na;
+
+        MiddleModel(boolean geo, boolean useAsn) {
+            this.geo = geo;
+            this.useCountry = geo;
+            this.useAsn = useAsn;
+
+            int k = Math.max(1, middles.length);
+            wP = new long[prefixCount];
+            wC = new long[relays.countryCount()];
+            wA = new long[asnCount];
+            pc = new LongIntMap(k);
+            pa = new LongIntMap(k);
+            ca = new LongIntMap(k);
+            pca = new LongIntMap(k);
+            wPC = new long[k];
+            wPA = new long[k];
+            wCA = new long[k];
+            wPCA = new long[k];
+            isMiddle = new boolean[relays.size()];
+
+            for (int m : middles) {
+                long bw = relays.bandwidth(m);
+                int p = prefixId[m], c = country(m), a = asn(m);
+                isMiddle[m] = true;
+                total += bw;
+                wP[p] += bw;
+                if (c >= 0) { wC[c] += bw; wPC[pc.slot(pcKey(p, c))] += bw; }
+                if (a >= 0) { wA[a] += bw; wPA[pa.slot(paKey(p, a))] += bw; }
+                if (c >= 0 && a >= 0) {
+                    wCA[ca.slot(caKey(c, a))] += bw;
+                    wPCA[pca.slot(pcaKey(p, c, a))] += bw;
+                }
+            }
+
+            accP = new double[prefixCount];
+            accC = new double[relays.countryCount()];
+            accA = new double[asnCount];
+            accPC = new double[k];
+            accPA = new double[k];
+            accCA = new double[k];
+            accPCA = new double[k];
+            accNode = new double[relays.size()];
+        }
+
+        int country(int i) { return useCountry ? relays.country(i) : -1; }
+        int asn(int i) { return useAsn ? asnId[i] : -1; }
+
+        /** Adds a (guard, exit) pair with the given probability; false if no middle is possible. */
+        boolean add(int g, int e, double mass) {
+            np = collect(ps, prefixId[g], prefixId[e]);
+            nc = collect(cs, country(g), country(e));
+            na = collect(as, asn(g), asn(e));
+
+            long byP = sumP(), byA = sumA(), byPA = sumPA();
+            long tier2 = total - (byP + byA - byPA);
+
+            if (geo) {
+                long tier1 = total - (byP + sumC() + byA - sumPC() - byPA - sumCA() + sumPCA());
+                if (tier1 > 0) {
+                    double v = mass / tier1;
+                    sum += v;
+                    addP(v); addC(v); addA(v); addPC(v); addPA(v); addCA(v); addPCA(v);
+                    return true;
+                }
+            }
+            if (tier2 > 0) {
+                double v = mass / tier2;
+                sum += v;
+                addP(v); addA(v); addPA(v);
+                return true;
+            }
+            if (geo) {
+                long tier3 = total - (isMiddle[g] ? relays.bandwidth(g) : 0) - (isMiddle[e] ? relays.bandwidth(e) : 0);
+                if (tier3 > 0) {
+                    double v = mass / tier3;
+                    sum += v;
+                    accNode[g] += v;
+                    accNode[e] += v;
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        double probability(int m) {
+            int p = prefixId[m], c = country(m), a = asn(m);
+            double excluded = accP[p] + accNode[m];
+            if (c >= 0) excluded += accC[c] - accPC[pc.get(pcKey(p, c))];
+            if (a >= 0) excluded += accA[a] - accPA[pa.get(paKey(p, a))];
+            if (c >= 0 && a >= 0) {
+                excluded += -accCA[ca.get(caKey(c, a))] + accPCA[pca.get(pcaKey(p, c, a))];
+            }
+            return Math.max(0.0, relays.bandwidth(m) * (sum - excluded));
+        }
+
+        private long sumP() {
+            long s = 0;
+            for (int i = 0; i < np; i++) s += wP[ps[i]];
+            return s;
+        }
+
+        private long sumC() {
+            long s = 0;
+            for (int i = 0; i < nc; i++) s += wC[cs[i]];
+            return s;
+        }
+
+        private long sumA() {
+            long s = 0;
+            for (int i = 0; i < na; i++) s += wA[as[i]];
+            return s;
+        }
+
+        private long sumPC() {
+            long s = 0;
+            for (int i = 0; i < np; i++)
+                for (int j = 0; j < nc; j++) s += weight(wPC, pc, pcKey(ps[i], cs[j]));
+            return s;
+        }
+
+        private long sumPA() {
+            long s = 0;
+            for (int i = 0; i < np; i++)
+                for (int j = 0; j < na; j++) s += weight(wPA, pa, paKey(ps[i], as[j]));
+            return s;
+        }
+
+        private long sumCA() {
+            long s = 0;
+            for (int i = 0; i < nc; i++)
+                for (int j = 0; j < na; j++) s += weight(wCA, ca, caKey(cs[i], as[j]));
+            return s;
+        }
+
+        private long sumPCA() {
+            long s = 0;
+            for (int i = 0; i < np; i++)
+                for (int j = 0; j < nc; j++)
+                    for (int l = 0; l < na; l++) s += weight(wPCA, pca, pcaKey(ps[i], cs[j], as[l]));
+            return s;
+        }
+
+        private void addP(double v) { for (int i = 0; i < np; i++) accP[ps[i]] += v; }
+        private void addC(double v) { for (int i = 0; i < nc; i++) accC[cs[i]] += v; }
+        private void addA(double v) { for (int i = 0; i < na; i++) accA[as[i]] += v; }
+
+        private void addPC(double v) {
+            for (int i = 0; i < np; i++)
+                for (int j = 0; j < nc; j++) accumulate(accPC, pc, pcKey(ps[i], cs[j]), v);
+        }
+
+        private void addPA(double v) {
+            for (int i = 0; i < np; i++)
+                for (int j = 0; j < na; j++) accumulate(accPA, pa, paKey(ps[i], as[j]), v);
+        }
+
+        private void addCA(double v) {
+            for (int i = 0; i < nc; i++)
+                for (int j = 0; j < na; j++) accumulate(accCA, ca, caKey(cs[i], as[j]), v);
+        }
+
+        private void addPCA(double v) {
+            for (int i = 0; i < np; i++)
+                for (int j = 0; j < nc; j++)
+                    for (int l = 0; l < na; l++) accumulate(accPCA, pca, pcaKey(ps[i], cs[j], as[l]), v);
+        }
+    }
+
+    // combinations that no middle has are absent from the maps and weigh nothing
+    private static long weight(long[] w, LongIntMap index, long key) {
+        int slot = index.get(key);
+        return slot < 0 ? 0 : w[slot];
+    }
+
+    private static void accumulate(double[] acc, LongIntMap index, long key, double v) {
+        int slot = index.get(key);
+        if (slot >= 0) acc[slot] += v;
+    }
+
+    private static int collect(int[] set, int a, int b) {
+        int k = 0;
+        if (a >= 0) set[k++] = a;
+        if (b >= 0 && b != a) set[k++] = b;
+        return k;
+    }
+
+    private static long pcKey(int p, int c) { return ((long) p << 32) | c; }
+    private static long paKey(int p, int a) { return ((long) p << 32) | a; }
+    private static long caKey(int c, int a) { return ((long) c << 32) | a; }
+    private static long pcaKey(int p, int c, int a) { return ((long) p << 42) | ((long) c << 21) | a; }
+
+    public static void main(String[] args) throws Exception {
+        String[] ports = (args.length > 0 ? args[0] : "80,443,6667").split(",");
+
+        String consensusPath = "src/main/java/pt/unl/fct/pds/data/consensus.txt";
+        String countryDbPath = "src/main/java/pt/unl/fct/pds/data/GeoLite2-Country.mmdb";
+
+        CountryFinder resolver = CountryFinder.openIfPresent(countryDbPath);
+        ConsensusParser parser = new ConsensusParser(consensusPath, resolver);
+        parser.setLazy(true);
+        Node[] nodes = parser.parseConsensus();
+        if (resolver != null) resolver.close();
+
+        SelectionProbabilityCalculator calc = new SelectionProbabilityCalculator(new RelayIndex(nodes));
+        for (String p : ports) {
+            int port = Integer.parseInt(p.trim());
+            long start = System.nanoTime();
+            SelectionProbabilities tor = calc.forPathSelector(port);
+            SelectionProbabilities geo = calc.forGeoSelector(port, false);
+            long ms = (System.nanoTime() - start) / 1_000_000;
+
+            tor.printSummary(System.out);
+            geo.printSummary(System.out);
+            System.out.println("(port " + port + " computed in " + ms + " ms)");
+            System.out.println();
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package pt.unl.fct.pds.history;
+
+import java.util.Arrays;
+
+/**
+ * History of one int attribute of one relay, stored as the hours at which it changed.
+ *
+ * Each change is appended as two varints: the hour delta and the zigzag value delta
+ * against the previous change, so an attribute that stays put costs nothing per hour.
+ * Every {@link #CHECKPOINT_EVERY} changes the absolute hour, value and byte offset are
+ * kept aside, so a point lookup decodes at most that many entries.
+ */
+final class DeltaStream {
+    static final int ABSENT = Integer.MIN_VALUE;
+    static final int CHECKPOINT_EVERY = 32;
+
+    private byte[] data = new byte[8];
+    private int length;
+    private int count;
+    private int lastHour = -1;
+    private int lastValue;
+
+    private int[] cpHour = new int[1];
+    private int[] cpValue = new int[1];
+    private int[] cpOffset = new int[1];
+    private int checkpoints;
+
+    int changes() { return count; }
+    int bytes() { return length + checkpoints * 12; }
+    int last() { return count == 0 ? ABSENT : lastValue; }
+
+    /** Records value from hour on; a no-op when it equals the current value. */
+    void set(int hour, int value) {
+        if (count > 0 && value == lastValue) return;
+        if (hour <= lastHour) throw new IllegalArgumentException("Hour " + hour + " is not after " + lastHour);
+
+        putVarLong(hour - lastHour);
+        putVarLong(zigzag((long) value - lastValue));
+        if (count % CHECKPOINT_EVERY == 0) {
+            if (checkpoints == cpHour.length) {
+                int n = checkpoints * 2;
+                cpHour = Arrays.copyOf(cpHour, n);
+                cpValue = Arrays.copyOf(cpValue, n);
+                cpOffset = Arrays.copyOf(cpOffset, n);
+            }
+            cpHour[checkpoints] = hour;
+            cpValue[checkpoints] = value;
+            cpOffset[checkpoints] = length;
+            checkpoints++;
+        }
+        lastHour = hour;
+        lastValue = value;
+        count++;
+    }
+
+    /** Value in effect at hour, or {@link #ABSENT} before the first change. */
+    int valueAt(int hour) {
+        if (count == 0 || hour < cpHour[0]) return ABSENT;
+        if (hour >= lastHour) return lastValue;
+
+        int lo = 0, hi = checkpoints - 1;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (cpHour[mid] <= hour) lo = mid;
+            else hi = mid - 1;
+        }
+        int h = cpHour[lo];
+        int v = cpValue[lo];
+        int[] pos = { cpOffset[lo] };
+        while (pos[0] < length) {
+            int next = h + (int) getVarLong(pos);
+            if (next > hour) break;
+            long zz = getVarLong(pos);
+            h = next;
+            v += (int) ((zz >>> 1) ^ -(zz & 1));
+        }
+        return v;
+    }
+
+    /** Writes the value in effect at every hour in [0, out.length) into out. */
+    void fill(int[] out) {
+        int h = -1, v = ABSENT, value = 0;
+        int[] pos = { 0 };
+        int filled = 0;
+        while (pos[0] < length) {
+            int next = h + (int) getVarLong(pos);
+            long zz = getVarLong(pos);
+            value += (int) ((zz >>> 1) ^ -(zz & 1));
+            int end = Math.min(next, out.length);
+            while (filled < end) out[filled++] = v;
+            h = next;
+            v = value;
+        }
+        while (filled < out.length) out[filled++] = v;
+    }
+
+    private void putVarLong(long v) {
+        if (length + 10 > data.length) data = Arrays.copyOf(data, Math.max(data.length * 2, length + 10));
+        while ((v & ~0x7FL) != 0) {
+            data[length++] = (byte) ((v & 0x7F) | 0x80);
+            v >>>= 7;
+        }
+        data[length++] = (byte) v;
+    }
+
+    private long getVarLong(int[] pos) {
+        long v = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = data[pos[0]++];
+            v |= (long) (b & 0x7F) << shift;
+            if (b >= 0) return v;
+        }
+    }
+
+    private static long zigzag(long v) {
+        return (v << 1) ^ (v >> 63);
+    }
+}
@@ -0,0 +1,82 @@
+package pt.unl.fct.pds.history;
+
+import pt.unl.fct.pds.model.Node;
+
+import java.time.LocalDateTime;
+import java.util.Arrays;
+
+/**
+ * The relays listed in one consensus of a {@link RelayHistory}, as primitive columns.
+ * Entry i is relay {@link #relayId}(i); ids are ascending. Strings are resolved through
+ * the history's dictionaries only when asked for, and {@link #toNodes} materializes
+ * Node objects for code that needs them (without publication times, which are not kept).
+ */
+public class NetworkState {
+    private final RelayHistory history;
+    private final int hour;
+    private final int[] relayIds;
+    private final int[][] columns;
+
+    NetworkState(RelayHistory history, int hour, int[] relayIds, int[][] columns) {
+        this.history = history;
+        this.hour = hour;
+        this.relayIds = relayIds;
+        this.columns = columns;
+    }
+
+    public int hour() { return hour; }
+    public LocalDateTime validAfter() { return history.hour(hour); }
+    public int size() { return relayIds.length; }
+
+    public int relayId(int i) { return relayIds[i]; }
+
+    /** Position of a relay id in this state, or -1 if it was not listed. */
+    public int indexOf(int relayId) {
+        int i = Arrays.binarySearch(relayIds, relayId);
+        return i < 0 ? -1 : i;
+    }
+
+    /** Raw column value; dictionary fields hold ids into the history's dictionaries. */
+    public int value(int i, int field) {
+        return field == RelayHistory.PRESENT ? 1 : columns[field][i];
+    }
+
+    public String fingerprint(int i) { return history.fingerprint(relayIds[i]); }
+    public int bandwidth(int i) { return columns[RelayHistory.BANDWIDTH][i]; }
+    public String ipAddress(int i) { return history.address(columns[RelayHistory.ADDRESS][i]); }
+    public String exitPolicy(int i) { return history.policy(columns[RelayHistory.POLICY][i]); }
+    public String country(int i) { return history.country(columns[RelayHistory.COUNTRY][i]); }
+    public int asn(int i) { return columns[RelayHistory.ASN][i]; }
+
+    public boolean hasFlag(int i, String flag) {
+        int bit = history.flagBit(flag);
+        return bit != 0 && (columns[RelayHistory.FLAGS][i] & bit) != 0;
+    }
+
+    public long totalBandwidth() {
+        long total = 0;
+        for (int bw : columns[RelayHistory.BANDWIDTH]) total += bw;
+        return total;
+    }
+
+    public Node[] toNodes() {
+        Node[] nodes = new Node[relayIds.length];
+        for (int i = 0; i < nodes.length; i++) {
+            Node n = new Node(
+                    history.nickname(relayIds[i]),
+                    fingerprint(i),
+                    null,
+                    ipAddress(i),
+                    columns[RelayHistory.OR_PORT][i],
+                    columns[RelayHistory.DIR_PORT][i],
+                    history.flags(columns[RelayHistory.FLAGS][i]),
+                    history.version(columns[RelayHistory.VERSION][i]),
+                    bandwidth(i),
+                    country(i),
+                    exitPolicy(i));
+            n.setAsn(asn(i));
+            nodes[i] = n;
+        }
+        return nodes;
+    }
+}
@@ -0,0 +1,286 @@
+package pt.unl.fct.pds.history;
+
+import pt.unl.fct.pds.model.Node;
+import pt.unl.fct.pds.utils.AsnFinder;
+import pt.unl.fct.pds.utils.ConsensusParser;
+import pt.unl.fct.pds.utils.CountryFinder;
+
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Relay history over a series of hourly consensuses, without keeping one Node[] per hour.
+ *
+ * Every fingerprint gets a stable relay id the first time it is seen. Each attribute of a
+ * relay (presence, bandwidth, flags, address, ports, exit policy, country, version, ASN) is a
+ * {@link DeltaStream} that only records the hours where it differs from the previous
+ * consensus; strings are interned into per-history dictionaries first. "Relay X over time"
+ * walks one relay's streams ({@link #series}), "the network at hour T" does one checkpointed
+ * lookup per relay and field ({@link #stateAt}).
+ *
+ * Consensuses must be added in time order. Not thread-safe while consensuses are being
+ * added; queries afterwards may run concurrently.
+ */
+public class RelayHistory {
+    public static final int PRESENT   = 0;
+    public static final int BANDWIDTH = 1;
+    public static final int FLAGS     = 2;
+    public static final int ADDRESS   = 3;
+    public static final int OR_PORT   = 4;
+    public static final int DIR_PORT  = 5;
+    public static final int POLICY    = 6;
+    public static final int COUNTRY   = 7;
+    public static final int VERSION   = 8;
+    public static final int ASN       = 9;
+    static final int FIELDS = 10;
+
+    /** Value of an attribute at an hour where the relay is not in the consensus. */
+    public static final int ABSENT = DeltaStream.ABSENT;
+
+    private final Map<String, Integer> ids = new HashMap<>();
+    private final List<Relay> relays = new ArrayList<>();
+
+    private final Dictionary flagNames = new Dictionary();
+    private final Dictionary addresses = new Dictionary();
+    private final Dictionary policies = new Dictionary();
+    private final Dictionary countries = new Dictionary();
+    private final Dictionary versions = new Dictionary();
+
+    private long[] times = new long[16];
+    private int hours;
+    private int[] present = new int[0];
+
+    /** Loads consensus files in file name order (Tor's archive names sort by time). */
+    public static RelayHistory load(List<Path> files, CountryFinder geo, AsnFinder asn) {
+        List<Path> sorted = new ArrayList<>(files);
+        sorted.sort((a, b) -> a.getFileName().toString().compareTo(b.getFileName().toString()));
+
+        RelayHistory history = new RelayHistory();
+        for (Path file : sorted) {
+            ConsensusParser parser = new ConsensusParser(file.toString(), geo, asn);
+            Node[] nodes = parser.parseConsensus();
+            if (parser.getValidAfter() == null)
+                throw new IllegalArgumentException("No valid-after time in " + file);
+            history.addConsensus(parser.getValidAfter(), nodes);
+        }
+        return history;
+    }
+
+    /** Appends one consensus; returns its hour index. */
+    public int addConsensus(LocalDateTime validAfter, Node[] nodes) {
+        long t = validAfter.toEpochSecond(ZoneOffset.UTC);
+        if (hours > 0 && t <= times[hours - 1])
+            throw new IllegalArgumentException("Consensus " + validAfter + " is not after " + hour(hours - 1));
+
+        int hour = hours;
+        if (hour == times.length) times = Arrays.copyOf(times, hour * 2);
+        times[hour] = t;
+        hours++;
+
+        int[] now = new int[nodes.length];
+        int n = 0;
+        for (Node node : nodes) {
+            if (node.getFingerprint() == null) continue;
+            int id = idFor(node.getFingerprint());
+            Relay r = relays.get(id);
+            if (r.lastSeen == hour) continue;
+            r.lastSeen = hour;
+            r.nickname = node.getNickname();
+            now[n++] = id;
+
+            r.fields[PRESENT].set(hour, 1);
+            r.fields[BANDWIDTH].set(hour, node.getBandwidth());
+            r.fields[FLAGS].set(hour, flagMask(node.getFlags()));
+            r.fields[ADDRESS].set(hour, addresses.id(node.getIpAddress()));
+            r.fields[OR_PORT].set(hour, node.getOrPort());
+            r.fields[DIR_PORT].set(hour, node.getDirPort());
+            r.fields[POLICY].set(hour, policies.id(node.getExitPolicy()));
+            r.fields[COUNTRY].set(hour, countries.id(node.getCountry()));
+            r.fields[VERSION].set(hour, versions.id(node.getVersion()));
+            r.fields[ASN].set(hour, node.getAsn());
+        }
+
+        for (int id : present) {
+            Relay r = relays.get(id);
+            if (r.lastSeen != hour) r.fields[PRESENT].set(hour, 0);
+        }
+        present = Arrays.copyOf(now, n);
+        return hour;
+    }
+
+    public int hourCount() { return hours; }
+    public LocalDateTime hour(int hour) { return LocalDateTime.ofEpochSecond(times[hour], 0, ZoneOffset.UTC); }
+
+    /** Index of the last consensus valid at time, or -1 if time is before the first one. */
+    public int hourIndex(LocalDateTime time) {
+        long t = time.toEpochSecond(ZoneOffset.UTC);
+        int lo = 0, hi = hours - 1, found = -1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            if (times[mid] <= t) {
+                found = mid;
+                lo = mid + 1;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return found;
+    }
+
+    public int relayCount() { return relays.size(); }
+
+    /** Stable id of a fingerprint, or -1 if it never appeared. */
+    public int relayId(String fingerprint) {
+        Integer id = ids.get(fingerprint);
+        return id == null ? -1 : id;
+    }
+
+    public String fingerprint(int relayId) { return relays.get(relayId).fingerprint; }
+
+    /** Nickname in the last consensus the relay appeared in. */
+    public String nickname(int relayId) { return relays.get(relayId).nickname; }
+
+    public boolean presentAt(int relayId, int hour) {
+        return relays.get(relayId).fields[PRESENT].valueAt(hour) == 1;
+    }
+
+    /** Attribute of a relay at an hour, or {@link #ABSENT} if the relay was not listed. */
+    public int valueAt(int relayId, int field, int hour) {
+        DeltaStream[] f = relays.get(relayId).fields;
+        if (f[PRESENT].valueAt(hour) != 1) return field == PRESENT ? 0 : ABSENT;
+        return f[field].valueAt(hour);
+    }
+
+    /** One value per hour of a relay's attribute; {@link #ABSENT} where it was not listed. */
+    public int[] series(int relayId, int field) {
+        DeltaStream[] f = relays.get(relayId).fields;
+        int[] presence = new int[hours];
+        f[PRESENT].fill(presence);
+        if (field == PRESENT) {
+            for (int h = 0; h < hours; h++) if (presence[h] == ABSENT) presence[h] = 0;
+            return presence;
+        }
+        int[] values = new int[hours];
+        f[field].fill(values);
+        for (int h = 0; h < hours; h++) if (presence[h] != 1) values[h] = ABSENT;
+        return values;
+    }
+
+    /** Hours in which the relay's attribute changed, counting joins and leaves for PRESENT. */
+    public int changes(int relayId, int field) { return relays.get(relayId).fields[field].changes(); }
+
+    /** Every relay listed at an hour, with its attributes decoded into arrays. */
+    public NetworkState stateAt(int hour) {
+        if (hour < 0 || hour >= hours) throw new IndexOutOfBoundsException("No consensus at hour " + hour);
+        int[] listed = new int[relays.size()];
+        int n = 0;
+        for (int id = 0; id < relays.size(); id++) {
+            if (relays.get(id).fields[PRESENT].valueAt(hour) == 1) listed[n++] = id;
+        }
+        int[][] columns = new int[FIELDS][n];
+        for (int i = 0; i < n; i++) {
+            DeltaStream[] f = relays.get(listed[i]).fields;
+            for (int field = 1; field < FIELDS; field++) columns[field][i] = f[field].valueAt(hour);
+        }
+        return new NetworkState(this, hour, Arrays.copyOf(listed, n), columns);
+    }
+
+    // --- dictionaries ---
+
+    public String address(int id) { return addresses.value(id); }
+    public String policy(int id) { return policies.value(id); }
+    public String country(int id) { return countries.value(id); }
+    public String version(int id) { return versions.value(id); }
+
+    /** Bit of a flag in FLAGS values, or 0 if no relay ever had it. */
+    public int flagBit(String flag) {
+        int id = flagNames.find(flag);
+        return id < 0 ? 0 : 1 << id;
+    }
+
+    public String[] flags(int mask) {
+        List<String> names = new ArrayList<>();
+        for (int bit = 0; bit < flagNames.size(); bit++) {
+            if ((mask & (1 << bit)) != 0) names.add(flagNames.value(bit));
+        }
+        return names.toArray(new String[0]);
+    }
+
+    /** Total changes recorded, over all relays and fields. */
+    public long changeCount() {
+        long total = 0;
+        for (Relay r : relays) for (DeltaStream s : r.fields) total += s.changes();
+        return total;
+    }
+
+    /** Approximate bytes held by the encoded attribute streams. */
+    public long encodedBytes() {
+        long total = 0;
+        for (Relay r : relays) for (DeltaStream s : r.fields) total += s.bytes();
+        return total;
+    }
+
+    private int idFor(String fingerprint) {
+        Integer id = ids.get(fingerprint);
+        if (id == null) {
+            id = relays.size();
+            ids.put(fingerprint, id);
+            relays.add(new Relay(fingerprint));
+        }
+        return id;
+    }
+
+    private int flagMask(String[] flags) {
+        int mask = 0;
+        if (flags == null) return mask;
+        for (String f : flags) {
+            int bit = flagNames.id(f);
+            if (bit >= 32) throw new IllegalStateException("More than 32 distinct relay flags");
+            mask |= 1 << bit;
+        }
+        return mask;
+    }
+
+    private static final class Relay {
+        final String fingerprint;
+        final DeltaStream[] fields = new DeltaStream[FIELDS];
+        String nickname;
+        int lastSeen = -1;
+
+        Relay(String fingerprint) {
+            this.fingerprint = fingerprint;
+            for (int f = 0; f < FIELDS; f++) fields[f] = new DeltaStream();
+        }
+    }
+
+    // interned strings; id -1 stands for null
+    private static final class Dictionary {
+        private final Map<String, Integer> ids = new HashMap<>();
+        private final List<String> values = new ArrayList<>();
+
+        int id(String s) {
+            if (s == null) return -1;
+            Integer id = ids.get(s);
+            if (id == null) {
+                id = values.size();
+                ids.put(s, id);
+                values.add(s);
+            }
+            return id;
+        }
+
+        int find(String s) {
+            Integer id = s == null ? null : ids.get(s);
+            return id == null ? -1 : id;
+        }
+
+        String value(int id) { return id < 0 ? null : values.get(id); }
+        int size() { return values.size(); }
+    }
+}
@@ -0,0 +1,80 @@
+package pt.unl.fct.pds.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free log-linear histogram of nanosecond latencies.
+ * Values below 16 ns are exact; above that each power of two is split into 8 buckets,
+ * so reported percentiles are within 12.5% of the recorded value.
+ */
+public class LatencyHistogram {
+    private static final int LINEAR = 16;
+    private static final int SUB_BITS = 3;
+    private static final int BUCKETS = LINEAR + (63 - 4 + 1) * (1 << SUB_BITS);
+
+    private final String name;
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    public LatencyHistogram(String name) {
+        this.name = name;
+    }
+
+    public String getName() { return name; }
+
+    public void record(long nanos) {
+        if (nanos < 0) nanos = 0;
+        buckets.incrementAndGet(bucket(nanos));
+        count.increment();
+        sum.add(nanos);
+        long m;
+        while (nanos > (m = max.get()) && !max.compareAndSet(m, nanos)) { /* retry */ }
+    }
+
+    public long count() { return count.sum(); }
+    public long max() { return max.get(); }
+
+    public double mean() {
+        long n = count.sum();
+        return n == 0 ? 0.0 : (double) sum.sum() / n;
+    }
+
+    /** Upper bound of the bucket holding the given quantile (0..1), in nanoseconds. */
+    public long percentile(double q) {
+        long n = count.sum();
+        if (n == 0) return 0;
+        long rank = Math.max(1, (long) Math.ceil(q * n));
+        long seen = 0;
+        for (int b = 0; b < BUCKETS; b++) {
+            seen += buckets.get(b);
+            if (seen >= rank) return Math.min(upperBound(b), max.get());
+        }
+        return max.get();
+    }
+
+    public void reset() {
+        for (int b = 0; b < BUCKETS; b++) buckets.set(b, 0);
+        count.reset();
+        sum.reset();
+        max.set(0);
+    }
+
+    static int bucket(long v) {
+        if (v < LINEAR) return (int) v;
+        int exp = 63 - Long.numberOfLeadingZeros(v);
+        int sub = (int) (v >>> (exp - SUB_BITS)) & ((1 << SUB_BITS) - 1);
+        return LINEAR + (exp - 4) * (1 << SUB_BITS) + sub;
+    }
+
+    static long upperBound(int b) {
+        if (b < LINEAR) return b;
+        int exp = (b - LINEAR) / (1 << SUB_BITS) + 4;
+        int sub = (b - LINEAR) % (1 << SUB_BITS);
+        long lower = ((long) ((1 << SUB_BITS) + sub)) << (exp - SUB_BITS);
+        return lower + (1L << (exp - SUB_BITS)) - 1;
+    }
+}
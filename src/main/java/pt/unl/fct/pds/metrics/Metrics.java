@@ -0,0 +1,89 @@
+package pt.unl.fct.pds.metrics;
+
+import jdk.jfr.Event;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Process-wide instrumentation of the parse, geo-resolve and selection hot paths.
+ *
+ * Histograms and outcome counters are disabled by default; enable them with
+ * -Dpds.metrics=true or {@link #setEnabled(boolean)}. While disabled, {@link #start()} returns 0
+ * and the recording methods skip them. Latencies then go to lock-free histograms.
+ *
+ * Each step is also a JFR event of the "Tor Path Selection" category, independent of that flag:
+ * {@link Stage#begin()} begins one whenever a running recording enables it, so JFR's own
+ * duration, thresholds and timelines apply. Without such a recording no event is allocated.
+ */
+public final class Metrics {
+    private static volatile boolean enabled = Boolean.getBoolean("pds.metrics");
+
+    public static final Stage PARSE = new Stage("parse", null, null, false, ParseEvent.class, ParseEvent::new);
+    public static final Stage RESOLVE = new Stage("geo.resolve", null, null, false, ResolveEvent.class, ResolveEvent::new);
+
+    public static final Stage TOR_EXIT = new Stage("tor.exit", "Tor", "exit", false);
+    public static final Stage TOR_GUARD = new Stage("tor.guard", "Tor", "guard", false);
+    public static final Stage TOR_MIDDLE = new Stage("tor.middle", "Tor", "middle", false);
+    public static final Stage GEO_EXIT = new Stage("geo.exit", "Geo", "exit", false);
+    public static final Stage GEO_GUARD = new Stage("geo.guard", "Geo", "guard", true);
+    public static final Stage GEO_MIDDLE = new Stage("geo.middle", "Geo", "middle", true);
+
+    static final Stage[] STAGES = { PARSE, RESOLVE, TOR_EXIT, TOR_GUARD, TOR_MIDDLE, GEO_EXIT, GEO_GUARD, GEO_MIDDLE };
+
+    static final LongAdder parseErrors = new LongAdder();
+    static final LongAdder resolveCacheHits = new LongAdder();
+
+    private Metrics() {}
+
+    public static boolean isEnabled() { return enabled; }
+    public static void setEnabled(boolean on) { enabled = on; }
+
+    /** Start timestamp for a step, or 0 when metrics are disabled. */
+    public static long start() {
+        return enabled ? System.nanoTime() : 0L;
+    }
+
+    /** A parse started with {@link #start()} and {@link Stage#begin() PARSE.begin()}. */
+    public static void parsed(long start, Event event, String file, int relays, boolean failed) {
+        if (start != 0) {
+            PARSE.getLatency().record(System.nanoTime() - start);
+            if (failed) parseErrors.increment();
+        }
+        if (event == null) return;
+        event.end();
+        if (event.shouldCommit()) {
+            ParseEvent e = (ParseEvent) event;
+            e.file = file;
+            e.relays = relays;
+            e.failed = failed;
+            e.commit();
+        }
+    }
+
+    /** A GeoIP lookup that went to the database (cache misses only). */
+    public static void resolved(long start, Event event, String ip, String country) {
+        if (start != 0) RESOLVE.getLatency().record(System.nanoTime() - start);
+        if (event == null) return;
+        event.end();
+        if (event.shouldCommit()) {
+            ResolveEvent e = (ResolveEvent) event;
+            e.address = ip;
+            e.country = country;
+            e.commit();
+        }
+    }
+
+    public static void resolveCacheHit() {
+        if (enabled) resolveCacheHits.increment();
+    }
+
+    public static MetricsSnapshot snapshot() {
+        return new MetricsSnapshot(STAGES, parseErrors.sum(), resolveCacheHits.sum());
+    }
+
+    public static void reset() {
+        for (Stage s : STAGES) s.reset();
+        parseErrors.reset();
+        resolveCacheHits.reset();
+    }
+}
@@ -0,0 +1,47 @@
+package pt.unl.fct.pds.metrics;
+
+import java.io.PrintStream;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Point-in-time copy of all metrics as flat "name value" pairs, e.g.
+ * {@code geo.guard.latency.p99 15360} or {@code geo.guard.tier2 17}.
+ */
+public class MetricsSnapshot {
+    private final Map<String, Number> values = new LinkedHashMap<>();
+
+    MetricsSnapshot(Stage[] stages, long parseErrors, long resolveCacheHits) {
+        for (Stage s : stages) {
+            LatencyHistogram h = s.getLatency();
+            String p = s.getName() + ".latency.";
+            values.put(p + "count", h.count());
+            values.put(p + "mean", h.mean());
+            values.put(p + "p50", h.percentile(0.50));
+            values.put(p + "p90", h.percentile(0.90));
+            values.put(p + "p99", h.percentile(0.99));
+            values.put(p + "max", h.max());
+            if (s != Metrics.PARSE && s != Metrics.RESOLVE) {
+                values.put(s.getName() + ".empty", s.outcomes(Stage.EMPTY));
+                for (int tier = 1; tier < Stage.OUTCOMES; tier++) {
+                    values.put(s.getName() + ".tier" + tier, s.outcomes(tier));
+                }
+            }
+        }
+        values.put("parse.errors", parseErrors);
+        values.put("geo.resolve.cache_hits", resolveCacheHits);
+    }
+
+    public Map<String, Number> asMap() { return Collections.unmodifiableMap(values); }
+
+    public Number get(String name) { return values.get(name); }
+
+    /** One "name value" line per metric (latencies in nanoseconds). */
+    public void writeTo(PrintStream out) {
+        for (Map.Entry<String, Number> e : values.entrySet()) {
+            Number v = e.getValue();
+            out.println(e.getKey() + " " + (v instanceof Double ? String.format("%.1f", v.doubleValue()) : v));
+        }
+    }
+}
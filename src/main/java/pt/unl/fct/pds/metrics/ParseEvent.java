@@ -0,0 +1,22 @@
+package pt.unl.fct.pds.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("pt.unl.fct.pds.ConsensusParse")
+@Label("Consensus Parse")
+@Category({ "Tor Path Selection" })
+@Description("Parsing of one consensus document")
+class ParseEvent extends Event {
+    @Label("File")
+    String file;
+
+    @Label("Relays")
+    int relays;
+
+    @Label("Failed")
+    boolean failed;
+}
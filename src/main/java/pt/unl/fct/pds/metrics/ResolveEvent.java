@@ -0,0 +1,19 @@
+package pt.unl.fct.pds.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("pt.unl.fct.pds.GeoResolve")
+@Label("GeoIP Resolve")
+@Category({ "Tor Path Selection" })
+@Description("Country lookup of one relay address that missed the cache")
+class ResolveEvent extends Event {
+    @Label("Address")
+    String address;
+
+    @Label("Country")
+    String country;
+}
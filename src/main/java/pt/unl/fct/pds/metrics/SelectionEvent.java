@@ -0,0 +1,25 @@
+package pt.unl.fct.pds.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("pt.unl.fct.pds.Selection")
+@Label("Relay Selection")
+@Category({ "Tor Path Selection" })
+@Description("Choice of one circuit position by a path selector")
+class SelectionEvent extends Event {
+    @Label("Selector")
+    String selector;
+
+    @Label("Role")
+    String role;
+
+    @Label("Destination Port")
+    int destPort;
+
+    @Label("Found")
+    boolean found;
+}
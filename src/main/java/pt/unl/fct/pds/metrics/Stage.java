@@ -0,0 +1,100 @@
+package pt.unl.fct.pds.metrics;
+
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * One instrumented step (parsing, resolving an IP, or picking one circuit position).
+ * Tracks its latency and how often each outcome happened: outcome 0 means nothing was
+ * found (an empty candidate set), 1..3 the fallback tier that produced the result.
+ *
+ * Each step also has a JFR event, begun by {@link #begin()} and committed when the step ends.
+ * Events follow the JFR recording settings only, not {@link Metrics#isEnabled()}.
+ */
+public class Stage {
+    public static final int EMPTY = 0;
+    static final int OUTCOMES = 4;
+
+    private final String name;
+    private final String selector;
+    private final String role;
+    private final boolean tiered;
+    private final LatencyHistogram latency;
+    private final LongAdder[] outcomes = new LongAdder[OUTCOMES];
+    private final EventType eventType;
+    private final Supplier<? extends Event> events;
+
+    /** A selection step, reported as {@link SelectionEvent}s. */
+    Stage(String name, String selector, String role, boolean tiered) {
+        this(name, selector, role, tiered, SelectionEvent.class, SelectionEvent::new);
+    }
+
+    Stage(String name, String selector, String role, boolean tiered,
+          Class<? extends Event> eventClass, Supplier<? extends Event> events) {
+        this.name = name;
+        this.selector = selector;
+        this.role = role;
+        this.tiered = tiered;
+        this.latency = new LatencyHistogram(name);
+        for (int i = 0; i < OUTCOMES; i++) outcomes[i] = new LongAdder();
+        this.eventType = EventType.getEventType(eventClass);
+        this.events = events;
+    }
+
+    public String getName() { return name; }
+    public LatencyHistogram getLatency() { return latency; }
+    public long outcomes(int outcome) { return outcomes[outcome].sum(); }
+
+    /** Counts an outcome (tier or {@link #EMPTY}); no-op while metrics are disabled. */
+    public void outcome(int outcome) {
+        if (Metrics.isEnabled()) outcomes[outcome].increment();
+    }
+
+    /**
+     * Begins this step's JFR event, or returns null (allocating nothing) when no running
+     * recording has it enabled. Pass the result to the method ending the step.
+     */
+    public Event begin() {
+        if (!eventType.isEnabled()) return null;
+        Event event = events.get();
+        event.begin();
+        return event;
+    }
+
+    /**
+     * Ends a selection step started with {@link Metrics#start()} and {@link #begin()}: records
+     * latency, counts an empty result (or tier 1 for steps without fallback tiers) and commits
+     * the JFR event.
+     */
+    public void selected(long start, Event event, int destPort, boolean found) {
+        if (start != 0) {
+            latency.record(System.nanoTime() - start);
+            if (!found) outcomes[EMPTY].increment();
+            else if (!tiered) outcomes[1].increment();
+        }
+        if (event == null) return;
+        event.end();
+        if (event.shouldCommit()) {
+            SelectionEvent e = (SelectionEvent) event;
+            e.selector = selector;
+            e.role = role;
+            e.destPort = destPort;
+            e.found = found;
+            e.commit();
+        }
+    }
+
+    /** Ends a timed step that is not a selection. */
+    public void done(long start) {
+        if (start == 0) return;
+        latency.record(System.nanoTime() - start);
+    }
+
+    void reset() {
+        latency.reset();
+        for (LongAdder a : outcomes) a.reset();
+    }
+}
@@ -8,6 +8,7 @@ public class Circuit {
     int id;
     Node[] nodes;
     int minBandwidth;
+    double estimatedRttMs = Double.NaN;
     
     public Circuit() {}
     public Circuit(
@@ -23,9 +24,12 @@ public class Circuit {
     public int getId() {return id;}
     public Node[] getNodes() {return nodes;}
     public int getMinBandwidth() {return minBandwidth;}
+    /** Estimated round-trip time through the circuit in ms, NaN when the selector did not estimate it. */
+    public double getEstimatedRttMs() {return estimatedRttMs;}
 
     
     public void setId(int id) {this.id = id;}
     public void setNodes(Node[] nodes) {this.nodes = Arrays.copyOf(nodes, nodes.length);}
     public void setMinBandwidth(int minBandwidth) {this.minBandwidth = minBandwidth;}
+    public void setEstimatedRttMs(double estimatedRttMs) {this.estimatedRttMs = estimatedRttMs;}
 }
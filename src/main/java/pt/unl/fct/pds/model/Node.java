@@ -1,6 +1,9 @@
 package pt.unl.fct.pds.model;
 
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
 import java.util.Arrays;
 
 public class Node {
@@ -15,6 +18,16 @@ public class Node {
     private int bandwidth;
     private String country;
     private String exitPolicy;
+    private int asn;
+    private String microdescriptor;
+    private double latitude = Double.NaN;
+    private double longitude = Double.NaN;
+
+    // lazy mode: timePublished and version still encoded in the retained consensus bytes
+    private static final DateTimeFormatter PUBLISHED = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+    private byte[] source;
+    private int publishedAt, versionAt;
+    private volatile int publishedLength, versionLength;
 
     public Node() {}
 
@@ -46,26 +59,80 @@ public class Node {
 
     public String getNickname() {return nickname;}
     public String getFingerprint() {return fingerprint;}
-    public LocalDateTime getTimePublished() {return timePublished;}
+    public LocalDateTime getTimePublished() {
+        if (publishedLength > 0) decodePublished();
+        return timePublished;
+    }
     public String getIpAddress() {return ipAddress;}
     public int getOrPort() {return orPort;}
     public int getDirPort() {return dirPort;}
     public String[] getFlags() {return flags;}
-    public String getVersion() {return version;}
+    public String getVersion() {
+        if (versionLength > 0) decodeVersion();
+        return version;
+    }
     public int getBandwidth() {return bandwidth;}
     public String getCountry() {return country;}
     public String getExitPolicy() {return exitPolicy;}
+    public int getAsn() {return asn;}
+    /** Digest of the relay's microdescriptor (microdesc consensus m line), or null. */
+    public String getMicrodescriptor() {return microdescriptor;}
+    public double getLatitude() {return latitude;}
+    public double getLongitude() {return longitude;}
+    public boolean hasLocation() {return !Double.isNaN(latitude) && !Double.isNaN(longitude);}
 
     
     public void setNickname(String nickname) {this.nickname = nickname;}
     public void setFingerprint(String fingerprint) {this.fingerprint = fingerprint;}
-    public void setTimePublished(LocalDateTime timePublished) {this.timePublished =timePublished;}
+    public void setTimePublished(LocalDateTime timePublished) {this.timePublished = timePublished; publishedLength = 0; release();}
     public void setIpAddress(String ipAddress) {this.ipAddress = ipAddress;}
     public void setOrPort(int orPort) {this.orPort = orPort;}
     public void setDirPort(int dirPort) {this.dirPort = dirPort;}
     public void setFlags(String[] flags) {this.flags = Arrays.copyOf(flags, flags.length);}
-    public void setVersion(String version) {this.version = version;}
+    /** Stores flags without copying, so nodes can share one array; it must not be modified. */
+    public void shareFlags(String[] flags) {this.flags = flags;}
+    public void setVersion(String version) {this.version = version; versionLength = 0; release();}
     public void setBandwidth(int bandwidth) {this.bandwidth = bandwidth;}
     public void setCountry(String country) {this.country = country;}
     public void setExitPolicy(String exitPolicy) {this.exitPolicy = exitPolicy;}
+    public void setAsn(int asn) {this.asn = asn;}
+    public void setMicrodescriptor(String microdescriptor) {this.microdescriptor = microdescriptor;}
+    public void setLocation(double latitude, double longitude) {this.latitude = latitude; this.longitude = longitude;}
+
+    /**
+     * Defers timePublished and version to their first read: they are decoded from the given
+     * ranges of source (the "date time" of the r line and the body of the v line) by the getters.
+     * A length of 0 leaves the field as it is. The bytes are released once both are decoded.
+     */
+    public void defer(byte[] source, int publishedAt, int publishedLength, int versionAt, int versionLength) {
+        this.source = source;
+        this.publishedAt = publishedAt;
+        this.publishedLength = publishedLength;
+        this.versionAt = versionAt;
+        this.versionLength = versionLength;
+        release();
+    }
+
+    private synchronized void decodePublished() {
+        if (publishedLength == 0) return;
+        String text = new String(source, publishedAt, publishedLength, StandardCharsets.UTF_8).trim();
+        try {
+            timePublished = LocalDateTime.parse(text.replaceAll("\\s+", " "), PUBLISHED);
+        } catch (DateTimeParseException e) {
+            timePublished = null;
+        }
+        publishedLength = 0;
+        release();
+    }
+
+    private synchronized void decodeVersion() {
+        if (versionLength == 0) return;
+        version = new String(source, versionAt, versionLength, StandardCharsets.UTF_8).trim();
+        versionLength = 0;
+        release();
+    }
+
+    private void release() {
+        if (publishedLength == 0 && versionLength == 0) source = null;
+    }
 }
@@ -0,0 +1,50 @@
+package pt.unl.fct.pds.reload;
+
+import pt.unl.fct.pds.model.Node;
+import pt.unl.fct.pds.utils.CircuitSelector;
+import pt.unl.fct.pds.utils.RelayIndex;
+
+import java.time.LocalDateTime;
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * One fully built consensus: its relays, their {@link RelayIndex} and one selector per
+ * registered name. Snapshots are immutable once published by {@link ReloadManager}, so a
+ * selection that started on one keeps a consistent view even if a newer one replaces it.
+ */
+public class NetworkSnapshot {
+    private final long version;
+    private final Node[] nodes;
+    private final RelayIndex relays;
+    private final LocalDateTime validAfter;
+    private final boolean asnAvailable;
+    private final Map<String, CircuitSelector> selectors;
+    private final long loadedAtMillis;
+
+    NetworkSnapshot(long version, Node[] nodes, RelayIndex relays, LocalDateTime validAfter,
+                    boolean asnAvailable, Map<String, CircuitSelector> selectors) {
+        this.version = version;
+        this.nodes = nodes;
+        this.relays = relays;
+        this.validAfter = validAfter;
+        this.asnAvailable = asnAvailable;
+        this.selectors = Collections.unmodifiableMap(selectors);
+        this.loadedAtMillis = System.currentTimeMillis();
+    }
+
+    /** 1 for the first load, incremented on every published reload. */
+    public long getVersion() { return version; }
+    public Node[] getNodes() { return nodes; }
+    public RelayIndex getRelays() { return relays; }
+    public LocalDateTime getValidAfter() { return validAfter; }
+    public boolean isAsnAvailable() { return asnAvailable; }
+    public long getLoadedAtMillis() { return loadedAtMillis; }
+    public Map<String, CircuitSelector> getSelectors() { return selectors; }
+
+    public CircuitSelector selector(String name) {
+        CircuitSelector s = selectors.get(name);
+        if (s == null) throw new IllegalArgumentException("Unknown selector: " + name);
+        return s;
+    }
+}
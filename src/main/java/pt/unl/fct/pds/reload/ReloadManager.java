@@ -0,0 +1,273 @@
+package pt.unl.fct.pds.reload;
+
+import pt.unl.fct.pds.model.Node;
+import pt.unl.fct.pds.utils.AsnFinder;
+import pt.unl.fct.pds.utils.CircuitSelector;
+import pt.unl.fct.pds.utils.ConsensusParser;
+import pt.unl.fct.pds.utils.CountryFinder;
+import pt.unl.fct.pds.utils.RelayIndex;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Keeps the consensus, the GeoIP databases and the selectors built on them up to date
+ * without restarting the process.
+ *
+ * The consensus and database files are watched with a {@link WatchService}. Once changes have
+ * been quiet for {@link #quietPeriod} the files are parsed, the {@link RelayIndex} and every
+ * registered selector (sharing that index) are built on a background thread, and the resulting {@link NetworkSnapshot}
+ * is published with a single volatile write. Selections never wait for a reload: they read
+ * whichever snapshot is current when they start and finish on it. A database is only reopened
+ * when its modification time changed; readers are only used by the reload itself, so the
+ * previous one is closed as soon as its replacement opened.
+ * A failed reload (unreadable file, no relays) keeps the current snapshot.
+ *
+ * Writers should replace the files atomically (write elsewhere, then rename) so the
+ * watcher never sees a half-written consensus.
+ */
+public class ReloadManager implements AutoCloseable {
+
+    /** Builds one selector over the index of a freshly parsed consensus. */
+    public interface SelectorFactory {
+        CircuitSelector build(RelayIndex relays, boolean asnAvailable);
+    }
+
+    private final Path consensus;
+    private final Path countryDb;
+    private final Path asnDb;
+    private final Map<String, SelectorFactory> factories = Collections.synchronizedMap(new LinkedHashMap<>());
+    private final List<Consumer<NetworkSnapshot>> listeners = new CopyOnWriteArrayList<>();
+    private final Object reloadLock = new Object();
+
+    private volatile NetworkSnapshot current;
+    private volatile long quietMillis = 500;
+    private volatile Exception lastError;
+    private volatile long failures;
+
+    // owned by whoever holds reloadLock
+    private CountryFinder countryFinder;
+    private long countryStamp = Long.MIN_VALUE;
+    private AsnFinder asnFinder;
+    private long asnStamp = Long.MIN_VALUE;
+
+    private ScheduledExecutorService reloader;
+    private ScheduledFuture<?> pending;
+    private WatchService watcher;
+    private Thread watchThread;
+
+    /** The databases may be null; countries are then "UNKNOWN" and ASNs 0. */
+    public ReloadManager(Path consensus, Path countryDb, Path asnDb) {
+        this.consensus = consensus;
+        this.countryDb = countryDb;
+        this.asnDb = asnDb;
+    }
+
+    /** Registers a selector rebuilt with every snapshot; call before {@link #start}. */
+    public ReloadManager selector(String name, SelectorFactory factory) {
+        factories.put(name, factory);
+        return this;
+    }
+
+    public ReloadManager quietPeriod(long millis) {
+        this.quietMillis = millis;
+        return this;
+    }
+
+    /** Called on the reload thread after each publish. */
+    public void addListener(Consumer<NetworkSnapshot> listener) {
+        listeners.add(listener);
+    }
+
+    /** The published snapshot, or null before the first load. */
+    public NetworkSnapshot current() { return current; }
+
+    public long getFailures() { return failures; }
+    public Exception getLastError() { return lastError; }
+
+    /**
+     * Selector that delegates every call to the named selector of the snapshot current at the
+     * time of the call.
+     */
+    public CircuitSelector selector(String name) {
+        return destPort -> {
+            NetworkSnapshot s = current;
+            if (s == null) throw new IllegalStateException("No consensus loaded yet");
+            return s.selector(name).selectPath(destPort);
+        };
+    }
+
+    /** Loads the first snapshot and starts watching the files. */
+    public synchronized void start() throws IOException {
+        if (watcher != null) throw new IllegalStateException("Already started");
+        reload();
+
+        reloader = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "consensus-reload");
+            t.setDaemon(true);
+            return t;
+        });
+        watcher = consensus.toAbsolutePath().getFileSystem().newWatchService();
+
+        Map<Path, Set<Path>> watched = new LinkedHashMap<>();
+        for (Path p : new Path[]{ consensus, countryDb, asnDb }) {
+            if (p == null) continue;
+            Path abs = p.toAbsolutePath();
+            watched.computeIfAbsent(abs.getParent(), d -> new HashSet<>()).add(abs.getFileName());
+        }
+        Map<WatchKey, Set<Path>> keys = new LinkedHashMap<>();
+        for (Map.Entry<Path, Set<Path>> e : watched.entrySet()) {
+            keys.put(e.getKey().register(watcher, StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_MODIFY), e.getValue());
+        }
+
+        WatchService ws = watcher;
+        watchThread = new Thread(() -> watch(ws, keys), "consensus-watch");
+        watchThread.setDaemon(true);
+        watchThread.start();
+    }
+
+    /**
+     * Parses and builds a new snapshot on the calling thread and publishes it.
+     * Reloads are serialized; selections keep running on the previous snapshot meanwhile.
+     *
+     * @throws IOException if the files could not be loaded; the current snapshot is kept
+     */
+    public NetworkSnapshot reload() throws IOException {
+        synchronized (reloadLock) {
+            try {
+                CountryFinder newCountry = openCountry();
+                AsnFinder newAsn = openAsn();
+
+                if (!Files.isReadable(consensus)) throw new IOException("Cannot read " + consensus);
+                ConsensusParser parser = new ConsensusParser(consensus.toString(), newCountry, newAsn);
+                parser.setLazy(true);
+                Node[] nodes = parser.parseConsensus();
+                if (nodes.length == 0) throw new IOException("No relays in " + consensus);
+
+                boolean asn = newAsn != null;
+                RelayIndex relays = new RelayIndex(nodes);
+                Map<String, CircuitSelector> selectors = new LinkedHashMap<>();
+                synchronized (factories) {
+                    for (Map.Entry<String, SelectorFactory> e : factories.entrySet()) {
+                        selectors.put(e.getKey(), e.getValue().build(relays, asn));
+                    }
+                }
+                NetworkSnapshot prev = current;
+                NetworkSnapshot next = new NetworkSnapshot(prev == null ? 1 : prev.getVersion() + 1,
+                        nodes, relays, parser.getValidAfter(), asn, selectors);
+                current = next;
+                for (Consumer<NetworkSnapshot> l : listeners) l.accept(next);
+                return next;
+            } catch (IOException | RuntimeException e) {
+                failures++;
+                lastError = e;
+                throw e;
+            }
+        }
+    }
+
+    private CountryFinder openCountry() throws IOException {
+        if (countryDb == null) return null;
+        long stamp = Files.getLastModifiedTime(countryDb).toMillis();
+        if (countryFinder != null && stamp == countryStamp) return countryFinder;
+        CountryFinder f = new CountryFinder(countryDb.toString());
+        closeQuietly(countryFinder);
+        countryFinder = f;
+        countryStamp = stamp;
+        return f;
+    }
+
+    private AsnFinder openAsn() throws IOException {
+        if (asnDb == null || !Files.exists(asnDb)) return null;
+        long stamp = Files.getLastModifiedTime(asnDb).toMillis();
+        if (asnFinder != null && stamp == asnStamp) return asnFinder;
+        AsnFinder f = new AsnFinder(asnDb.toString());
+        closeQuietly(asnFinder);
+        asnFinder = f;
+        asnStamp = stamp;
+        return f;
+    }
+
+    private void watch(WatchService ws, Map<WatchKey, Set<Path>> keys) {
+        try {
+            while (true) {
+                WatchKey key = ws.take();
+                Set<Path> names = keys.get(key);
+                boolean relevant = false;
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    Object name = event.context();
+                    if (event.kind() == StandardWatchEventKinds.OVERFLOW || (names != null && names.contains(name))) {
+                        relevant = true;
+                    }
+                }
+                key.reset();
+                if (relevant) schedule();
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // closed
+        }
+    }
+
+    // restarts the quiet period; the reload runs once the files stop changing
+    private synchronized void schedule() {
+        if (reloader == null || reloader.isShutdown()) return;
+        if (pending != null) pending.cancel(false);
+        pending = reloader.schedule(() -> {
+            try {
+                NetworkSnapshot s = reload();
+                System.err.println("Reloaded consensus " + consensus + " (version " + s.getVersion()
+                        + ", " + s.getNodes().length + " relays)");
+            } catch (Exception e) {
+                System.err.println("Consensus reload failed, keeping the current one: " + e.getMessage());
+            }
+        }, quietMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            if (watcher != null) watcher.close();
+            if (reloader != null) reloader.shutdownNow();
+        }
+        if (watchThread != null) {
+            try {
+                watchThread.join(1000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        synchronized (reloadLock) {
+            closeQuietly(countryFinder);
+            closeQuietly(asnFinder);
+            countryFinder = null;
+            asnFinder = null;
+        }
+    }
+
+    private static void closeQuietly(AutoCloseable c) {
+        if (c == null) return;
+        try {
+            c.close();
+        } catch (Exception ignored) {
+        }
+    }
+}
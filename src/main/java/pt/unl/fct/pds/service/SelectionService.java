@@ -0,0 +1,455 @@
+package pt.unl.fct.pds.service;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import pt.unl.fct.pds.model.Circuit;
+import pt.unl.fct.pds.model.Node;
+import pt.unl.fct.pds.reload.NetworkSnapshot;
+import pt.unl.fct.pds.reload.ReloadManager;
+import pt.unl.fct.pds.utils.CircuitSelector;
+import pt.unl.fct.pds.utils.GeoSelector;
+import pt.unl.fct.pds.utils.PackedSelector;
+import pt.unl.fct.pds.utils.PathSelector;
+import pt.unl.fct.pds.utils.RelayIndex;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Long-running path selection over loopback HTTP, so callers stop paying for a JVM start,
+ * a consensus parse and selector warm-up per circuit.
+ *
+ * Endpoints (JSON responses):
+ * <pre>
+ *   GET /select?selector=Geo&amp;port=443[&amp;count=N]   N circuits (default 1, at most {@link #MAX_COUNT})
+ *   GET /status                                        loaded consensus and request counters
+ * </pre>
+ * HTTP handler threads only parse the request and queue it. A dispatcher drains the queue,
+ * groups what arrived together by selector and port, and splits each group into at most one
+ * task per worker thread, balanced by circuit count. A task draws all of its circuits in one
+ * bulk {@link PackedSelector#selectPacked(int, long[], int, int)} call against a single snapshot
+ * of the {@link ReloadManager}; the worker writes the responses itself.
+ * Both pools grow with load up to their size and let idle threads go. The consensus stays
+ * parsed between requests and is hot-reloaded when its file changes.
+ *
+ * Usage: SelectionService [http port] [consensus] [country mmdb] [asn mmdb]
+ */
+public class SelectionService implements AutoCloseable {
+    public static final int MAX_COUNT = 1000;
+    public static final int DEFAULT_PORT = 8765;
+
+    private final ReloadManager network;
+    private final int threads;
+    private final int maxBatch;
+    private final HttpServer server;
+    private final ThreadPoolExecutor handlers;
+    private final ThreadPoolExecutor workers;
+    private final BlockingQueue<Request> queue = new LinkedBlockingQueue<>();
+    private final Thread dispatcher;
+
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong circuits = new AtomicLong();
+    private volatile boolean running = true;
+
+    /**
+     * Binds to 127.0.0.1; httpPort 0 picks a free port. The manager must already hold a
+     * snapshot (see {@link ReloadManager#start}) or requests get 503 until it does.
+     */
+    public SelectionService(ReloadManager network, int httpPort, int threads, int maxBatch) throws IOException {
+        if (threads < 1) throw new IllegalArgumentException("threads must be >= 1");
+        if (maxBatch < 1) throw new IllegalArgumentException("maxBatch must be >= 1");
+        this.network = network;
+        this.threads = threads;
+        this.maxBatch = maxBatch;
+        this.handlers = pool("selection-http", Math.max(2, threads / 2));
+        this.workers = pool("selection-worker", threads);
+
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), httpPort), 128);
+        server.setExecutor(handlers);
+        server.createContext("/select", this::select);
+        server.createContext("/status", this::status);
+
+        dispatcher = new Thread(this::dispatch, "selection-dispatch");
+        dispatcher.setDaemon(true);
+    }
+
+    public SelectionService start() {
+        startDispatcher();
+        server.start();
+        return this;
+    }
+
+    // tests start the two halves apart to let requests pile up in the queue
+    void startHttp() { server.start(); }
+    void startDispatcher() { dispatcher.start(); }
+    int queued() { return queue.size(); }
+
+    public int getPort() { return server.getAddress().getPort(); }
+    public long getRequests() { return requests.get(); }
+    public long getBatches() { return batches.get(); }
+    public long getCircuits() { return circuits.get(); }
+
+    // --- HTTP handlers ---
+
+    private void select(HttpExchange ex) throws IOException {
+        if (!"GET".equals(ex.getRequestMethod())) {
+            reply(ex, 405, error("Only GET is supported"));
+            return;
+        }
+        Map<String, String> q = query(ex.getRequestURI().getRawQuery());
+        String selector = q.get("selector");
+        int port, count;
+        try {
+            port = Integer.parseInt(q.getOrDefault("port", ""));
+            count = Integer.parseInt(q.getOrDefault("count", "1"));
+        } catch (NumberFormatException e) {
+            reply(ex, 400, error("port and count must be integers"));
+            return;
+        }
+        if (selector == null || port < 0 || port > 65535 || count < 1 || count > MAX_COUNT) {
+            reply(ex, 400, error("Expected selector, port in 0-65535 and count in 1-" + MAX_COUNT));
+            return;
+        }
+        requests.incrementAndGet();
+        if (!running || !queue.offer(new Request(ex, selector, port, count))) {
+            reply(ex, 503, error("Service is shutting down"));
+        }
+    }
+
+    private void status(HttpExchange ex) throws IOException {
+        NetworkSnapshot s = network.current();
+        StringBuilder sb = new StringBuilder("{");
+        if (s != null) {
+            sb.append("\"version\":").append(s.getVersion())
+              .append(",\"relays\":").append(s.getNodes().length)
+              .append(",\"validAfter\":").append(string(s.getValidAfter() == null ? null : s.getValidAfter().toString()))
+              .append(",\"selectors\":[");
+            int i = 0;
+            for (String name : s.getSelectors().keySet()) {
+                if (i++ > 0) sb.append(',');
+                sb.append(string(name));
+            }
+            sb.append("],");
+        }
+        sb.append("\"requests\":").append(requests.get())
+          .append(",\"batches\":").append(batches.get())
+          .append(",\"circuits\":").append(circuits.get())
+          .append(",\"queued\":").append(queue.size())
+          .append('}');
+        reply(ex, s == null ? 503 : 200, sb.toString());
+    }
+
+    // --- batching ---
+
+    private void dispatch() {
+        List<Request> batch = new ArrayList<>(maxBatch);
+        try {
+            while (running) {
+                batch.add(queue.take());
+                queue.drainTo(batch, maxBatch - 1);
+
+                Map<String, List<Request>> groups = new LinkedHashMap<>();
+                for (Request r : batch) {
+                    groups.computeIfAbsent(r.selector + ':' + r.port, k -> new ArrayList<>()).add(r);
+                }
+                for (List<Request> group : groups.values()) {
+                    for (List<Request> chunk : chunks(group, threads)) {
+                        batches.incrementAndGet();
+                        workers.execute(() -> run(chunk));
+                    }
+                }
+                batch.clear();
+            }
+        } catch (InterruptedException e) {
+            // shutting down
+        }
+    }
+
+    /**
+     * Splits a group into at most parts runs of consecutive requests with about the same
+     * number of circuits each, so a single busy selector and port still uses every worker.
+     */
+    static List<List<Request>> chunks(List<Request> group, int parts) {
+        long total = 0;
+        for (Request r : group) total += r.count;
+        long target = (total + parts - 1) / parts;
+
+        List<List<Request>> chunks = new ArrayList<>();
+        List<Request> chunk = new ArrayList<>();
+        long size = 0;
+        for (Request r : group) {
+            chunk.add(r);
+            size += r.count;
+            // every closed chunk holds at least target circuits, so there are at most parts
+            if (size >= target) {
+                chunks.add(chunk);
+                chunk = new ArrayList<>();
+                size = 0;
+            }
+        }
+        if (!chunk.isEmpty()) chunks.add(chunk);
+        return chunks;
+    }
+
+    // one selector and port, one snapshot for the whole group
+    private void run(List<Request> group) {
+        NetworkSnapshot s = network.current();
+        Request first = group.get(0);
+        if (s == null) {
+            for (Request r : group) reply(r.exchange, 503, error("No consensus loaded yet"));
+            return;
+        }
+        CircuitSelector selector = s.getSelectors().get(first.selector);
+        if (selector == null) {
+            for (Request r : group) reply(r.exchange, 404, error("Unknown selector: " + first.selector));
+            return;
+        }
+
+        if (selector instanceof PackedSelector && ((PackedSelector) selector).getRelays() == s.getRelays()) {
+            runPacked((PackedSelector) selector, s, group);
+            return;
+        }
+
+        StringBuilder sb = new StringBuilder(1024);
+        for (Request r : group) {
+            sb.setLength(0);
+            sb.append("{\"version\":").append(s.getVersion())
+              .append(",\"selector\":").append(string(r.selector))
+              .append(",\"port\":").append(r.port)
+              .append(",\"circuits\":[");
+            try {
+                for (int i = 0; i < r.count; i++) {
+                    if (i > 0) sb.append(',');
+                    circuit(sb, selector.selectPath(r.port));
+                }
+            } catch (IllegalStateException e) {
+                reply(r.exchange, 422, error(e.getMessage()));
+                continue;
+            } catch (RuntimeException e) {
+                reply(r.exchange, 500, error(String.valueOf(e)));
+                continue;
+            }
+            sb.append("]}");
+            circuits.addAndGet(r.count);
+            reply(r.exchange, 200, sb.toString());
+        }
+    }
+
+    // every circuit of the group in one bulk draw; the selector fails for a port, not a request
+    private void runPacked(PackedSelector selector, NetworkSnapshot s, List<Request> group) {
+        Request first = group.get(0);
+        int total = 0;
+        for (Request r : group) total += r.count;
+
+        long[] paths = new long[total];
+        try {
+            selector.selectPacked(first.port, paths, 0, total);
+        } catch (IllegalStateException e) {
+            for (Request r : group) reply(r.exchange, 422, error(e.getMessage()));
+            return;
+        } catch (RuntimeException e) {
+            for (Request r : group) reply(r.exchange, 500, error(String.valueOf(e)));
+            return;
+        }
+
+        // ids are unique for the service's lifetime
+        long id = circuits.getAndAdd(total);
+        RelayIndex relays = s.getRelays();
+        StringBuilder sb = new StringBuilder(1024);
+        int k = 0;
+        for (Request r : group) {
+            sb.setLength(0);
+            sb.append("{\"version\":").append(s.getVersion())
+              .append(",\"selector\":").append(string(r.selector))
+              .append(",\"port\":").append(r.port)
+              .append(",\"circuits\":[");
+            for (int i = 0; i < r.count; i++, k++) {
+                if (i > 0) sb.append(',');
+                long path = paths[k];
+                circuit(sb, id + k, relays.node(RelayIndex.guardOf(path)),
+                        relays.node(RelayIndex.middleOf(path)), relays.node(RelayIndex.exitOf(path)));
+            }
+            sb.append("]}");
+            reply(r.exchange, 200, sb.toString());
+        }
+    }
+
+    // --- JSON ---
+
+    private static void circuit(StringBuilder sb, Circuit c) {
+        Node[] path = c.getNodes();
+        circuit(sb, c.getId(), path[0], path[1], path[2]);
+    }
+
+    private static void circuit(StringBuilder sb, long id, Node guard, Node middle, Node exit) {
+        sb.append("{\"id\":").append(id)
+          .append(",\"bandwidth\":")
+          .append(Math.min(guard.getBandwidth(), Math.min(middle.getBandwidth(), exit.getBandwidth())))
+          .append(",\"guard\":");
+        relay(sb, guard);
+        sb.append(",\"middle\":");
+        relay(sb, middle);
+        sb.append(",\"exit\":");
+        relay(sb, exit);
+        sb.append('}');
+    }
+
+    private static void relay(StringBuilder sb, Node n) {
+        sb.append("{\"nickname\":").append(string(n.getNickname()))
+          .append(",\"fingerprint\":").append(string(n.getFingerprint()))
+          .append(",\"ip\":").append(string(n.getIpAddress()))
+          .append(",\"orPort\":").append(n.getOrPort())
+          .append(",\"country\":").append(string(n.getCountry()))
+          .append(",\"bandwidth\":").append(n.getBandwidth())
+          .append('}');
+    }
+
+    static String string(String s) {
+        if (s == null) return "null";
+        StringBuilder sb = new StringBuilder(s.length() + 2).append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char ch = s.charAt(i);
+            switch (ch) {
+                case '"':  sb.append("\\\""); break;
+                case '\\': sb.append("\\\\"); break;
+                case '\n': sb.append("\\n"); break;
+                case '\r': sb.append("\\r"); break;
+                case '\t': sb.append("\\t"); break;
+                default:
+                    if (ch < 0x20) sb.append(String.format("\\u%04x", (int) ch));
+                    else sb.append(ch);
+            }
+        }
+        return sb.append('"').toString();
+    }
+
+    private static String error(String message) {
+        return "{\"error\":" + string(message) + "}";
+    }
+
+    // --- plumbing ---
+
+    private static void reply(HttpExchange ex, int status, String body) {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        try {
+            ex.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+            ex.sendResponseHeaders(status, bytes.length);
+            try (OutputStream out = ex.getResponseBody()) {
+                out.write(bytes);
+            }
+        } catch (IOException e) {
+            // client went away
+        } finally {
+            ex.close();
+        }
+    }
+
+    static Map<String, String> query(String raw) {
+        Map<String, String> params = new HashMap<>();
+        if (raw == null || raw.isEmpty()) return params;
+        for (String pair : raw.split("&")) {
+            int eq = pair.indexOf('=');
+            String k = eq < 0 ? pair : pair.substring(0, eq);
+            String v = eq < 0 ? "" : pair.substring(eq + 1);
+            try {
+                params.put(URLDecoder.decode(k, "UTF-8"), URLDecoder.decode(v, "UTF-8"));
+            } catch (IllegalArgumentException | UnsupportedEncodingException ignored) {
+            }
+        }
+        return params;
+    }
+
+    // fixed upper bound, threads created on demand and retired when idle
+    private static ThreadPoolExecutor pool(String name, int threads) {
+        AtomicInteger n = new AtomicInteger();
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), r -> {
+                    Thread t = new Thread(r, name + "-" + n.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                });
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        server.stop(0);
+        dispatcher.interrupt();
+        for (Request r; (r = queue.poll()) != null; ) reply(r.exchange, 503, error("Service is shutting down"));
+        workers.shutdown();
+        handlers.shutdown();
+        try {
+            workers.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    static final class Request {
+        final HttpExchange exchange;
+        final String selector;
+        final int port;
+        final int count;
+
+        Request(HttpExchange exchange, String selector, int port, int count) {
+            this.exchange = exchange;
+            this.selector = selector;
+            this.port = port;
+            this.count = count;
+        }
+    }
+
+    /** Builds the Tor and Geo selectors the service exposes by default. */
+    public static ReloadManager defaultNetwork(Path consensus, Path countryDb, Path asnDb) {
+        return new ReloadManager(consensus, countryDb, asnDb)
+                .selector("Tor", (relays, asn) -> new PathSelector(relays, new Random()))
+                .selector("Geo", (relays, asn) -> new GeoSelector(relays, new Random(), asn));
+    }
+
+    public static void main(String[] args) throws Exception {
+        int httpPort = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+        Path consensus = Paths.get(args.length > 1 ? args[1] : "src/main/java/pt/unl/fct/pds/data/consensus.txt");
+        String countryDb = args.length > 2 ? args[2] : "src/main/java/pt/unl/fct/pds/data/GeoLite2-Country.mmdb";
+        String asnDb = args.length > 3 ? args[3] : "src/main/java/pt/unl/fct/pds/data/GeoLite2-ASN.mmdb";
+
+        ReloadManager network = defaultNetwork(consensus,
+                new File(countryDb).exists() ? Paths.get(countryDb) : null,
+                new File(asnDb).exists() ? Paths.get(asnDb) : null);
+        network.start();
+
+        int threads = Runtime.getRuntime().availableProcessors();
+        SelectionService service = new SelectionService(network, httpPort, threads, 256).start();
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            service.close();
+            try {
+                network.close();
+            } catch (IOException ignored) {
+            }
+        }));
+        System.out.println("Serving " + network.current().getNodes().length + " relays on http://127.0.0.1:"
+                + service.getPort() + "/select?selector=Geo&port=443");
+    }
+}
@@ -0,0 +1,196 @@
+package pt.unl.fct.pds.utils;
+
+import com.maxmind.geoip2.DatabaseReader;
+import com.maxmind.geoip2.exception.AddressNotFoundException;
+import com.maxmind.geoip2.model.AsnResponse;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Resolves relay IPs to autonomous system numbers.
+ *
+ * Accepts either a GeoLite2-ASN .mmdb file or the GeoLite2-ASN-Blocks-IPv4 CSV
+ * ("network,autonomous_system_number,autonomous_system_organization"). The CSV is
+ * loaded into sorted, non-overlapping IPv4 ranges and looked up with a binary search,
+ * so it works fully offline. Unknown addresses resolve to 0.
+ */
+public class AsnFinder implements AutoCloseable {
+    public static final int UNKNOWN_ASN = 0;
+
+    private final DatabaseReader reader;
+    private final ConcurrentMap<String, Integer> cache = new ConcurrentHashMap<>();
+
+    // CSV prefix index, sorted by range start (unsigned IPv4 as long)
+    private long[] starts = new long[0];
+    private long[] ends = new long[0];
+    private int[] asns = new int[0];
+    private String[] orgs = new String[0];
+
+    public AsnFinder(String dbFilePath) throws IOException {
+        File database = new File(dbFilePath);
+        if (!database.exists()) {
+            throw new IOException("ASN DB not found at: " + dbFilePath);
+        }
+        if (dbFilePath.endsWith(".mmdb")) {
+            this.reader = new DatabaseReader.Builder(database).build();
+        } else {
+            this.reader = null;
+            loadCsv(database);
+        }
+    }
+
+    public int lookupAsnForIp(String ip) {
+        if (ip == null || ip.trim().isEmpty()) return UNKNOWN_ASN;
+
+        Integer cached = cache.get(ip);
+        if (cached != null) return cached;
+
+        int asn = reader != null ? lookupMmdb(ip.trim()) : lookupIndex(parseIpv4(ip.trim()));
+        cache.put(ip, asn);
+        return asn;
+    }
+
+    /** Organization name for an ASN seen in the CSV, or null. */
+    public String getOrganization(int asn) {
+        for (int i = 0; i < asns.length; i++) {
+            if (asns[i] == asn) return orgs[i];
+        }
+        return null;
+    }
+
+    public int size() { return starts.length; }
+
+    private int lookupMmdb(String ip) {
+        try {
+            AsnResponse response = reader.asn(InetAddress.getByName(stripPort(ip)));
+            if (response != null && response.getAutonomousSystemNumber() != null) {
+                return response.getAutonomousSystemNumber().intValue();
+            }
+        } catch (AddressNotFoundException e) {
+            // not in db
+        } catch (Exception e) {
+            // other probs
+        }
+        return UNKNOWN_ASN;
+    }
+
+    private int lookupIndex(long addr) {
+        if (addr < 0) return UNKNOWN_ASN;
+
+        int lo = 0, hi = starts.length - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            if (starts[mid] <= addr) lo = mid + 1;
+            else hi = mid - 1;
+        }
+        // hi is the last range starting at or before addr
+        if (hi >= 0 && addr <= ends[hi]) return asns[hi];
+        return UNKNOWN_ASN;
+    }
+
+    private void loadCsv(File file) throws IOException {
+        List<long[]> ranges = new ArrayList<>();
+        List<String> names = new ArrayList<>();
+
+        try (BufferedReader br = new BufferedReader(new FileReader(file))) {
+            String line;
+            while ((line = br.readLine()) != null) {
+                int c1 = line.indexOf(',');
+                if (c1 <= 0) continue;
+                int c2 = line.indexOf(',', c1 + 1);
+                if (c2 < 0) c2 = line.length();
+
+                String network = line.substring(0, c1).trim();
+                int slash = network.indexOf('/');
+                if (slash < 0) continue;          // header or IPv6 / garbage
+                long base = parseIpv4(network.substring(0, slash));
+                if (base < 0) continue;
+
+                int bits;
+                long asn;
+                try {
+                    bits = Integer.parseInt(network.substring(slash + 1));
+                    asn = Long.parseLong(line.substring(c1 + 1, c2).trim());
+                } catch (NumberFormatException e) {
+                    continue;
+                }
+                if (bits < 0 || bits > 32) continue;
+
+                long size = 1L << (32 - bits);
+                long start = base & ~(size - 1);
+                ranges.add(new long[]{ start, start + size - 1, asn, names.size() });
+
+                String org = c2 < line.length() ? line.substring(c2 + 1).trim() : "";
+                if (org.length() >= 2 && org.startsWith("\"") && org.endsWith("\"")) {
+                    org = org.substring(1, org.length() - 1);
+                }
+                names.add(org);
+            }
+        }
+
+        ranges.sort((a, b) -> Long.compare(a[0], b[0]));
+
+        int n = ranges.size();
+        starts = new long[n];
+        ends = new long[n];
+        asns = new int[n];
+        orgs = new String[n];
+        for (int i = 0; i < n; i++) {
+            long[] r = ranges.get(i);
+            starts[i] = r[0];
+            ends[i] = r[1];
+            asns[i] = (int) r[2];
+            orgs[i] = names.get((int) r[3]);
+        }
+    }
+
+    /** Dotted IPv4 (optionally with :port) to an unsigned value, or -1 if not IPv4. */
+    static long parseIpv4(String ip) {
+        if (ip == null) return -1;
+        long value = 0;
+        int octet = 0, digits = 0, dots = 0;
+        for (int i = 0; i < ip.length(); i++) {
+            char ch = ip.charAt(i);
+            if (ch >= '0' && ch <= '9') {
+                octet = octet * 10 + (ch - '0');
+                if (++digits > 3 || octet > 255) return -1;
+            } else if (ch == '.') {
+                if (digits == 0 || ++dots > 3) return -1;
+                value = (value << 8) | octet;
+                octet = digits = 0;
+            } else if (ch == ':' && dots == 3) {
+                break;
+            } else {
+                return -1;
+            }
+        }
+        if (dots != 3 || digits == 0) return -1;
+        return (value << 8) | octet;
+    }
+
+    private static String stripPort(String ip) {
+        if (ip.startsWith("[") && ip.contains("]")) {
+            return ip.substring(1, ip.indexOf(']'));
+        }
+        int colonPos = ip.lastIndexOf(':');
+        if (colonPos > 0 && ip.indexOf('.') >= 0) {
+            return ip.substring(0, colonPos);
+        }
+        return ip;
+    }
+
+    @Override
+    public void close() throws Exception {
+        if (reader != null) {
+            reader.close();
+        }
+    }
+}
@@ -0,0 +1,15 @@
+package pt.unl.fct.pds.utils;
+
+import pt.unl.fct.pds.model.Circuit;
+
+/**
+ * Common contract of the path selection algorithms (Tor's default and the geo-aware one).
+ */
+public interface CircuitSelector {
+    /**
+     * Builds a guard / middle / exit circuit able to reach the given destination port.
+     *
+     * @throws IllegalStateException if no valid relay exists for one of the positions
+     */
+    Circuit selectPath(int destPort);
+}
@@ -0,0 +1,122 @@
+package pt.unl.fct.pds.utils;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Opens consensus and microdescriptor files that may be stored compressed, recognised by their
+ * first bytes rather than their name. gzip (including concatenated members) and zlib are decoded
+ * as a stream with the JDK, so archives are read without an intermediate file. xz, zstd and
+ * bzip2 are recognised but need libraries this project does not ship; they fail with an
+ * IOException naming the format.
+ */
+public final class ConsensusInput {
+    public static final int PLAIN = 0;
+    public static final int GZIP = 1;
+    public static final int ZLIB = 2;
+    public static final int XZ = 3;
+    public static final int ZSTD = 4;
+    public static final int BZIP2 = 5;
+
+    /** Read and inflate buffer size. */
+    public static final int BUFFER = 1 << 16;
+
+    private static final String[] NAMES = { "plain", "gzip", "zlib", "xz", "zstd", "bzip2" };
+
+    private ConsensusInput() {}
+
+    public static String name(int compression) { return NAMES[compression]; }
+
+    /** Compression of a file given its first bytes (up to 6). */
+    public static int detect(byte[] head, int n) {
+        if (n >= 2 && (head[0] & 0xff) == 0x1f && (head[1] & 0xff) == 0x8b) return GZIP;
+        if (n >= 2 && (head[0] & 0xff) == 0x78 && ((head[0] & 0xff) << 8 | (head[1] & 0xff)) % 31 == 0) return ZLIB;
+        if (n >= 6 && (head[0] & 0xff) == 0xfd && head[1] == '7' && head[2] == 'z' && head[3] == 'X'
+                && head[4] == 'Z' && head[5] == 0) return XZ;
+        if (n >= 4 && (head[0] & 0xff) == 0x28 && (head[1] & 0xff) == 0xb5 && (head[2] & 0xff) == 0x2f
+                && (head[3] & 0xff) == 0xfd) return ZSTD;
+        if (n >= 3 && head[0] == 'B' && head[1] == 'Z' && head[2] == 'h') return BZIP2;
+        return PLAIN;
+    }
+
+    public static int detect(Path file) throws IOException {
+        try (InputStream in = Files.newInputStream(file)) {
+            byte[] head = new byte[6];
+            return detect(head, readFully(in, head, 0, head.length));
+        }
+    }
+
+    /** The decoded content of file as a stream. */
+    public static InputStream open(Path file) throws IOException {
+        BufferedInputStream in = new BufferedInputStream(Files.newInputStream(file), BUFFER);
+        try {
+            in.mark(6);
+            byte[] head = new byte[6];
+            int compression = detect(head, readFully(in, head, 0, head.length));
+            in.reset();
+            switch (compression) {
+                case PLAIN: return in;
+                case GZIP: return new GZIPInputStream(in, BUFFER);
+                case ZLIB: return zlib(in);
+                default:
+                    throw new IOException(file + " is " + name(compression)
+                            + "-compressed; only plain, gzip and zlib consensuses can be read");
+            }
+        } catch (IOException e) {
+            in.close();
+            throw e;
+        }
+    }
+
+    // InflaterInputStream only ends the Inflater it created itself; this one is ended on close
+    private static InputStream zlib(InputStream in) {
+        Inflater inflater = new Inflater();
+        return new InflaterInputStream(in, inflater, BUFFER) {
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    inflater.end();
+                }
+            }
+        };
+    }
+
+    /** The decoded content of file; plain files are read in one go. */
+    public static byte[] readAll(Path file) throws IOException {
+        if (detect(file) == PLAIN) return Files.readAllBytes(file);
+        // consensuses compress about 4-5x; start near the decoded size to avoid most regrowth
+        long guess = Math.min(Files.size(file) * 5, Integer.MAX_VALUE - 8);
+        byte[] out = new byte[(int) Math.max(guess, BUFFER)];
+        int n = 0;
+        try (InputStream in = open(file)) {
+            int r;
+            while ((r = in.read(out, n, Math.min(out.length - n, BUFFER))) > 0) {
+                n += r;
+                if (n == out.length) {
+                    if (out.length == Integer.MAX_VALUE - 8) throw new IOException(file + " is too large");
+                    out = Arrays.copyOf(out, (int) Math.min(2L * out.length, Integer.MAX_VALUE - 8));
+                }
+            }
+        }
+        return n == out.length ? out : Arrays.copyOf(out, n);
+    }
+
+    private static int readFully(InputStream in, byte[] b, int off, int len) throws IOException {
+        int n = 0;
+        while (n < len) {
+            int r = in.read(b, off + n, len - n);
+            if (r < 0) break;
+            n += r;
+        }
+        return n;
+    }
+}
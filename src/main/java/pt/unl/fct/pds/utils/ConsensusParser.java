@@ -1,35 +1,114 @@
 package pt.unl.fct.pds.utils;
 
+import jdk.jfr.Event;
+import pt.unl.fct.pds.metrics.Metrics;
 import pt.unl.fct.pds.model.Node;
 
 import java.io.BufferedReader;
-import java.io.FileReader;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.time.format.DateTimeParseException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
+/**
+ * Reads a full or microdesc consensus into Nodes. The file may be gzip or zlib-compressed; it
+ * is decoded as it is read (see {@link ConsensusInput}).
+ */
 public class ConsensusParser {
+    /** Flavors, as named in the "network-status-version 3 [flavor]" header. */
+    public static final String FLAVOR_NS = "ns";
+    public static final String FLAVOR_MICRODESC = "microdesc";
+
+    private static final String[] NO_FLAGS = new String[0];
+
     String filename;
     private final CountryFinder geoIpResolver;
+    private final AsnFinder asnResolver;
+    private LocalDateTime validAfter;
+    private boolean lazy;
+    private String flavor;
+    private String microdescriptors;
 
     public ConsensusParser(String filename, CountryFinder resolver) {
+        this(filename, resolver, null);
+    }
+
+    public ConsensusParser(String filename, CountryFinder resolver, AsnFinder asnResolver) {
         this.filename = filename;
         this.geoIpResolver = resolver;
+        this.asnResolver = asnResolver;
     }
 
     public String getFilename() { return filename; }
     public void setFilename(String filename) { this.filename = filename; }
 
+    /** The consensus "valid-after" time of the last parse, or null if it had none. */
+    public LocalDateTime getValidAfter() { return validAfter; }
+
+    /**
+     * Flavor of the last parse: from the header, or, without one, from the first r line
+     * (microdesc r lines have no descriptor digest). Null before any parse.
+     */
+    public String getFlavor() { return flavor; }
+
+    public String getMicrodescriptors() { return microdescriptors; }
+
+    /**
+     * A microdesc consensus has no p lines: exit policies live in the microdescriptors. When set,
+     * relays of a microdesc consensus without a policy take the one of the microdescriptor their
+     * m line names in this file (Tor's cached-microdescs format). Without it they have none and
+     * are never picked as exits.
+     */
+    public void setMicrodescriptors(String filename) { this.microdescriptors = filename; }
+
+    public boolean isLazy() { return lazy; }
+
+    /**
+     * Lazy mode parses the raw bytes of the consensus in one pass and keeps them: each Node holds
+     * offsets into them for timePublished and version, decoded by the getters on first read.
+     * Identical flag sets and exit policies share one instance (see {@link Node#shareFlags}).
+     * The nodes are the same as in the default mode; parsing is faster and the nodes smaller
+     * when those fields go unread.
+     */
+    public void setLazy(boolean lazy) { this.lazy = lazy; }
+
     public Node[] parseConsensus() {
         if (filename == null) return new Node[0];
 
         List<Node> nodes = new ArrayList<>();
+        long start = Metrics.start();
+        Event event = Metrics.PARSE.begin();
+        boolean failed = false;
+        validAfter = null;
+        flavor = null;
+
+        try {
+            if (lazy) parseRetained(ConsensusInput.readAll(Paths.get(filename)), nodes);
+            else parseLines(nodes);
+            if (FLAVOR_MICRODESC.equals(flavor) && microdescriptors != null) {
+                MicrodescriptorPolicies.apply(microdescriptors, nodes);
+            }
+        } catch (IOException e) {
+            failed = true;
+            System.err.println("Error reading consensus: " + e.getMessage());
+        }
+
+        Metrics.parsed(start, event, filename, nodes.size(), failed);
+        return nodes.toArray(new Node[0]);
+    }
 
-        try (BufferedReader br = new BufferedReader(new FileReader(filename))) {
+    private void parseLines(List<Node> nodes) throws IOException {
+        try (BufferedReader br = new BufferedReader(
+                new InputStreamReader(ConsensusInput.open(Paths.get(filename)), StandardCharsets.UTF_8),
+                ConsensusInput.BUFFER)) {
             String line;
             boolean inRelay = false;
 
@@ -44,18 +123,34 @@ public class ConsensusParser {
             String version = null;
             int bandwidth = 0;
             String exitPolicy = null;
+            String microdesc = null;
 
 
             DateTimeFormatter dtf = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
 
             while ((line = br.readLine()) != null) {
 
+                // --- header flavor ---
+                if (!inRelay && line.startsWith("network-status-version ")) {
+                    String[] toks = line.trim().split("\\s+");
+                    flavor = toks.length > 2 ? toks[2] : FLAVOR_NS;
+                }
+
+                // --- header valid-after ---
+                else if (!inRelay && line.startsWith("valid-after ")) {
+                    try {
+                        validAfter = LocalDateTime.parse(line.substring("valid-after ".length()).trim(), dtf);
+                    } catch (DateTimeParseException e) {
+                        validAfter = null;
+                    }
+                }
+
                 // --- r LINE ---
-                if (line.startsWith("r ")) {
+                else if (line.startsWith("r ")) {
 
                     // finalize previous node
                     if (inRelay) {
-                        nodes.add(new Node(
+                        nodes.add(withAsn(new Node(
                                 nickname,
                                 fingerprint,
                                 published,
@@ -67,29 +162,33 @@ public class ConsensusParser {
                                 bandwidth,
                                 lookupCountryForIp(ipAddress),
                                 exitPolicy
-                        ));
+                        ), microdesc));
                     }
                     inRelay = true;
+                    microdesc = null;
                     String[] toks = line.split("\\s+");
-                    
-                    if (toks.length >= 9) {
+                    if (flavor == null) flavor = toks.length == 8 ? FLAVOR_MICRODESC : FLAVOR_NS;
+                    // microdesc r lines lack the descriptor digest after the identity
+                    int d = FLAVOR_MICRODESC.equals(flavor) ? 1 : 0;
+
+                    if (toks.length >= 9 - d) {
                         nickname = toks[1];
                         fingerprint = toks[2];
 
-                        String date = toks[4];
-                        String time = toks[5];
+                        String date = toks[4 - d];
+                        String time = toks[5 - d];
                         try {
                             published = LocalDateTime.parse(date + " " + time, dtf);
                         } catch (DateTimeParseException e) {
                             published = null;
                         }
 
-                        ipAddress = toks[6];
+                        ipAddress = toks[6 - d];
 
-                        try { orPort = Integer.parseInt(toks[7]); }
+                        try { orPort = Integer.parseInt(toks[7 - d]); }
                         catch (NumberFormatException e) { orPort = 0; }
 
-                        try { dirPort = Integer.parseInt(toks[8]); }
+                        try { dirPort = Integer.parseInt(toks[8 - d]); }
                         catch (NumberFormatException e) { dirPort = 0; }
 
                     } else {
@@ -125,11 +224,16 @@ public class ConsensusParser {
                 else if (line.startsWith("p ") && inRelay) {
                     exitPolicy = line.substring(2).trim();
                 }
+
+                // --- m LINE (microdesc flavor) ---
+                else if (line.startsWith("m ") && inRelay && FLAVOR_MICRODESC.equals(flavor)) {
+                    microdesc = line.substring(2).trim();
+                }
             }
 
             // finalize last relay
             if (inRelay) {
-                nodes.add(new Node(
+                nodes.add(withAsn(new Node(
                         nickname,
                         fingerprint,
                         published,
@@ -141,14 +245,180 @@ public class ConsensusParser {
                         bandwidth,
                         lookupCountryForIp(ipAddress),
                         exitPolicy
-                ));
+                ), microdesc));
+            }
+        }
+    }
+
+    // lazy mode: the same line rules as parseLines, over byte ranges of the retained file
+    private void parseRetained(byte[] b, List<Node> nodes) {
+        Map<String, String[]> flagSets = new HashMap<>();
+        Map<String, String> policies = new HashMap<>();
+        int[] toks = new int[2 * 9];
+        boolean inRelay = false;
+
+        String nickname = null;
+        String fingerprint = null;
+        int publishedAt = 0, publishedLength = 0;
+        String ipAddress = null;
+        int orPort = 0;
+        int dirPort = 0;
+        String[] flags = NO_FLAGS;
+        String version = null;
+        int versionAt = 0, versionLength = 0;
+        int bandwidth = 0;
+        String exitPolicy = null;
+        String microdesc = null;
+
+        int pos = 0;
+        while (pos < b.length) {
+            int from = pos, to = pos;
+            while (to < b.length && b[to] != '\n') to++;
+            pos = to + 1;
+            if (to > from && b[to - 1] == '\r') to--;
+
+            if (!inRelay && startsWith(b, from, to, "network-status-version ")) {
+                String[] header = text(b, from, to).trim().split("\\s+");
+                flavor = header.length > 2 ? header[2] : FLAVOR_NS;
             }
 
-        } catch (IOException e) {
-            System.err.println("Error reading consensus: " + e.getMessage());
+            else if (!inRelay && startsWith(b, from, to, "valid-after ")) {
+                try {
+                    validAfter = LocalDateTime.parse(text(b, from + 12, to).trim(),
+                            DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss"));
+                } catch (DateTimeParseException e) {
+                    validAfter = null;
+                }
+            }
+
+            else if (startsWith(b, from, to, "r ")) {
+                if (inRelay) {
+                    nodes.add(retained(b, nickname, fingerprint, publishedAt, publishedLength, ipAddress, orPort,
+                            dirPort, flags, version, versionAt, versionLength, bandwidth, exitPolicy, microdesc));
+                }
+                inRelay = true;
+                microdesc = null;
+                int count = tokens(b, from, to, toks);
+                if (flavor == null) flavor = count == 8 ? FLAVOR_MICRODESC : FLAVOR_NS;
+                // token k spans toks[2k] .. toks[2k + 1]; microdesc has no digest at k = 3
+                int d = FLAVOR_MICRODESC.equals(flavor) ? 1 : 0;
+                if (count >= 9 - d) {
+                    nickname = text(b, toks[2], toks[3]);
+                    fingerprint = text(b, toks[4], toks[5]);
+                    publishedAt = toks[2 * (4 - d)];
+                    publishedLength = toks[2 * (5 - d) + 1] - publishedAt;
+                    ipAddress = text(b, toks[2 * (6 - d)], toks[2 * (6 - d) + 1]);
+                    orPort = number(b, toks[2 * (7 - d)], toks[2 * (7 - d) + 1], 0);
+                    dirPort = number(b, toks[2 * (8 - d)], toks[2 * (8 - d) + 1], 0);
+                } else {
+                    nickname = fingerprint = ipAddress = exitPolicy = null;
+                    flags = NO_FLAGS;
+                    version = null;
+                    versionLength = 0;
+                    bandwidth = orPort = dirPort = 0;
+                }
+            }
+
+            else if (startsWith(b, from, to, "s ") && inRelay) {
+                flags = flagSets.computeIfAbsent(text(b, from + 2, to).trim(), f -> f.split("\\s+"));
+            }
+
+            else if (startsWith(b, from, to, "v ") && inRelay) {
+                int at = from + 2, end = to;
+                while (at < end && (b[at] & 0xff) <= ' ') at++;
+                while (end > at && (b[end - 1] & 0xff) <= ' ') end--;
+                versionAt = at;
+                versionLength = end - at;
+                version = versionLength == 0 ? "" : null;
+            }
+
+            else if (startsWith(b, from, to, "w ") && inRelay) {
+                int at = from + 2;
+                while (at < to) {
+                    while (at < to && isSpace(b[at])) at++;
+                    int end = at;
+                    while (end < to && !isSpace(b[end])) end++;
+                    if (startsWith(b, at, end, "Bandwidth=")) bandwidth = number(b, at + 10, end, bandwidth);
+                    at = end;
+                }
+            }
+
+            else if (startsWith(b, from, to, "p ") && inRelay) {
+                String policy = text(b, from + 2, to).trim();
+                String shared = policies.putIfAbsent(policy, policy);
+                exitPolicy = shared != null ? shared : policy;
+            }
+
+            else if (startsWith(b, from, to, "m ") && inRelay && FLAVOR_MICRODESC.equals(flavor)) {
+                microdesc = text(b, from + 2, to).trim();
+            }
         }
 
-        return nodes.toArray(new Node[0]);
+        if (inRelay) {
+            nodes.add(retained(b, nickname, fingerprint, publishedAt, publishedLength, ipAddress, orPort,
+                    dirPort, flags, version, versionAt, versionLength, bandwidth, exitPolicy, microdesc));
+        }
+    }
+
+    private Node retained(byte[] b, String nickname, String fingerprint, int publishedAt, int publishedLength,
+                          String ipAddress, int orPort, int dirPort, String[] flags, String version,
+                          int versionAt, int versionLength, int bandwidth, String exitPolicy,
+                          String microdesc) {
+        // the constructor copies flags; the interned array is stored as is
+        Node node = new Node(nickname, fingerprint, null, ipAddress, orPort, dirPort, NO_FLAGS, version,
+                bandwidth, lookupCountryForIp(ipAddress), exitPolicy);
+        node.shareFlags(flags);
+        node.defer(b, publishedAt, publishedLength, versionAt, versionLength);
+        return withAsn(node, microdesc);
+    }
+
+    // splits like String.split("\\s+") on a line without leading whitespace; stores the first
+    // out.length / 2 tokens as start, end pairs and returns the total count
+    private static int tokens(byte[] b, int from, int to, int[] out) {
+        int count = 0, at = from;
+        while (at < to) {
+            int end = at;
+            while (end < to && !isSpace(b[end])) end++;
+            if (2 * count < out.length) {
+                out[2 * count] = at;
+                out[2 * count + 1] = end;
+            }
+            count++;
+            at = end;
+            while (at < to && isSpace(b[at])) at++;
+        }
+        return count;
+    }
+
+    private static int number(byte[] b, int from, int to, int fallback) {
+        if (to > from && to - from <= 9) {
+            int v = 0;
+            int at = from;
+            while (at < to && b[at] >= '0' && b[at] <= '9') v = 10 * v + (b[at++] - '0');
+            if (at == to) return v;
+        }
+        try { return Integer.parseInt(text(b, from, to)); }
+        catch (NumberFormatException e) { return fallback; }
+    }
+
+    private static boolean startsWith(byte[] b, int from, int to, String prefix) {
+        if (to - from < prefix.length()) return false;
+        for (int i = 0; i < prefix.length(); i++) if (b[from + i] != prefix.charAt(i)) return false;
+        return true;
+    }
+
+    private static boolean isSpace(byte c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == 0x0B || c == '\f' || c == '\r';
+    }
+
+    private static String text(byte[] b, int from, int to) {
+        return new String(b, from, to - from, StandardCharsets.UTF_8);
+    }
+
+    private Node withAsn(Node node, String microdesc) {
+        node.setMicrodescriptor(microdesc);
+        if (asnResolver != null) node.setAsn(asnResolver.lookupAsnForIp(node.getIpAddress()));
+        return node;
     }
 
     // --- country finder ---
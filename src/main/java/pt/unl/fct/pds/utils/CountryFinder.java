@@ -3,6 +3,8 @@ package pt.unl.fct.pds.utils;
 import com.maxmind.geoip2.DatabaseReader;
 import com.maxmind.geoip2.exception.AddressNotFoundException;
 import com.maxmind.geoip2.model.CountryResponse;
+import jdk.jfr.Event;
+import pt.unl.fct.pds.metrics.Metrics;
 
 import java.io.File;
 import java.io.IOException;
@@ -15,6 +17,16 @@ public class CountryFinder implements AutoCloseable {
     private final ConcurrentMap<String, String> cache = new ConcurrentHashMap<>();
 
 
+    /**
+     * Opens the database when the file exists; otherwise warns that all countries will be
+     * UNKNOWN and returns null, which the parser and selectors accept as "no resolver".
+     */
+    public static CountryFinder openIfPresent(String dbFilePath) throws IOException {
+        if (new File(dbFilePath).exists()) return new CountryFinder(dbFilePath);
+        System.err.println("GeoIP DB not found at " + dbFilePath + ", all countries will be UNKNOWN");
+        return null;
+    }
+
     public CountryFinder(String dbFilePath) throws IOException {
         File database = new File(dbFilePath);
         if (!database.exists()) {
@@ -23,20 +35,30 @@ public class CountryFinder implements AutoCloseable {
         this.reader = new DatabaseReader.Builder(database).build();
     }
 
+    /** For subclasses that resolve countries without a GeoIP database (benchmarks, tests). */
+    protected CountryFinder() {
+        this.reader = null;
+    }
+
     public String lookupCountryForIp(String ip) {
         if (ip == null || ip.trim().isEmpty()) return "UNKNOWN";
 
         String cached = cache.get(ip);
-        if (cached != null) return cached;
+        if (cached != null) {
+            Metrics.resolveCacheHit();
+            return cached;
+        }
 
+        long start = Metrics.start();
+        Event event = Metrics.RESOLVE.begin();
         String strippedIp = stripPort(ip.trim());
 
         try {
             InetAddress addr = InetAddress.getByName(strippedIp);
-            CountryResponse response = reader.country(addr);
-            if (response != null && response.getCountry() != null && response.getCountry().getName() != null) {
-                String country = response.getCountry().getName();
+            String country = resolveCountry(addr);
+            if (country != null) {
                 cache.put(ip, country);
+                Metrics.resolved(start, event, ip, country);
                 return country;
             }
         } catch (AddressNotFoundException e) {
@@ -46,10 +68,19 @@ public class CountryFinder implements AutoCloseable {
         }
 
         cache.put(ip, "UNKNOWN");
+        Metrics.resolved(start, event, ip, "UNKNOWN");
         return "UNKNOWN";
     }
 
-    private static String stripPort(String ip) {
+    protected String resolveCountry(InetAddress addr) throws Exception {
+        CountryResponse response = reader.country(addr);
+        if (response != null && response.getCountry() != null) {
+            return response.getCountry().getName();
+        }
+        return null;
+    }
+
+    static String stripPort(String ip) {
         if (ip.startsWith("[") && ip.contains("]")) {
             int idx = ip.indexOf(']');
             return ip.substring(1, idx);
@@ -1,207 +1,186 @@
 package pt.unl.fct.pds.utils;
 
+import jdk.jfr.Event;
+import pt.unl.fct.pds.metrics.Metrics;
 import pt.unl.fct.pds.model.Circuit;
 import pt.unl.fct.pds.model.Node;
 
-import java.time.LocalDateTime;
-import java.util.*;
-import java.util.stream.Collectors;
+import java.util.Random;
 
+/**
+ * Geo-aware path selection. The exit is picked as Tor does; the guard and the middle prefer
+ * relays in other countries than the ones already chosen, falling back in tiers:
+ * 1. other /16, other AS (when asnDiverse), other fingerprint, other country;
+ * 2. the same without the country rule;
+ * 3. other fingerprint only.
+ * The tier used is recorded in {@link Metrics}.
+ *
+ * Candidates are index arrays built once (exits once per port, in the {@link RelayIndex}), and
+ * each tier is two passes over them, so {@link #selectPacked} allocates nothing.
+ */
+public class GeoSelector implements PackedSelector {
 
-public class GeoSelector {
+    private static final int RELAY = RelayIndex.FLAG_RUNNING | RelayIndex.FLAG_VALID;
 
-    private final Node[] allNodes;
+    private static final int PREFERRED = 1;
+    private static final int FALLBACK = 2;
+    private static final int LAST = 3;
+
+    private final RelayIndex relays;
     private final Random rng;
+    private final boolean asnDiverse;
+    private final int[] guards;
+    private final int[] middles;
 
     public GeoSelector(Node[] allNodes) {
         this(allNodes, new Random());
     }
 
     public GeoSelector(Node[] allNodes, Random rng) {
-        this.allNodes = allNodes;
+        this(allNodes, rng, false);
+    }
+
+    /**
+     * @param asnDiverse when true, guard, middle and exit must also come from different
+     *                   autonomous systems (needs nodes parsed with an {@link AsnFinder}).
+     *                   Like the /16 rule, it is only dropped in the last fallback tier.
+     */
+    public GeoSelector(Node[] allNodes, Random rng, boolean asnDiverse) {
+        this(new RelayIndex(allNodes), rng, asnDiverse);
+    }
+
+    public GeoSelector(RelayIndex relays, Random rng, boolean asnDiverse) {
+        if (relays.size() > RelayIndex.PACKED_LIMIT) throw new IllegalArgumentException("Too many relays");
+        this.relays = relays;
         this.rng = rng;
+        this.asnDiverse = asnDiverse;
+        this.guards = relays.withFlags(RelayIndex.FLAG_GUARD | RELAY);
+        this.middles = relays.withFlags(RelayIndex.FLAG_FAST | RELAY);
     }
 
-    public Circuit selectPath(int destPort) {
-        Node exit = selectExit(destPort);
-        if (exit == null) throw new IllegalStateException("No valid exit node found");
+    public boolean isAsnDiverse() { return asnDiverse; }
 
-        Node guard = selectGuardPreferDifferentCountry(exit);
-        if (guard == null) throw new IllegalStateException("No valid guard node found");
+    @Override
+    public RelayIndex getRelays() { return relays; }
 
-        Node middle = selectMiddlePreferDifferentCountries(guard, exit);
-        if (middle == null) throw new IllegalStateException("No valid middle node found");
+    @Override
+    public Circuit selectPath(int destPort) {
+        return relays.circuit(selectPacked(destPort), rng.nextInt(Integer.MAX_VALUE));
+    }
 
-        return new Circuit(
-                rng.nextInt(Integer.MAX_VALUE),
-                new Node[]{ guard, middle, exit },
-                Math.min(Math.min(guard.getBandwidth(), middle.getBandwidth()), exit.getBandwidth())
-        );
+    @Override
+    public long selectPacked(int destPort) {
+        long t = Metrics.start();
+        Event e = Metrics.GEO_EXIT.begin();
+        int exit = sample(relays.exits(destPort), 0, -1, -1);
+        Metrics.GEO_EXIT.selected(t, e, destPort, exit >= 0);
+        if (exit < 0) throw new IllegalStateException("No valid exit node found");
+
+        t = Metrics.start();
+        e = Metrics.GEO_GUARD.begin();
+        int guard = selectGuardPreferDifferentCountry(exit);
+        Metrics.GEO_GUARD.selected(t, e, destPort, guard >= 0);
+        if (guard < 0) throw new IllegalStateException("No valid guard node found");
+
+        t = Metrics.start();
+        e = Metrics.GEO_MIDDLE.begin();
+        int middle = selectMiddlePreferDifferentCountries(guard, exit);
+        Metrics.GEO_MIDDLE.selected(t, e, destPort, middle >= 0);
+        if (middle < 0) throw new IllegalStateException("No valid middle node found");
+
+        return RelayIndex.pack(guard, middle, exit);
     }
 
-    // --- exit NODE ---
-    private Node selectExit(int destPort) {
-        List<Node> exits = Arrays.stream(allNodes)
-                .filter(n -> hasFlag(n, "Exit"))
-                .filter(n -> hasFlag(n, "Fast"))
-                .filter(n -> hasFlag(n, "Running") && hasFlag(n, "Valid"))
-                .filter(n -> n.getBandwidth() > 0)
-                .filter(n -> exitPolicyAllows(n, destPort))
-                .collect(Collectors.toList());
-
-        return weightedSample(exits);
+    /** With a fixed guard, the exit goes through the guard's tiers relative to the guard. */
+    @Override
+    public long selectPacked(int destPort, int guard) {
+        long t = Metrics.start();
+        Event e = Metrics.GEO_EXIT.begin();
+        int exit = -1;
+        for (int tier = PREFERRED; tier <= LAST && exit < 0; tier++) {
+            exit = sample(relays.exits(destPort), tier, -1, guard);
+        }
+        Metrics.GEO_EXIT.selected(t, e, destPort, exit >= 0);
+        if (exit < 0) throw new IllegalStateException("No valid exit node found");
+
+        t = Metrics.start();
+        e = Metrics.GEO_MIDDLE.begin();
+        int middle = selectMiddlePreferDifferentCountries(guard, exit);
+        Metrics.GEO_MIDDLE.selected(t, e, destPort, middle >= 0);
+        if (middle < 0) throw new IllegalStateException("No valid middle node found");
+
+        return RelayIndex.pack(guard, middle, exit);
     }
 
     // --- guard NODE ---
-    private Node selectGuardPreferDifferentCountry(Node exit) {
-        String exitCountry = exit.getCountry();
-
-        List<Node> preferred = Arrays.stream(allNodes)
-                .filter(n -> hasFlag(n, "Guard"))
-                .filter(n -> hasFlag(n, "Running") && hasFlag(n, "Valid"))
-                .filter(n -> n.getBandwidth() > 0)
-                .filter(n -> !same16(n, exit))
-                .filter(n -> !sameFingerprint(n, exit))
-                .filter(n -> !Objects.equals(n.getCountry(), exitCountry))
-                .collect(Collectors.toList());
-
-        if (!preferred.isEmpty()) return weightedSample(preferred);
-
-        List<Node> fallback = Arrays.stream(allNodes)
-                .filter(n -> hasFlag(n, "Guard"))
-                .filter(n -> hasFlag(n, "Running") && hasFlag(n, "Valid"))
-                .filter(n -> n.getBandwidth() > 0)
-                .filter(n -> !same16(n, exit))
-                .filter(n -> !sameFingerprint(n, exit))
-                .collect(Collectors.toList());
-
-        if (!fallback.isEmpty()) return weightedSample(fallback);
-
-        List<Node> last = Arrays.stream(allNodes)
-                .filter(n -> hasFlag(n, "Guard"))
-                .filter(n -> hasFlag(n, "Running") && hasFlag(n, "Valid"))
-                .filter(n -> n.getBandwidth() > 0)
-                .filter(n -> !sameFingerprint(n, exit))
-                .collect(Collectors.toList());
-
-        return weightedSample(last);
+    private int selectGuardPreferDifferentCountry(int exit) {
+        for (int tier = PREFERRED; tier <= LAST; tier++) {
+            int guard = sample(guards, tier, -1, exit);
+            if (guard >= 0) {
+                Metrics.GEO_GUARD.outcome(tier);
+                return guard;
+            }
+        }
+        return -1;
     }
 
     // --- middle NODE ---
-    private Node selectMiddlePreferDifferentCountries(Node guard, Node exit) {
-        Set<String> forbiddenCountries = new HashSet<>();
-        if (guard.getCountry() != null) forbiddenCountries.add(guard.getCountry());
-        if (exit.getCountry() != null) forbiddenCountries.add(exit.getCountry());
-
-        List<Node> preferred = Arrays.stream(allNodes)
-                .filter(n -> hasFlag(n, "Fast"))
-                .filter(n -> hasFlag(n, "Running") && hasFlag(n, "Valid"))
-                .filter(n -> n.getBandwidth() > 0)
-                .filter(n -> !sameFingerprint(n, guard) && !sameFingerprint(n, exit))
-                .filter(n -> !same16(n, guard) && !same16(n, exit))
-                .filter(n -> !forbiddenCountries.contains(n.getCountry()))
-                .collect(Collectors.toList());
-
-        if (!preferred.isEmpty()) return weightedSample(preferred);
-
-        List<Node> fallback = Arrays.stream(allNodes)
-                .filter(n -> hasFlag(n, "Fast"))
-                .filter(n -> hasFlag(n, "Running") && hasFlag(n, "Valid"))
-                .filter(n -> n.getBandwidth() > 0)
-                .filter(n -> !sameFingerprint(n, guard) && !sameFingerprint(n, exit))
-                .filter(n -> !same16(n, guard) && !same16(n, exit))
-                .collect(Collectors.toList());
-
-        if (!fallback.isEmpty()) return weightedSample(fallback);
-
-        List<Node> last = Arrays.stream(allNodes)
-                .filter(n -> hasFlag(n, "Fast"))
-                .filter(n -> hasFlag(n, "Running") && hasFlag(n, "Valid"))
-                .filter(n -> n.getBandwidth() > 0)
-                .filter(n -> !sameFingerprint(n, guard) && !sameFingerprint(n, exit))
-                .collect(Collectors.toList());
-
-        return weightedSample(last);
-    }
-
-    // --- helpers ---
-    private boolean exitPolicyAllows(Node node, int destPort) {
-        String policy = node.getExitPolicy();
-        if (policy == null || policy.isEmpty())
-            return false;
-
-        if (policy.contains("reject 1-65535"))
-            return false;
-
-        String[] lines = policy.split("\n");
-        boolean allowed = false;
-
-        for (String line : lines) {
-            String[] parts = line.trim().split("\\s+");
-            if (parts.length < 2) continue;
-
-            String action = parts[0];
-            String range = parts[1];
-
-            if (range.contains("-")) {
-                String[] ports = range.split("-");
-                try {
-                    int low = Integer.parseInt(ports[0]);
-                    int high = Integer.parseInt(ports[1]);
-                    if (destPort >= low && destPort <= high) {
-                        if (action.equalsIgnoreCase("accept")) allowed = true;
-                        if (action.equalsIgnoreCase("reject")) allowed = false;
-                    }
-                } catch (Exception ignored) {}
-            } else {
-                try {
-                    int port = Integer.parseInt(range);
-                    if (port == destPort) {
-                        if (action.equalsIgnoreCase("accept")) allowed = true;
-                        if (action.equalsIgnoreCase("reject")) allowed = false;
-                    }
-                } catch (Exception ignored) {}
+    private int selectMiddlePreferDifferentCountries(int guard, int exit) {
+        for (int tier = PREFERRED; tier <= LAST; tier++) {
+            int middle = sample(middles, tier, guard, exit);
+            if (middle >= 0) {
+                Metrics.GEO_MIDDLE.outcome(tier);
+                return middle;
             }
         }
-
-        return allowed;
+        return -1;
     }
 
-    private boolean hasFlag(Node n, String flag) {
-        return Arrays.asList(n.getFlags()).contains(flag);
+    // tier rule for candidate i next to the exit (guard < 0) or to the guard and the exit
+    private boolean allowed(int i, int tier, int guard, int exit) {
+        if (exit < 0) return true;
+        if (relays.sameFingerprint(i, exit) || (guard >= 0 && relays.sameFingerprint(i, guard))) return false;
+        if (tier == LAST) return true;
+        if (same16(i, exit) || sameAsn(i, exit)) return false;
+        if (guard >= 0 && (same16(i, guard) || sameAsn(i, guard))) return false;
+        if (tier == FALLBACK) return true;
+
+        int c = relays.country(i);
+        if (guard < 0) return c != relays.country(exit);
+        // a middle without a country is never excluded by it
+        return c == RelayIndex.NO_COUNTRY || (c != relays.country(guard) && c != relays.country(exit));
     }
 
-    private boolean sameFingerprint(Node a, Node b) {
-        return a.getFingerprint() != null && a.getFingerprint().equals(b.getFingerprint());
+    private boolean sameAsn(int a, int b) {
+        return asnDiverse && relays.asn(a) != AsnFinder.UNKNOWN_ASN && relays.asn(a) == relays.asn(b);
     }
 
-    private boolean same16(Node a, Node b) {
-        try {
-            String[] pa = a.getIpAddress().split("\\.");
-            String[] pb = b.getIpAddress().split("\\.");
-            return pa[0].equals(pb[0]) && pa[1].equals(pb[1]);
-        } catch (Exception e) {
-            return false;
-        }
+    // only relays with an IPv4 address share a /16
+    private boolean same16(int a, int b) {
+        return relays.prefix16(a) >= 0 && relays.same16(a, b);
     }
 
-    private Node weightedSample(List<Node> list) {
-        if (list.isEmpty()) return null;
-        if (list.size() == 1) return list.get(0);
-
+    // bandwidth-weighted pick among the candidates the tier allows, -1 when there are none
+    private int sample(int[] candidates, int tier, int guard, int exit) {
+        int count = 0, only = -1;
         double total = 0;
-        for (Node n : list) {
-            total += n.getBandwidth();
+        for (int i : candidates) {
+            if (!allowed(i, tier, guard, exit)) continue;
+            count++;
+            only = i;
+            total += relays.bandwidth(i);
         }
+        if (count <= 1) return only;
 
         double r = rng.nextDouble() * total;
-
-        for (Node n : list) {
-            r -= n.getBandwidth();
+        int last = -1;
+        for (int i : candidates) {
+            if (!allowed(i, tier, guard, exit)) continue;
+            last = i;
+            r -= relays.bandwidth(i);
             if (r <= 0)
-                return n;
+                return i;
         }
-
-        return list.get(list.size() - 1);
+        return last;
     }
 }
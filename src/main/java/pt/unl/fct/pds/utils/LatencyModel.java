@@ -0,0 +1,50 @@
+package pt.unl.fct.pds.utils;
+
+import pt.unl.fct.pds.model.Node;
+
+/**
+ * Round-trip time estimates from relay coordinates.
+ *
+ * RTT = 2 * great-circle distance * {@link #ROUTE_STRETCH} / {@link #FIBER_KM_PER_MS}
+ * + {@link #HOP_OVERHEAD_MS}. This is a coarse model (no congestion, no real topology),
+ * good enough to rank paths that stay on one continent against paths that cross oceans.
+ */
+public final class LatencyModel {
+    /** Light in fibre covers about 200 km per millisecond. */
+    public static final double FIBER_KM_PER_MS = 200.0;
+    /** Internet routes are longer than the great circle between their ends. */
+    public static final double ROUTE_STRETCH = 1.6;
+    /** Fixed cost per hop: access links, queuing and relay processing. */
+    public static final double HOP_OVERHEAD_MS = 10.0;
+    /** Assumed RTT of a hop when one of its ends has no location. */
+    public static final double UNKNOWN_RTT_MS = 150.0;
+
+    private static final double EARTH_RADIUS_KM = 6371.0;
+
+    private LatencyModel() {}
+
+    public static double distanceKm(double lat1, double lon1, double lat2, double lon2) {
+        double p1 = Math.toRadians(lat1), p2 = Math.toRadians(lat2);
+        double dp = p2 - p1, dl = Math.toRadians(lon2 - lon1);
+        double a = Math.sin(dp / 2) * Math.sin(dp / 2)
+                + Math.cos(p1) * Math.cos(p2) * Math.sin(dl / 2) * Math.sin(dl / 2);
+        return 2 * EARTH_RADIUS_KM * Math.asin(Math.min(1.0, Math.sqrt(a)));
+    }
+
+    public static double rttMs(double lat1, double lon1, double lat2, double lon2) {
+        if (Double.isNaN(lat1) || Double.isNaN(lon1) || Double.isNaN(lat2) || Double.isNaN(lon2))
+            return UNKNOWN_RTT_MS;
+        return 2 * distanceKm(lat1, lon1, lat2, lon2) * ROUTE_STRETCH / FIBER_KM_PER_MS + HOP_OVERHEAD_MS;
+    }
+
+    public static double rttMs(Node a, Node b) {
+        return rttMs(a.getLatitude(), a.getLongitude(), b.getLatitude(), b.getLongitude());
+    }
+
+    /** Guard to middle to exit, the part of the path every selector controls. */
+    public static double circuitRttMs(Node[] path) {
+        double rtt = 0;
+        for (int i = 1; i < path.length; i++) rtt += rttMs(path[i - 1], path[i]);
+        return rtt;
+    }
+}
@@ -0,0 +1,166 @@
+package pt.unl.fct.pds.utils;
+
+import pt.unl.fct.pds.model.Circuit;
+import pt.unl.fct.pds.model.Node;
+
+import java.util.Random;
+
+/**
+ * Latency-aware path selection.
+ *
+ * The guard is picked as Tor does (bandwidth-weighted; it is long-lived and chosen for the
+ * client, not for one destination). The exit is then weighted by bandwidth * exp(-rtt / tau)
+ * with rtt the {@link LatencyModel} estimate from the guard, and the middle by bandwidth *
+ * exp(-(rtt(guard, middle) + rtt(middle, exit)) / tau). A small tau keeps circuits on one
+ * continent; tau = infinity falls back to plain bandwidth weighting.
+ *
+ * The bias never overrides the diversity floor: the three relays are distinct and in distinct
+ * /16s, and minCountries (1-3) sets how many different countries the circuit must span
+ * (2: exit outside the guard's country, 3: middle also outside both). Relays with no country,
+ * or the "UNKNOWN" of an unresolved address, never share one with another relay. Relays without
+ * coordinates get {@link LatencyModel#UNKNOWN_RTT_MS} per hop. Coordinates come from
+ * {@link LocationFinder#locate}; every circuit carries its estimated RTT.
+ *
+ * Candidate lists are built once (exits once per port, in the {@link RelayIndex}), and each
+ * position is two passes over an int array, so {@link #selectPacked} allocates nothing.
+ * Thread-safe when the Random is.
+ */
+public class LatencySelector implements PackedSelector {
+    public static final double DEFAULT_TAU_MS = 40.0;
+    public static final int DEFAULT_MIN_COUNTRIES = 2;
+
+    private static final int RELAY = RelayIndex.FLAG_RUNNING | RelayIndex.FLAG_VALID;
+
+    private final RelayIndex relays;
+    private final Random rng;
+    private final double tauMs;
+    private final int minCountries;
+    private final int[] guards;
+    private final int[] middles;
+    private final int unknown;
+
+    public LatencySelector(Node[] allNodes, Random rng) {
+        this(new RelayIndex(allNodes), rng, DEFAULT_TAU_MS, DEFAULT_MIN_COUNTRIES);
+    }
+
+    public LatencySelector(Node[] allNodes, Random rng, double tauMs, int minCountries) {
+        this(new RelayIndex(allNodes), rng, tauMs, minCountries);
+    }
+
+    public LatencySelector(RelayIndex relays, Random rng, double tauMs, int minCountries) {
+        if (!(tauMs > 0)) throw new IllegalArgumentException("tauMs must be > 0");
+        if (minCountries < 1 || minCountries > 3) throw new IllegalArgumentException("minCountries must be 1, 2 or 3");
+        if (relays.size() > RelayIndex.PACKED_LIMIT) throw new IllegalArgumentException("Too many relays");
+        this.relays = relays;
+        this.rng = rng;
+        this.tauMs = tauMs;
+        this.minCountries = minCountries;
+        this.guards = relays.withFlags(RelayIndex.FLAG_GUARD | RELAY);
+        this.middles = relays.withFlags(RelayIndex.FLAG_FAST | RELAY);
+        this.unknown = unknownCountry(relays);
+    }
+
+    public double getTauMs() { return tauMs; }
+    public int getMinCountries() { return minCountries; }
+
+    @Override
+    public RelayIndex getRelays() { return relays; }
+
+    @Override
+    public Circuit selectPath(int destPort) {
+        long path = selectPacked(destPort);
+        Circuit c = relays.circuit(path, rng.nextInt(Integer.MAX_VALUE));
+        int guard = RelayIndex.guardOf(path), middle = RelayIndex.middleOf(path), exit = RelayIndex.exitOf(path);
+        c.setEstimatedRttMs(relays.rttMs(guard, middle) + relays.rttMs(middle, exit));
+        return c;
+    }
+
+    @Override
+    public long selectPacked(int destPort) {
+        // Exit, Fast, Running, Valid, bandwidth > 0 and allowing the port
+        int[] exits = relays.exits(destPort);
+        if (exits.length == 0) throw new IllegalStateException("No valid exit node found");
+
+        int guard = pick(guards, -1, -1);
+        if (guard < 0) throw new IllegalStateException("No valid guard node found");
+
+        return selectPacked(destPort, guard);
+    }
+
+    @Override
+    public long selectPacked(int destPort, int guard) {
+        int[] exits = relays.exits(destPort);
+        int exit = pick(exits, guard, -1);
+        if (exit < 0) throw new IllegalStateException("No valid exit node found");
+
+        int middle = pick(middles, guard, exit);
+        if (middle < 0) throw new IllegalStateException("No valid middle node found");
+
+        return RelayIndex.pack(guard, middle, exit);
+    }
+
+    // weighted pick of a guard (a, b < 0), an exit given the guard (b < 0) or a middle given both
+    private int pick(int[] candidates, int a, int b) {
+        double total = 0;
+        for (int i : candidates) total += weight(i, a, b);
+        if (total <= 0 || Double.isNaN(total)) return fallback(candidates, a, b);
+
+        // second pass recomputes the same weights instead of keeping them in an array
+        double r = rng.nextDouble() * total;
+        int last = -1;
+        for (int i : candidates) {
+            double w = weight(i, a, b);
+            if (w <= 0) continue;
+            last = i;
+            r -= w;
+            if (r <= 0) return last;
+        }
+        return last;
+    }
+
+    // bandwidth * exp(-rtt / tau), 0 for candidates the diversity floor rules out
+    private double weight(int i, int a, int b) {
+        if (a >= 0 && !allowed(i, a, b)) return 0;
+        double rtt = 0;
+        if (a >= 0) rtt += relays.rttMs(a, i);
+        if (b >= 0) rtt += relays.rttMs(i, b);
+        return relays.bandwidth(i) * Math.exp(-rtt / tauMs);
+    }
+
+    // every allowed candidate's weight underflowed (tau tiny, all far away): pick by bandwidth
+    private int fallback(int[] candidates, int a, int b) {
+        long total = 0;
+        for (int i : candidates) if (a < 0 || allowed(i, a, b)) total += relays.bandwidth(i);
+        if (total == 0) return -1;
+        long r = (long) (rng.nextDouble() * total);
+        int last = -1;
+        for (int i : candidates) {
+            if (a >= 0 && !allowed(i, a, b)) continue;
+            last = i;
+            r -= relays.bandwidth(i);
+            if (r < 0) return i;
+        }
+        return last;
+    }
+
+    // diversity floor for candidate i next to relay a (and b, when choosing the middle)
+    private boolean allowed(int i, int a, int b) {
+        if (i == a || i == b) return false;
+        if (relays.same16(i, a) || (b >= 0 && relays.same16(i, b))) return false;
+        if (b < 0) return minCountries < 2 || !sameCountry(i, a);
+        return minCountries < 3 || (!sameCountry(i, a) && !sameCountry(i, b));
+    }
+
+    // an unknown country is not a shared one, or a network without GeoIP would have no valid exit
+    private boolean sameCountry(int a, int b) {
+        int c = relays.country(a);
+        return c != RelayIndex.NO_COUNTRY && c != unknown && c == relays.country(b);
+    }
+
+    private static int unknownCountry(RelayIndex relays) {
+        for (int c = 0; c < relays.countryCount(); c++) {
+            if ("UNKNOWN".equals(relays.countryName(c))) return c;
+        }
+        return RelayIndex.NO_COUNTRY;
+    }
+}
@@ -0,0 +1,155 @@
+package pt.unl.fct.pds.utils;
+
+import com.maxmind.geoip2.DatabaseReader;
+import com.maxmind.geoip2.exception.AddressNotFoundException;
+import com.maxmind.geoip2.model.CityResponse;
+import pt.unl.fct.pds.model.Node;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Resolves relay coordinates for {@link LatencyModel}.
+ *
+ * With a GeoLite2-City .mmdb each IP gets its own latitude and longitude. Without one (or when
+ * the city database has no answer) the relay falls back to a representative point of its
+ * country (roughly where its hosting is concentrated), keyed by the English country names
+ * {@link CountryFinder} returns. Relays in countries missing from that table stay without
+ * a location.
+ */
+public class LocationFinder implements AutoCloseable {
+    private static final double[] NONE = new double[0];
+    private static final Map<String, double[]> CENTROIDS = new HashMap<>();
+
+    static {
+        centroid("Germany", 51.2, 10.4);
+        centroid("France", 46.6, 2.4);
+        centroid("Netherlands", 52.2, 5.5);
+        centroid("United States", 39.0, -77.5);   // northern Virginia
+        centroid("Canada", 45.5, -75.0);
+        centroid("United Kingdom", 52.5, -1.5);
+        centroid("Switzerland", 46.8, 8.2);
+        centroid("Austria", 47.6, 14.1);
+        centroid("Finland", 61.9, 25.7);
+        centroid("Sweden", 59.3, 16.0);
+        centroid("Norway", 60.5, 9.0);
+        centroid("Denmark", 56.0, 10.0);
+        centroid("Iceland", 64.1, -21.9);
+        centroid("Ireland", 53.3, -7.7);
+        centroid("Belgium", 50.6, 4.6);
+        centroid("Luxembourg", 49.8, 6.1);
+        centroid("Spain", 40.4, -3.7);
+        centroid("Portugal", 39.6, -8.0);
+        centroid("Italy", 42.8, 12.5);
+        centroid("Greece", 38.3, 23.0);
+        centroid("Poland", 52.1, 19.4);
+        centroid("Czechia", 49.8, 15.5);
+        centroid("Slovakia", 48.7, 19.7);
+        centroid("Hungary", 47.2, 19.5);
+        centroid("Slovenia", 46.1, 14.8);
+        centroid("Croatia", 45.1, 15.2);
+        centroid("Serbia", 44.0, 20.9);
+        centroid("Romania", 45.9, 25.0);
+        centroid("Bulgaria", 42.7, 25.5);
+        centroid("Moldova", 47.0, 28.8);
+        centroid("Ukraine", 49.0, 31.4);
+        centroid("Russia", 55.8, 37.6);
+        centroid("Latvia", 56.9, 24.6);
+        centroid("Lithuania", 55.2, 23.9);
+        centroid("Estonia", 58.6, 25.0);
+        centroid("Turkey", 39.9, 32.9);
+        centroid("Israel", 31.5, 34.9);
+        centroid("India", 20.6, 79.0);
+        centroid("Singapore", 1.35, 103.8);
+        centroid("Hong Kong", 22.3, 114.2);
+        centroid("Taiwan", 23.7, 121.0);
+        centroid("Japan", 35.7, 139.7);
+        centroid("South Korea", 37.5, 127.0);
+        centroid("Australia", -33.9, 151.2);
+        centroid("New Zealand", -41.3, 174.8);
+        centroid("Brazil", -23.5, -46.6);
+        centroid("Argentina", -34.6, -58.4);
+        centroid("Chile", -33.4, -70.6);
+        centroid("Mexico", 19.4, -99.1);
+        centroid("South Africa", -26.2, 28.0);
+        centroid("Seychelles", -4.7, 55.5);
+    }
+
+    private final DatabaseReader reader;
+    private final ConcurrentMap<String, double[]> cache = new ConcurrentHashMap<>();
+
+    /** Country points only. */
+    public LocationFinder() {
+        this.reader = null;
+    }
+
+    public LocationFinder(String cityDbPath) throws IOException {
+        File database = new File(cityDbPath);
+        if (!database.exists()) {
+            throw new IOException("City DB not found at: " + cityDbPath);
+        }
+        this.reader = new DatabaseReader.Builder(database).build();
+    }
+
+    /** {latitude, longitude} of an IP, falling back to the country's point; null if unknown. */
+    public double[] lookupLocation(String ip, String country) {
+        if (reader != null && ip != null && !ip.trim().isEmpty()) {
+            double[] cached = cache.get(ip);
+            if (cached == null) {
+                cached = lookupCity(CountryFinder.stripPort(ip.trim()));
+                cache.put(ip, cached);
+            }
+            if (cached != NONE) return cached.clone();
+        }
+        return countryCentroid(country);
+    }
+
+    /** Sets the location of every node it can resolve; returns how many were located. */
+    public int locate(Node[] nodes) {
+        int located = 0;
+        for (Node n : nodes) {
+            double[] loc = lookupLocation(n.getIpAddress(), n.getCountry());
+            if (loc != null) {
+                n.setLocation(loc[0], loc[1]);
+                located++;
+            }
+        }
+        return located;
+    }
+
+    public static double[] countryCentroid(String country) {
+        double[] c = country == null ? null : CENTROIDS.get(country);
+        return c == null ? null : c.clone();
+    }
+
+    private double[] lookupCity(String ip) {
+        try {
+            CityResponse r = reader.city(InetAddress.getByName(ip));
+            if (r != null && r.getLocation() != null
+                    && r.getLocation().getLatitude() != null && r.getLocation().getLongitude() != null) {
+                return new double[]{ r.getLocation().getLatitude(), r.getLocation().getLongitude() };
+            }
+        } catch (AddressNotFoundException e) {
+            // not in db
+        } catch (Exception e) {
+            // other probs
+        }
+        return NONE;
+    }
+
+    private static void centroid(String country, double lat, double lon) {
+        CENTROIDS.put(country, new double[]{ lat, lon });
+    }
+
+    @Override
+    public void close() throws Exception {
+        if (reader != null) {
+            reader.close();
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package pt.unl.fct.pds.utils;
+
+import pt.unl.fct.pds.model.Node;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Exit policy summaries of a microdescriptor file (Tor's cached-microdescs), keyed by the
+ * digest a microdesc consensus m line uses: the unpadded base64 SHA-256 of the descriptor
+ * text, from its first key line up to the next descriptor or "@" annotation.
+ */
+public final class MicrodescriptorPolicies {
+
+    private MicrodescriptorPolicies() {}
+
+    /** Digest -> policy summary ("accept 80,443") of every microdescriptor with a p line. */
+    public static Map<String, String> read(String filename) throws IOException {
+        byte[] b = ConsensusInput.readAll(Paths.get(filename));
+        Map<String, String> policies = new HashMap<>();
+        Map<String, String> shared = new HashMap<>();
+        MessageDigest sha256 = sha256();
+
+        int start = -1;
+        boolean ntor = false;
+        String policy = null;
+        int pos = 0;
+        while (pos <= b.length) {
+            int from = pos, to = pos;
+            while (to < b.length && b[to] != '\n') to++;
+            // one extra pass with from == b.length closes the last descriptor
+            pos = to < b.length || from == b.length ? to + 1 : to;
+
+            // onion-key starts a descriptor; so does ntor-onion-key in ones without a TAP key
+            boolean begins = from == b.length || b[from] == '@' || startsWith(b, from, to, "onion-key")
+                    || (startsWith(b, from, to, "ntor-onion-key") && (start < 0 || ntor));
+            if (begins && start >= 0) {
+                if (policy != null) {
+                    sha256.update(b, start, from - start);
+                    String digest = Base64.getEncoder().withoutPadding().encodeToString(sha256.digest());
+                    String p = shared.putIfAbsent(policy, policy);
+                    policies.put(digest, p != null ? p : policy);
+                }
+                start = -1;
+            }
+            if (begins && from < b.length && b[from] != '@') {
+                start = from;
+                ntor = false;
+                policy = null;
+            }
+            if (start >= 0 && startsWith(b, from, to, "ntor-onion-key")) ntor = true;
+            if (start >= 0 && startsWith(b, from, to, "p ")) {
+                int end = to > from && b[to - 1] == '\r' ? to - 1 : to;
+                policy = new String(b, from + 2, end - from - 2, StandardCharsets.UTF_8).trim();
+            }
+        }
+        return policies;
+    }
+
+    /** Gives nodes without an exit policy the one of the microdescriptor they reference. */
+    public static int apply(String filename, List<Node> nodes) throws IOException {
+        Map<String, String> policies = read(filename);
+        int applied = 0;
+        for (Node n : nodes) {
+            if (n.getExitPolicy() != null || n.getMicrodescriptor() == null) continue;
+            String policy = policies.get(n.getMicrodescriptor());
+            if (policy == null) continue;
+            n.setExitPolicy(policy);
+            applied++;
+        }
+        return applied;
+    }
+
+    private static boolean startsWith(byte[] b, int from, int to, String prefix) {
+        if (to - from < prefix.length()) return false;
+        for (int i = 0; i < prefix.length(); i++) if (b[from + i] != prefix.charAt(i)) return false;
+        return true;
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+}
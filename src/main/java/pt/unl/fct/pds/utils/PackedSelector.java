@@ -0,0 +1,33 @@
+package pt.unl.fct.pds.utils;
+
+import pt.unl.fct.pds.model.Circuit;
+
+/**
+ * A selector working on relay indexes that can return circuits without allocating: as a long
+ * packing guard, middle and exit index of {@link #getRelays()} (see {@link RelayIndex#pack}).
+ * Circuit objects are only built on demand, by {@link #selectPath} or {@link RelayIndex#circuit}.
+ */
+public interface PackedSelector extends CircuitSelector {
+
+    RelayIndex getRelays();
+
+    /**
+     * Same selection as {@link #selectPath}, returned packed.
+     *
+     * @throws IllegalStateException if no valid relay exists for one of the positions
+     */
+    long selectPacked(int destPort);
+
+    /**
+     * Selection for a client that keeps its guard: exit and middle are picked under this
+     * selector's rules around the given guard index, which is used as is.
+     *
+     * @throws IllegalStateException if no valid exit or middle exists next to that guard
+     */
+    long selectPacked(int destPort, int guard);
+
+    /** Fills out[offset .. offset + count) with packed circuits. */
+    default void selectPacked(int destPort, long[] out, int offset, int count) {
+        for (int k = offset; k < offset + count; k++) out[k] = selectPacked(destPort);
+    }
+}
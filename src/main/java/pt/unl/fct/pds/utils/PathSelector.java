@@ -1,163 +1,133 @@
 package pt.unl.fct.pds.utils;
 
+import jdk.jfr.Event;
+import pt.unl.fct.pds.metrics.Metrics;
 import pt.unl.fct.pds.model.Circuit;
 import pt.unl.fct.pds.model.Node;
 
-import java.util.*;
-import java.util.stream.Collectors;
+import java.util.Random;
 
-public class PathSelector {
+/**
+ * Tor's default path selection: a bandwidth-weighted exit allowing the port, then a guard
+ * outside the exit's /16, then a middle distinct from both and outside their /16s.
+ *
+ * Candidates are index arrays built once (exits once per port, in the {@link RelayIndex}), and
+ * each position is two passes over them, so {@link #selectPacked} allocates nothing.
+ */
+public class PathSelector implements PackedSelector {
 
-    private final Node[] allNodes;
+    private static final int RELAY = RelayIndex.FLAG_RUNNING | RelayIndex.FLAG_VALID;
+
+    private final RelayIndex relays;
     private final Random rng;
+    private final int[] guards;
+    private final int[] middles;
 
     public PathSelector(Node[] allNodes) {
         this(allNodes, new Random());
     }
 
     public PathSelector(Node[] allNodes, Random rng) {
-        this.allNodes = allNodes;
+        this(new RelayIndex(allNodes), rng);
+    }
+
+    public PathSelector(RelayIndex relays, Random rng) {
+        if (relays.size() > RelayIndex.PACKED_LIMIT) throw new IllegalArgumentException("Too many relays");
+        this.relays = relays;
         this.rng = rng;
+        this.guards = relays.withFlags(RelayIndex.FLAG_GUARD | RELAY);
+        this.middles = relays.withFlags(RelayIndex.FLAG_FAST | RELAY);
     }
 
+    @Override
+    public RelayIndex getRelays() { return relays; }
+
+    @Override
     public Circuit selectPath(int destPort) {
+        return relays.circuit(selectPacked(destPort), rng.nextInt(1_000_000));
+    }
+
+    @Override
+    public long selectPacked(int destPort) {
 
-        Node exit = selectExit(destPort);
-        if (exit == null)
+        long t = Metrics.start();
+        Event e = Metrics.TOR_EXIT.begin();
+        int exit = sample(relays.exits(destPort), -1, -1);
+        Metrics.TOR_EXIT.selected(t, e, destPort, exit >= 0);
+        if (exit < 0)
             throw new IllegalStateException("No valid exit node found!");
 
-        Node guard = selectGuard(exit);
-        if (guard == null)
+        t = Metrics.start();
+        e = Metrics.TOR_GUARD.begin();
+        int guard = sample(guards, -1, exit);
+        Metrics.TOR_GUARD.selected(t, e, destPort, guard >= 0);
+        if (guard < 0)
             throw new IllegalStateException("No valid guard node found!");
 
-        Node middle = selectMiddle(guard, exit);
-        if (middle == null)
+        t = Metrics.start();
+        e = Metrics.TOR_MIDDLE.begin();
+        int middle = sample(middles, guard, exit);
+        Metrics.TOR_MIDDLE.selected(t, e, destPort, middle >= 0);
+        if (middle < 0)
             throw new IllegalStateException("No valid middle node found!");
 
-        return new Circuit(
-                rng.nextInt(1_000_000),
-                new Node[]{ guard, middle, exit },
-                Math.min(guard.getBandwidth(), Math.min(middle.getBandwidth(), exit.getBandwidth()))
-        );
-    }
-
-    // --- exit NODE ---
-    private Node selectExit(int destPort) {
-        List<Node> exits = Arrays.stream(allNodes)
-                .filter(n -> hasFlag(n, "Exit"))
-                .filter(n -> hasFlag(n, "Fast"))
-                .filter(n -> hasFlag(n, "Running") && hasFlag(n, "Valid"))
-                .filter(n -> exitPolicyAllows(n, destPort))
-                .filter(n -> n.getBandwidth() > 0)
-                .collect(Collectors.toList());
-
-        return weightedSample(exits);
-    }
-
-    // --- guard NODE ---
-    private Node selectGuard(Node exit) {
-        List<Node> guards = Arrays.stream(allNodes)
-                .filter(n -> hasFlag(n, "Guard"))
-                .filter(n -> hasFlag(n, "Running") && hasFlag(n, "Valid"))
-                .filter(n -> n.getBandwidth() > 0)
-                .filter(n -> !same16(n, exit))
-                .collect(Collectors.toList());
-
-        return weightedSample(guards);
+        return RelayIndex.pack(guard, middle, exit);
     }
 
-    // --- middle NODE ---
-    private Node selectMiddle(Node guard, Node exit) {
-        List<Node> candidates = Arrays.stream(allNodes)
-                .filter(n -> hasFlag(n, "Fast"))
-                .filter(n -> hasFlag(n, "Running") && hasFlag(n, "Valid"))
-                .filter(n -> n.getBandwidth() > 0)
-                .filter(n -> !sameNode(n, guard) && !sameNode(n, exit))
-                .filter(n -> !same16(n, guard) && !same16(n, exit))
-                .collect(Collectors.toList());
-
-        return weightedSample(candidates);
-    }
-
-    
-    // --- helpers ---
-    private boolean exitPolicyAllows(Node node, int destPort) {
-        String policy = node.getExitPolicy();
-        if (policy == null || policy.isEmpty())
-            return false;
-
-        if (policy.contains("reject 1-65535"))
-            return false;
-
-        String[] lines = policy.split("\n");
-        boolean allowed = false;
-
-        for (String line : lines) {
-            String[] parts = line.trim().split("\\s+");
-            if (parts.length < 2) continue;
-
-            String action = parts[0];
-            String range = parts[1];
-
-            if (range.contains("-")) {
-                String[] ports = range.split("-");
-                try {
-                    int low = Integer.parseInt(ports[0]);
-                    int high = Integer.parseInt(ports[1]);
-                    if (destPort >= low && destPort <= high) {
-                        if (action.equalsIgnoreCase("accept")) allowed = true;
-                        if (action.equalsIgnoreCase("reject")) allowed = false;
-                    }
-                } catch (Exception ignored) {}
-            } else {
-                try {
-                    int port = Integer.parseInt(range);
-                    if (port == destPort) {
-                        if (action.equalsIgnoreCase("accept")) allowed = true;
-                        if (action.equalsIgnoreCase("reject")) allowed = false;
-                    }
-                } catch (Exception ignored) {}
-            }
-        }
+    @Override
+    public long selectPacked(int destPort, int guard) {
+        // the guard's rule is symmetric: the exit only has to be outside the guard's /16
+        long t = Metrics.start();
+        Event e = Metrics.TOR_EXIT.begin();
+        int exit = sample(relays.exits(destPort), -1, guard);
+        Metrics.TOR_EXIT.selected(t, e, destPort, exit >= 0);
+        if (exit < 0)
+            throw new IllegalStateException("No valid exit node found!");
 
-        return allowed;
-    }
+        t = Metrics.start();
+        e = Metrics.TOR_MIDDLE.begin();
+        int middle = sample(middles, guard, exit);
+        Metrics.TOR_MIDDLE.selected(t, e, destPort, middle >= 0);
+        if (middle < 0)
+            throw new IllegalStateException("No valid middle node found!");
 
-    private boolean hasFlag(Node n, String flag) {
-        return Arrays.asList(n.getFlags()).contains(flag);
+        return RelayIndex.pack(guard, middle, exit);
     }
 
-    private boolean sameNode(Node a, Node b) {
-        return a.getFingerprint().equals(b.getFingerprint());
+    // exit: no constraint; guard (guard < 0): outside the exit's /16; middle: distinct from both, outside their /16s
+    private boolean allowed(int i, int guard, int exit) {
+        if (exit < 0) return true;
+        if (guard < 0) return !same16(i, exit);
+        return !relays.sameFingerprint(i, guard) && !relays.sameFingerprint(i, exit)
+                && !same16(i, guard) && !same16(i, exit);
     }
 
-    private boolean same16(Node a, Node b) {
-        try {
-            String[] pa = a.getIpAddress().split("\\.");
-            String[] pb = b.getIpAddress().split("\\.");
-            return pa[0].equals(pb[0]) && pa[1].equals(pb[1]);
-        } catch (Exception e) {
-            return false;
-        }
+    // only relays with an IPv4 address share a /16
+    private boolean same16(int a, int b) {
+        return relays.prefix16(a) >= 0 && relays.same16(a, b);
     }
 
-    private Node weightedSample(List<Node> list) {
-        if (list.isEmpty()) return null;
-        if (list.size() == 1) return list.get(0);
-
+    // bandwidth-weighted pick among the allowed candidates, -1 when there are none
+    private int sample(int[] candidates, int guard, int exit) {
+        int count = 0, only = -1;
         double total = 0;
-        for (Node n : list) {
-            total += n.getBandwidth();
+        for (int i : candidates) {
+            if (!allowed(i, guard, exit)) continue;
+            count++;
+            only = i;
+            total += relays.bandwidth(i);
         }
+        if (count <= 1) return only;
 
         double r = rng.nextDouble() * total;
-
-        for (Node n : list) {
-            r -= n.getBandwidth();
+        int last = -1;
+        for (int i : candidates) {
+            if (!allowed(i, guard, exit)) continue;
+            last = i;
+            r -= relays.bandwidth(i);
             if (r <= 0)
-                return n;
+                return i;
         }
-
-        return list.get(list.size() - 1);
+        return last;
     }
 }
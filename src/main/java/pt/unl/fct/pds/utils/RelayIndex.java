@@ -0,0 +1,264 @@
+package pt.unl.fct.pds.utils;
+
+import pt.unl.fct.pds.model.Circuit;
+import pt.unl.fct.pds.model.Node;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Primitive, per-relay view of a parsed consensus.
+ *
+ * Relay i is nodes[i]; every attribute the selectors and evaluations compare
+ * (flags, bandwidth, /16 prefix, country, ASN, coordinates) is precomputed once into primitive arrays,
+ * so hot loops never touch strings. The index is immutable and safe to share between threads.
+ *
+ * A circuit can also be a single long: guard, middle and exit index in 21 bits each
+ * ({@link #pack}), which {@link PackedSelector}s return instead of allocating a {@link Circuit}.
+ */
+public class RelayIndex {
+    public static final int FLAG_GUARD   = 1;
+    public static final int FLAG_EXIT    = 1 << 1;
+    public static final int FLAG_FAST    = 1 << 2;
+    public static final int FLAG_RUNNING = 1 << 3;
+    public static final int FLAG_VALID   = 1 << 4;
+    public static final int FLAG_STABLE  = 1 << 5;
+
+    public static final int NO_COUNTRY = -1;
+
+    /** Relays a packed circuit can address. */
+    public static final int PACKED_LIMIT = 1 << 21;
+    private static final int PACKED_MASK = PACKED_LIMIT - 1;
+    private static final int PORTS = 65536;
+
+    private final Node[] nodes;
+    private final int[] flags;
+    private final int[] bandwidth;
+    private final int[] prefix16;
+    private final int[] country;
+    private final int[] asn;
+    private final int[] fingerprintKey;
+    private final double[] latitude;
+    private final double[] longitude;
+    private final int located;
+    private final String[] countryNames;
+    private final Map<Node, Integer> byNode = new IdentityHashMap<>();
+    private final Map<String, Integer> byFingerprint = new HashMap<>();
+    // exit candidates per destination port, built on first use
+    private volatile AtomicReferenceArray<int[]> exitsByPort;
+
+    public RelayIndex(Node[] nodes) {
+        this.nodes = nodes;
+        int n = nodes.length;
+        flags = new int[n];
+        bandwidth = new int[n];
+        prefix16 = new int[n];
+        country = new int[n];
+        asn = new int[n];
+        fingerprintKey = new int[n];
+        latitude = new double[n];
+        longitude = new double[n];
+        int withLocation = 0;
+
+        Map<String, Integer> countryIds = new HashMap<>();
+        List<String> names = new ArrayList<>();
+
+        for (int i = 0; i < n; i++) {
+            Node node = nodes[i];
+            byNode.put(node, i);
+            if (node.getFingerprint() != null) {
+                byFingerprint.putIfAbsent(node.getFingerprint(), i);
+                fingerprintKey[i] = byFingerprint.get(node.getFingerprint());
+            } else {
+                fingerprintKey[i] = -1;
+            }
+
+            flags[i] = flagMask(node.getFlags());
+            bandwidth[i] = node.getBandwidth();
+            prefix16[i] = prefix16(node.getIpAddress(), i);
+            asn[i] = node.getAsn();
+            latitude[i] = node.getLatitude();
+            longitude[i] = node.getLongitude();
+            if (node.hasLocation()) withLocation++;
+
+            String c = node.getCountry();
+            if (c == null) {
+                country[i] = NO_COUNTRY;
+            } else {
+                Integer id = countryIds.get(c);
+                if (id == null) {
+                    id = names.size();
+                    countryIds.put(c, id);
+                    names.add(c);
+                }
+                country[i] = id;
+            }
+        }
+        countryNames = names.toArray(new String[0]);
+        located = withLocation;
+    }
+
+    public int size() { return nodes.length; }
+    public Node node(int i) { return nodes[i]; }
+    public Node[] nodes() { return nodes; }
+
+    public int flags(int i) { return flags[i]; }
+    public boolean hasFlags(int i, int mask) { return (flags[i] & mask) == mask; }
+    public int bandwidth(int i) { return bandwidth[i]; }
+    public int asn(int i) { return asn[i]; }
+
+    /** Coordinates set by {@link LocationFinder}; NaN when unknown. */
+    public double latitude(int i) { return latitude[i]; }
+    public double longitude(int i) { return longitude[i]; }
+    public int locatedCount() { return located; }
+
+    /** {@link LatencyModel} round-trip estimate between two relays. */
+    public double rttMs(int a, int b) {
+        return LatencyModel.rttMs(latitude[a], longitude[a], latitude[b], longitude[b]);
+    }
+
+    /** /16 prefix of an IPv4 relay; relays without one get a unique negative key. */
+    public int prefix16(int i) { return prefix16[i]; }
+
+    /** Dense country id, or {@link #NO_COUNTRY}. */
+    public int country(int i) { return country[i]; }
+    public int countryCount() { return countryNames.length; }
+    public String countryName(int id) { return id == NO_COUNTRY ? null : countryNames[id]; }
+
+    /** Index of a node of this consensus (by identity), or -1. */
+    public int indexOf(Node node) {
+        Integer i = byNode.get(node);
+        return i == null ? -1 : i;
+    }
+
+    public int indexOfFingerprint(String fingerprint) {
+        Integer i = byFingerprint.get(fingerprint);
+        return i == null ? -1 : i;
+    }
+
+    public boolean same16(int a, int b) { return prefix16[a] == prefix16[b]; }
+
+    /** True when both relays have the same non-null fingerprint. */
+    public boolean sameFingerprint(int a, int b) {
+        return fingerprintKey[a] >= 0 && fingerprintKey[a] == fingerprintKey[b];
+    }
+
+    /** Relays having every flag in mask and a positive bandwidth, in index order. */
+    public int[] withFlags(int mask) {
+        int[] out = new int[nodes.length];
+        int n = 0;
+        for (int i = 0; i < nodes.length; i++) {
+            if (hasFlags(i, mask) && bandwidth[i] > 0) out[n++] = i;
+        }
+        return Arrays.copyOf(out, n);
+    }
+
+    /**
+     * Relays the selectors may use as exit to destPort (Exit, Fast, Running, Valid, bandwidth
+     * &gt; 0, {@link #exitPolicyAllows}), in index order. Cached per port; do not modify.
+     */
+    public int[] exits(int destPort) {
+        if (destPort < 0 || destPort >= PORTS) return computeExits(destPort);
+        AtomicReferenceArray<int[]> cache = exitsByPort;
+        if (cache == null) {
+            synchronized (this) {
+                cache = exitsByPort;
+                if (cache == null) exitsByPort = cache = new AtomicReferenceArray<>(PORTS);
+            }
+        }
+        int[] exits = cache.get(destPort);
+        if (exits == null) {
+            exits = computeExits(destPort);
+            cache.set(destPort, exits);
+        }
+        return exits;
+    }
+
+    private int[] computeExits(int destPort) {
+        int mask = FLAG_EXIT | FLAG_FAST | FLAG_RUNNING | FLAG_VALID;
+        int[] out = new int[nodes.length];
+        int n = 0;
+        for (int i = 0; i < nodes.length; i++) {
+            if (hasFlags(i, mask) && bandwidth[i] > 0 && exitAllows(i, destPort)) out[n++] = i;
+        }
+        return Arrays.copyOf(out, n);
+    }
+
+    public static long pack(int guard, int middle, int exit) {
+        return (long) guard << 42 | (long) middle << 21 | exit;
+    }
+
+    public static int guardOf(long path) { return (int) (path >>> 42) & PACKED_MASK; }
+    public static int middleOf(long path) { return (int) (path >>> 21) & PACKED_MASK; }
+    public static int exitOf(long path) { return (int) path & PACKED_MASK; }
+
+    /** The Circuit object for a packed circuit of this index. */
+    public Circuit circuit(long path, int id) {
+        Node g = nodes[guardOf(path)], m = nodes[middleOf(path)], x = nodes[exitOf(path)];
+        return new Circuit(id, new Node[]{ g, m, x },
+                Math.min(g.getBandwidth(), Math.min(m.getBandwidth(), x.getBandwidth())));
+    }
+
+    public boolean exitAllows(int i, int destPort) {
+        return exitPolicyAllows(nodes[i].getExitPolicy(), destPort);
+    }
+
+    /** The selectors' exit policy rule: the last matching single port or range line wins. */
+    public static boolean exitPolicyAllows(String policy, int destPort) {
+        if (policy == null || policy.isEmpty())
+            return false;
+
+        if (policy.contains("reject 1-65535"))
+            return false;
+
+        boolean allowed = false;
+        for (String line : policy.split("\n")) {
+            String[] parts = line.trim().split("\\s+");
+            if (parts.length < 2) continue;
+
+            String action = parts[0];
+            String range = parts[1];
+            try {
+                boolean match;
+                if (range.contains("-")) {
+                    String[] ports = range.split("-");
+                    match = destPort >= Integer.parseInt(ports[0]) && destPort <= Integer.parseInt(ports[1]);
+                } else {
+                    match = Integer.parseInt(range) == destPort;
+                }
+                if (match) {
+                    if (action.equalsIgnoreCase("accept")) allowed = true;
+                    if (action.equalsIgnoreCase("reject")) allowed = false;
+                }
+            } catch (Exception ignored) {}
+        }
+        return allowed;
+    }
+
+    static int flagMask(String[] flags) {
+        int mask = 0;
+        if (flags == null) return mask;
+        for (String f : flags) {
+            switch (f) {
+                case "Guard":   mask |= FLAG_GUARD; break;
+                case "Exit":    mask |= FLAG_EXIT; break;
+                case "Fast":    mask |= FLAG_FAST; break;
+                case "Running": mask |= FLAG_RUNNING; break;
+                case "Valid":   mask |= FLAG_VALID; break;
+                case "Stable":  mask |= FLAG_STABLE; break;
+                default: break;
+            }
+        }
+        return mask;
+    }
+
+    private static int prefix16(String ip, int i) {
+        long addr = AsnFinder.parseIpv4(ip);
+        return addr < 0 ? -1 - i : (int) (addr >>> 16);
+    }
+}
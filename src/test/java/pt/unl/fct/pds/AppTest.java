@@ -1,16 +1,19 @@
 package pt.unl.fct.pds;
 
 import junit.framework.TestCase;
+import pt.unl.fct.pds.eval.CircuitLogCsv;
+import pt.unl.fct.pds.eval.CircuitLogWriter;
 import pt.unl.fct.pds.model.Circuit;
 import pt.unl.fct.pds.model.Node;
 import pt.unl.fct.pds.utils.ConsensusParser;
 import pt.unl.fct.pds.utils.CountryFinder;
 import pt.unl.fct.pds.utils.GeoSelector;
 import pt.unl.fct.pds.utils.PathSelector;
+import pt.unl.fct.pds.utils.RelayIndex;
 
-import java.io.BufferedWriter;
-import java.io.FileWriter;
+import java.io.File;
 import java.io.IOException;
+import java.nio.file.Paths;
 import java.util.*;
 
 public class AppTest extends TestCase {
@@ -73,11 +76,15 @@ public class AppTest extends TestCase {
         PathSelector tor = new PathSelector(nodes);
         GeoSelector geo = new GeoSelector(nodes);
 
-        try (BufferedWriter bw = new BufferedWriter(new FileWriter(CSV_FILE))) {
-            bw.write("selector,trial,role,nickname,fingerprint,ip,country,bandwidth\n");
-
-            EvalStats torStats = runTrialsAndWriteCsv(tor, "Tor", nodes, 80, TRIALS, bw);
-            EvalStats geoStats = runTrialsAndWriteCsv(geo, "Geo", nodes, 80, TRIALS, bw);
+        File log = File.createTempFile("evaluation", ".pdsc");
+        try {
+            EvalStats torStats;
+            EvalStats geoStats;
+            try (CircuitLogWriter writer = new CircuitLogWriter(log.toPath(), new RelayIndex(nodes), false)) {
+                torStats = runTrialsAndWriteCsv(tor, "Tor", nodes, 80, TRIALS, writer);
+                geoStats = runTrialsAndWriteCsv(geo, "Geo", nodes, 80, TRIALS, writer);
+            }
+            CircuitLogCsv.convert(log.toPath(), Paths.get(CSV_FILE));
 
             System.out.println("=== Simple Evaluation Summary ===");
             System.out.printf("Trials per selector: %d\n\n", TRIALS);
@@ -90,6 +97,8 @@ public class AppTest extends TestCase {
 
         } catch (IOException e) {
             fail("Could not write CSV: " + e.getMessage());
+        } finally {
+            log.delete();
         }
     }
 
@@ -133,7 +142,7 @@ public class AppTest extends TestCase {
         Map<String,Integer> exitFreq = new HashMap<>();
     }
 
-    private EvalStats runTrialsAndWriteCsv(Object selector, String name, Node[] nodes, int port, int trials, BufferedWriter bw) throws IOException {
+    private EvalStats runTrialsAndWriteCsv(Object selector, String name, Node[] nodes, int port, int trials, CircuitLogWriter log) throws IOException {
         EvalStats s = new EvalStats();
         s.trialsRequested = trials;
 
@@ -169,9 +178,7 @@ public class AppTest extends TestCase {
                 s.guardFreq.merge(guard.getNickname(), 1, Integer::sum);
                 s.exitFreq.merge(exit.getNickname(), 1, Integer::sum);
 
-                writeCsvLine(bw, name, i, "guard", guard);
-                writeCsvLine(bw, name, i, "middle", middle);
-                writeCsvLine(bw, name, i, "exit", exit);
+                log.write(name, i, c);
 
             } catch (Exception e) {
                 System.err.println("[" + name + "] trial " + i + " failed: " + e.getMessage());
@@ -181,24 +188,6 @@ public class AppTest extends TestCase {
         return s;
     }
 
-    private void writeCsvLine(BufferedWriter bw, String selector, int trial, String role, Node n) throws IOException {
-        String line = String.format("%s,%d,%s,%s,%s,%s,%s,%d\n",
-                selector,
-                trial,
-                role,
-                sanitize(n.getNickname()),
-                sanitize(n.getFingerprint()),
-                sanitize(n.getIpAddress()),
-                sanitize(n.getCountry()),
-                n.getBandwidth());
-        bw.write(line);
-    }
-
-    private static String sanitize(String s) {
-        if (s == null) return "";
-        return s.replace(",", "_").replace("\n", " ").replace("\r", " ");
-    }
-
     private static String safe(String s) {
         return s == null ? "UNKNOWN" : s;
     }
@@ -0,0 +1,116 @@
+package pt.unl.fct.pds;
+
+import pt.unl.fct.pds.model.Node;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Small random consensus for tests that must not depend on the GeoIP database.
+ * Relays are spread over a handful of /16s, countries and ASes so the selectors'
+ * diversity rules and fallback tiers all get exercised.
+ */
+public final class SyntheticNetwork {
+    private static final String[] COUNTRIES = { "Germany", "France", "United States", "Netherlands", "Finland" };
+    private static final String[] POLICIES = { "accept 1-65535", "reject 1-65535", "accept 80", "accept 443", "accept 1-1024" };
+
+    private SyntheticNetwork() {}
+
+    public static Node[] build(int relays, long seed) {
+        Random rnd = new Random(seed);
+        Node[] nodes = new Node[relays];
+        for (int i = 0; i < relays; i++) {
+            List<String> flags = new ArrayList<>();
+            if (rnd.nextInt(10) < 7) flags.add("Exit");
+            if (rnd.nextInt(10) < 9) flags.add("Fast");
+            if (rnd.nextInt(10) < 5) flags.add("Guard");
+            flags.add("Running");
+            if (rnd.nextInt(20) != 0) flags.add("Valid");
+
+            Node n = new Node(
+                    "relay" + i,
+                    "fp" + i,
+                    LocalDateTime.of(2025, 12, 3, 9, 0, 0),
+                    (10 + rnd.nextInt(4)) + "." + rnd.nextInt(6) + "." + rnd.nextInt(256) + "." + rnd.nextInt(256),
+                    9001,
+                    0,
+                    flags.toArray(new String[0]),
+                    "Tor 0.4.8.21",
+                    1 + rnd.nextInt(5000),
+                    COUNTRIES[rnd.nextInt(COUNTRIES.length)],
+                    POLICIES[rnd.nextInt(POLICIES.length)]);
+            n.setAsn(64500 + rnd.nextInt(8));
+            nodes[i] = n;
+        }
+        return nodes;
+    }
+
+    /** Writes nodes as a minimal consensus document that {@code ConsensusParser} reads back. */
+    public static void writeConsensus(Node[] nodes, LocalDateTime validAfter, Path file) throws IOException {
+        DateTimeFormatter dtf = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+        try (Writer w = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            w.write("network-status-version 3\n");
+            w.write("vote-status consensus\n");
+            w.write("valid-after " + validAfter.format(dtf) + "\n");
+            for (Node n : nodes) {
+                LocalDateTime published = n.getTimePublished() == null ? validAfter : n.getTimePublished();
+                w.write("r " + n.getNickname() + " " + n.getFingerprint() + " digest " + published.format(dtf)
+                        + " " + n.getIpAddress() + " " + n.getOrPort() + " " + n.getDirPort() + "\n");
+                w.write("s " + String.join(" ", n.getFlags()) + "\n");
+                w.write("v " + n.getVersion() + "\n");
+                w.write("w Bandwidth=" + n.getBandwidth() + "\n");
+                w.write("p " + n.getExitPolicy() + "\n");
+            }
+        }
+    }
+
+    /**
+     * Writes nodes as a microdesc-flavor consensus (no digest on r lines, m lines, no p lines)
+     * and their exit policies as the matching cached-microdescs file.
+     */
+    public static void writeMicrodescConsensus(Node[] nodes, LocalDateTime validAfter, Path consensus, Path microdescs)
+            throws IOException {
+        DateTimeFormatter dtf = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+        try (Writer w = Files.newBufferedWriter(consensus, StandardCharsets.UTF_8);
+             Writer md = Files.newBufferedWriter(microdescs, StandardCharsets.UTF_8)) {
+            w.write("network-status-version 3 microdesc\n");
+            w.write("vote-status consensus\n");
+            w.write("valid-after " + validAfter.format(dtf) + "\n");
+            for (Node n : nodes) {
+                String descriptor = "onion-key\n-----BEGIN RSA PUBLIC KEY-----\nkey" + n.getFingerprint()
+                        + "\n-----END RSA PUBLIC KEY-----\nntor-onion-key ntor" + n.getFingerprint() + "\n"
+                        + "p " + n.getExitPolicy() + "\n";
+                md.write("@last-listed " + validAfter.format(dtf) + "\n");
+                md.write(descriptor);
+
+                LocalDateTime published = n.getTimePublished() == null ? validAfter : n.getTimePublished();
+                w.write("r " + n.getNickname() + " " + n.getFingerprint() + " " + published.format(dtf)
+                        + " " + n.getIpAddress() + " " + n.getOrPort() + " " + n.getDirPort() + "\n");
+                w.write("m " + microdescDigest(descriptor) + "\n");
+                w.write("s " + String.join(" ", n.getFlags()) + "\n");
+                w.write("v " + n.getVersion() + "\n");
+                w.write("w Bandwidth=" + n.getBandwidth() + "\n");
+            }
+        }
+    }
+
+    public static String microdescDigest(String descriptor) {
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(descriptor.getBytes(StandardCharsets.UTF_8));
+            return Base64.getEncoder().withoutPadding().encodeToString(hash);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
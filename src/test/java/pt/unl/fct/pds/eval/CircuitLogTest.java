@@ -0,0 +1,143 @@
+package pt.unl.fct.pds.eval;
+
+import com.sun.management.UnixOperatingSystemMXBean;
+import junit.framework.TestCase;
+import pt.unl.fct.pds.SyntheticNetwork;
+import pt.unl.fct.pds.model.Circuit;
+import pt.unl.fct.pds.model.Node;
+import pt.unl.fct.pds.utils.PathSelector;
+import pt.unl.fct.pds.utils.RelayIndex;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+public class CircuitLogTest extends TestCase {
+
+    private final List<File> files = new ArrayList<>();
+
+    @Override
+    protected void tearDown() {
+        for (File f : files) f.delete();
+    }
+
+    public void testRoundTripPlainAndGzip() throws IOException {
+        Node[] nodes = SyntheticNetwork.build(30, 4);
+        nodes[0].setNickname("comma,name");
+        RelayIndex relays = new RelayIndex(nodes);
+
+        for (boolean gzip : new boolean[]{ false, true }) {
+            File log = temp(".pdsc");
+            Random rnd = new Random(1);
+            int[][] written = new int[10_000][];
+            try (CircuitLogWriter w = new CircuitLogWriter(log.toPath(), relays, gzip)) {
+                for (int i = 0; i < written.length; i++) {
+                    written[i] = new int[]{ rnd.nextInt(30), rnd.nextInt(30), rnd.nextInt(30) };
+                    // skipped trials and two interleaved selectors, like failed AppTest trials
+                    w.write(i % 2 == 0 ? "Tor" : "Geo", i * 3L, written[i][0], written[i][1], written[i][2]);
+                }
+            }
+
+            int[] seen = new int[1];
+            try (CircuitLogReader r = new CircuitLogReader(log.toPath())) {
+                assertEquals(30, r.relayCount());
+                assertEquals("comma,name", r.nickname(0));
+                assertEquals(nodes[7].getFingerprint(), r.fingerprint(7));
+                assertEquals(nodes[7].getBandwidth(), r.bandwidth(7));
+
+                long n = r.read((selector, trial, g, m, x) -> {
+                    int i = (int) (trial / 3);
+                    assertEquals(i % 2 == 0 ? "Tor" : "Geo", selector);
+                    assertEquals(written[i][0], g);
+                    assertEquals(written[i][1], m);
+                    assertEquals(written[i][2], x);
+                    seen[0]++;
+                });
+                assertEquals(written.length, n);
+            }
+            assertEquals(written.length, seen[0]);
+        }
+    }
+
+    public void testCsvConversionMatchesLegacyLayout() throws IOException {
+        Node[] nodes = SyntheticNetwork.build(40, 6);
+        nodes[3].setCountry("Korea, Republic of");
+        RelayIndex relays = new RelayIndex(nodes);
+        PathSelector tor = new PathSelector(nodes, new Random(2));
+
+        File log = temp(".pdsc");
+        StringBuilder expected = new StringBuilder(CircuitLogCsv.HEADER);
+        try (CircuitLogWriter w = new CircuitLogWriter(log.toPath(), relays, true)) {
+            for (int i = 0; i < 200; i++) {
+                Circuit c = tor.selectPath(80);
+                w.write("Tor", i, c);
+                String[] roles = { "guard", "middle", "exit" };
+                for (int k = 0; k < 3; k++) {
+                    Node n = c.getNodes()[k];
+                    expected.append(String.format("%s,%d,%s,%s,%s,%s,%s,%d\n", "Tor", i, roles[k],
+                            CircuitLogCsv.sanitize(n.getNickname()), CircuitLogCsv.sanitize(n.getFingerprint()),
+                            CircuitLogCsv.sanitize(n.getIpAddress()), CircuitLogCsv.sanitize(n.getCountry()),
+                            n.getBandwidth()));
+                }
+            }
+        }
+
+        File csv = temp(".csv");
+        assertEquals(200, CircuitLogCsv.convert(log.toPath(), csv.toPath()));
+        assertEquals(expected.toString(), new String(Files.readAllBytes(csv.toPath()), StandardCharsets.UTF_8));
+    }
+
+    public void testRejectedFilesAreClosed() throws IOException {
+        if (!(ManagementFactory.getOperatingSystemMXBean() instanceof UnixOperatingSystemMXBean)) return;
+        UnixOperatingSystemMXBean os = (UnixOperatingSystemMXBean) ManagementFactory.getOperatingSystemMXBean();
+        File text = File.createTempFile("circuits", ".txt");
+        File gzip = File.createTempFile("circuits", ".gz");
+        try {
+            Files.write(text.toPath(), "guard,middle,exit\n".getBytes(StandardCharsets.UTF_8));
+            Files.write(gzip.toPath(), new byte[]{ 0x1f, (byte) 0x8b, 0 });   // truncated gzip header
+            long before = os.getOpenFileDescriptorCount();
+            for (int i = 0; i < 100; i++) {
+                for (File f : new File[]{ text, gzip }) {
+                    try {
+                        new CircuitLogReader(f.toPath()).close();
+                        fail("read " + f);
+                    } catch (IOException expected) {
+                        // not a circuit log
+                    }
+                }
+            }
+            assertTrue(os.getOpenFileDescriptorCount() - before < 50);
+        } finally {
+            text.delete();
+            gzip.delete();
+        }
+    }
+
+    public void testLogIsAFractionOfTheCsv() throws IOException {
+        Node[] nodes = SyntheticNetwork.build(2000, 8);
+        RelayIndex relays = new RelayIndex(nodes);
+        Random rnd = new Random(3);
+
+        File log = temp(".pdsc");
+        try (CircuitLogWriter w = new CircuitLogWriter(log.toPath(), relays, false)) {
+            for (int i = 0; i < 100_000; i++) {
+                w.write("Geo", i, rnd.nextInt(2000), rnd.nextInt(2000), rnd.nextInt(2000));
+            }
+        }
+        File csv = temp(".csv");
+        CircuitLogCsv.convert(log.toPath(), csv.toPath());
+
+        assertTrue("log " + log.length() + " vs csv " + csv.length(), log.length() * 10 < csv.length());
+    }
+
+    private File temp(String suffix) throws IOException {
+        File f = File.createTempFile("circuit-log", suffix);
+        files.add(f);
+        return f;
+    }
+}
@@ -0,0 +1,91 @@
+package pt.unl.fct.pds.eval;
+
+import junit.framework.TestCase;
+import pt.unl.fct.pds.SyntheticNetwork;
+import pt.unl.fct.pds.model.Node;
+import pt.unl.fct.pds.utils.GeoSelector;
+import pt.unl.fct.pds.utils.PathSelector;
+
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+public class HistoricalReplayTest extends TestCase {
+
+    private static List<Callable<Node[]>> hours(int n) {
+        List<Callable<Node[]>> hours = new ArrayList<>();
+        for (int h = 0; h < n; h++) {
+            long seed = 100 + h;
+            hours.add(() -> SyntheticNetwork.build(120, seed));
+        }
+        return hours;
+    }
+
+    public void testCumulativeCurvesAreMonotoneAndConsistent() {
+        ReplayResult r = new HistoricalReplay(500, 2, 443, 3, n -> "Germany".equals(n.getCountry()))
+                .selector("Tor", PathSelector::new)
+                .selector("Geo", (relays, rng) -> new GeoSelector(relays, rng, false))
+                .run(hours(12), 5);
+
+        assertEquals(12, r.hourCount());
+        for (int s = 0; s < 2; s++) {
+            int prevC = 0, prevS = 0;
+            long bad = 0;
+            for (int h = 0; h < r.hourCount(); h++) {
+                assertEquals(1000, r.circuits(s, h) + r.failures(s, h));
+                assertTrue(r.clientsCompromised(s, h) >= prevC);
+                assertTrue(r.clientsSameCountry(s, h) >= prevS);
+                assertTrue(r.clientsCompromised(s, h) <= 500);
+                bad += r.compromisedCircuits(s, h);
+                // a client is counted at most once, and only after a compromised circuit
+                assertTrue(r.clientsCompromised(s, h) <= bad);
+                prevC = r.clientsCompromised(s, h);
+                prevS = r.clientsSameCountry(s, h);
+            }
+        }
+        // GeoSelector never puts guard and exit in one country while other exits exist
+        int geo = r.selectorIndex("Geo");
+        int tor = r.selectorIndex("Tor");
+        assertTrue(r.cumulativeSameCountry(geo, 11) < r.cumulativeSameCountry(tor, 11));
+    }
+
+    public void testAdversaryExtremes() {
+        ReplayResult all = new HistoricalReplay(50, 1, 443, 2, n -> true)
+                .selector("Tor", PathSelector::new).run(hours(3), 1);
+        assertEquals(1.0, all.cumulativeCompromised(0, 0), 0.0);
+
+        ReplayResult none = new HistoricalReplay(50, 1, 443, 2, n -> false)
+                .selector("Tor", PathSelector::new).run(hours(3), 1);
+        assertEquals(0.0, none.cumulativeCompromised(0, 2), 0.0);
+    }
+
+    public void testClientsKeepTheirGuard() {
+        // same consensus every hour; every exit is adversarial, so a client is compromised iff its guard is
+        List<Callable<Node[]>> hours = new ArrayList<>();
+        for (int h = 0; h < 6; h++) hours.add(() -> SyntheticNetwork.build(120, 3));
+        ReplayResult r = new HistoricalReplay(400, 3, 443, 2,
+                n -> Arrays.asList(n.getFlags()).contains("Exit") || "Germany".equals(n.getCountry()))
+                .selector("Tor", PathSelector::new)
+                .selector("Geo", (relays, rng) -> new GeoSelector(relays, rng, false))
+                .run(hours, 7);
+
+        for (int s = 0; s < 2; s++) {
+            int first = r.clientsCompromised(s, 0);
+            assertTrue(first > 0 && first < 400);
+            // guards never change, so no client is exposed for the first time after hour 0
+            assertEquals(first, r.clientsCompromised(s, 5));
+        }
+    }
+
+    public void testDeterministicForSeedAndThreads() throws Exception {
+        HistoricalReplay replay = new HistoricalReplay(300, 1, 80, 4, n -> n.getAsn() == 64501)
+                .selector("Tor", PathSelector::new);
+        StringWriter a = new StringWriter(), b = new StringWriter();
+        replay.run(hours(5), 9).writeCsv(a);
+        replay.run(hours(5), 9).writeCsv(b);
+        assertEquals(a.toString(), b.toString());
+        assertTrue(a.toString().split("\n")[0].endsWith(",cumulative_compromised_fraction,cumulative_same_country_fraction"));
+    }
+}
@@ -0,0 +1,82 @@
+package pt.unl.fct.pds.eval;
+
+import junit.framework.TestCase;
+import pt.unl.fct.pds.SyntheticNetwork;
+import pt.unl.fct.pds.model.Circuit;
+import pt.unl.fct.pds.model.Node;
+import pt.unl.fct.pds.utils.GeoSelector;
+import pt.unl.fct.pds.utils.PathSelector;
+import pt.unl.fct.pds.utils.RelayIndex;
+
+import java.util.Arrays;
+import java.util.List;
+
+public class LoadSimulatorTest extends TestCase {
+
+    private final Node[] nodes = SyntheticNetwork.build(150, 21);
+    private final RelayIndex relays = new RelayIndex(nodes);
+    private final LoadSimulator sim = new LoadSimulator(relays, 2);
+
+    // Tor's bandwidth weighting, on the packed path so the tests can push many circuits
+    private LoadReport bandwidthWeighted(List<LoadSimulator.Traffic> traffic, int circuits) {
+        return sim.run("Tor", rng -> new PathSelector(relays, rng), traffic, circuits, circuits / 4, 7);
+    }
+
+    public void testOfferedLoadMatchesTarget() {
+        List<LoadSimulator.Traffic> traffic = sim.scaleTo(Arrays.asList(
+                new LoadSimulator.Traffic(443, 10, 20, 40),
+                new LoadSimulator.Traffic(80, 5, 60, 10)), 0.3);
+        LoadReport r = bandwidthWeighted(traffic, 200_000);
+
+        assertEquals(0, r.getFailures());
+        assertEquals(150_000, r.getMeasured());
+        long carried = 0;
+        for (int i = 0; i < relays.size(); i++) carried += r.carried(i);
+        assertEquals(3L * 200_000, carried);
+
+        // Little's law: on average 30% of the eligible capacity is asked for
+        assertEquals(0.3, r.capacityUsed(), 0.03);
+        assertTrue(r.demandServed() > 0.9 && r.demandServed() <= 1.0);
+        assertTrue(r.throughputRatioPercentile(0.1) <= r.throughputRatioPercentile(0.5));
+    }
+
+    public void testOverloadIsReported() {
+        List<LoadSimulator.Traffic> traffic = sim.scaleTo(Arrays.asList(new LoadSimulator.Traffic(443, 1, 30, 50)), 2.0);
+        LoadReport r = bandwidthWeighted(traffic, 100_000);
+
+        assertTrue(r.congestedFraction() > 0.5);
+        assertTrue(r.demandServed() < 0.8);
+        int worst = r.topOverloaded(1)[0];
+        assertTrue(r.utilization(worst) > 1.0);
+        assertTrue(r.overloadedFraction(worst) > 0.5);
+    }
+
+    public void testSkewedSelectorIsUnfair() {
+        Node[] fixed = { nodes[0], nodes[1], nodes[2] };
+        List<LoadSimulator.Traffic> traffic = sim.scaleTo(Arrays.asList(new LoadSimulator.Traffic(443, 1, 30, 50)), 0.2);
+        LoadReport skewed = sim.run("Fixed", rng -> port -> new Circuit(1, fixed, 1), traffic, 20_000, 5_000, 3);
+        LoadReport weighted = bandwidthWeighted(traffic, 20_000);
+
+        assertTrue(skewed.jainFairness() < 0.05);
+        assertTrue(weighted.jainFairness() > 0.5);
+        int[] top = skewed.topOverloaded(3);
+        Arrays.sort(top);
+        assertTrue(Arrays.equals(new int[]{ 0, 1, 2 }, top));
+    }
+
+    public void testCountryPreferenceSkewsLoad() {
+        // two thirds of the relays in one country: GeoSelector must push guards and middles out of it
+        Node[] lopsided = SyntheticNetwork.build(150, 21);
+        for (int i = 0; i < lopsided.length; i++) if (i % 3 != 0) lopsided[i].setCountry("Germany");
+        RelayIndex index = new RelayIndex(lopsided);
+        LoadSimulator lopsidedSim = new LoadSimulator(index, 2);
+        List<LoadSimulator.Traffic> traffic = lopsidedSim.scaleTo(Arrays.asList(new LoadSimulator.Traffic(443, 1, 30, 50)), 0.4);
+
+        LoadReport tor = lopsidedSim.run("Tor", rng -> new PathSelector(index, rng), traffic, 60_000, 15_000, 7);
+        LoadReport geo = lopsidedSim.run("Geo", rng -> new GeoSelector(index, rng, false), traffic, 60_000, 15_000, 7);
+        // same offered load, but concentrated on the relays outside the dominant country
+        assertEquals(tor.capacityUsed(), geo.capacityUsed(), 1e-9);
+        assertTrue(geo.jainFairness() + " vs " + tor.jainFairness(), geo.jainFairness() < 0.8 * tor.jainFairness());
+        assertTrue(geo.congestedFraction() > tor.congestedFraction());
+    }
+}
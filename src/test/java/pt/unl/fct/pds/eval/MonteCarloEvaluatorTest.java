@@ -0,0 +1,59 @@
+package pt.unl.fct.pds.eval;
+
+import junit.framework.TestCase;
+import pt.unl.fct.pds.SyntheticNetwork;
+import pt.unl.fct.pds.model.Node;
+import pt.unl.fct.pds.utils.GeoSelector;
+import pt.unl.fct.pds.utils.PathSelector;
+import pt.unl.fct.pds.utils.RelayIndex;
+
+public class MonteCarloEvaluatorTest extends TestCase {
+
+    public void testCountersAddUpAcrossThreads() {
+        Node[] nodes = SyntheticNetwork.build(60, 3);
+        RelayIndex relays = new RelayIndex(nodes);
+        MonteCarloEvaluator eval = new MonteCarloEvaluator(relays, 3);
+
+        EvaluationResult r = eval.evaluate("Tor", rng -> new PathSelector(nodes, rng), 80, 10_001, 5);
+
+        assertEquals(10_001, r.getRequested());
+        assertEquals(10_001, r.getCompleted() + r.getFailures());
+        for (int role = 0; role < 3; role++) {
+            long sum = 0;
+            for (int i = 0; i < relays.size(); i++) sum += r.count(role, i);
+            assertEquals(r.getCompleted(), sum);
+        }
+        for (int i = 0; i < relays.size(); i++) {
+            if (r.count(EvaluationResult.GUARD, i) > 0) {
+                assertTrue(relays.hasFlags(i, RelayIndex.FLAG_GUARD));
+            }
+            double[] ci = r.frequencyCi(EvaluationResult.EXIT, i);
+            assertTrue(ci[0] <= r.frequency(EvaluationResult.EXIT, i));
+            assertTrue(ci[1] >= r.frequency(EvaluationResult.EXIT, i));
+        }
+    }
+
+    public void testSameSeedIsReproducible() {
+        Node[] nodes = SyntheticNetwork.build(40, 9);
+        MonteCarloEvaluator eval = new MonteCarloEvaluator(new RelayIndex(nodes), 2);
+
+        EvaluationResult a = eval.evaluate("Geo", rng -> new GeoSelector(nodes, rng), 443, 2_000, 11);
+        EvaluationResult b = eval.evaluate("Geo", rng -> new GeoSelector(nodes, rng), 443, 2_000, 11);
+
+        assertEquals(a.getDistinctCountry(), b.getDistinctCountry());
+        assertEquals(a.getSubnetCollisions(), b.getSubnetCollisions());
+        for (int i = 0; i < nodes.length; i++) {
+            assertEquals(a.count(EvaluationResult.MIDDLE, i), b.count(EvaluationResult.MIDDLE, i));
+        }
+    }
+
+    public void testGeoDiversifiesCountriesMoreThanTor() {
+        Node[] nodes = SyntheticNetwork.build(80, 21);
+        MonteCarloEvaluator eval = new MonteCarloEvaluator(new RelayIndex(nodes), 2);
+
+        EvaluationResult tor = eval.evaluate("Tor", rng -> new PathSelector(nodes, rng), 80, 5_000, 1);
+        EvaluationResult geo = eval.evaluate("Geo", rng -> new GeoSelector(nodes, rng), 80, 5_000, 1);
+
+        assertTrue(geo.distinctCountryRate() > tor.distinctCountryRate());
+    }
+}
@@ -0,0 +1,172 @@
+package pt.unl.fct.pds.eval;
+
+import junit.framework.TestCase;
+import pt.unl.fct.pds.SyntheticNetwork;
+import pt.unl.fct.pds.model.Node;
+import pt.unl.fct.pds.utils.RelayIndex;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+
+public class SelectionProbabilityCalculatorTest extends TestCase {
+
+    public void testMatchesEnumerationOfSelectorRules() {
+        for (long seed = 1; seed <= 4; seed++) {
+            Node[] nodes = SyntheticNetwork.build(35, seed);
+            SelectionProbabilityCalculator calc = new SelectionProbabilityCalculator(new RelayIndex(nodes));
+            for (int port : new int[]{ 80, 443 }) {
+                assertMatches(nodes, calc.forPathSelector(port), false, false);
+                assertMatches(nodes, calc.forGeoSelector(port, false), true, false);
+                assertMatches(nodes, calc.forGeoSelector(port, true), true, true);
+            }
+        }
+    }
+
+    public void testFallbackTiersWhenEverythingIsInOneSubnet() {
+        Node[] nodes = SyntheticNetwork.build(12, 5);
+        for (int i = 0; i < nodes.length; i++) {
+            nodes[i].setIpAddress("10.0.0." + (i + 1));
+            nodes[i].setCountry(i % 3 == 0 ? "France" : "Germany");
+        }
+        SelectionProbabilityCalculator calc = new SelectionProbabilityCalculator(new RelayIndex(nodes));
+
+        // PathSelector has no guard outside the exit's /16, GeoSelector falls back to the last tier
+        assertEquals(1.0, calc.forPathSelector(80).failureProbability(), 1e-12);
+        SelectionProbabilities geo = calc.forGeoSelector(80, false);
+        assertMatches(nodes, geo, true, false);
+        assertTrue(geo.failureProbability() < 1.0);
+    }
+
+    public void testDerivedMetrics() {
+        Node[] nodes = SyntheticNetwork.build(50, 8);
+        SelectionProbabilities p = new SelectionProbabilityCalculator(new RelayIndex(nodes)).forGeoSelector(80, false);
+
+        for (int role = 0; role < 3; role++) {
+            double total = 0;
+            for (double v : p.countryExposure(role).values()) total += v;
+            assertEquals(1.0, total, 1e-9);
+
+            double g = p.gini(role);
+            assertTrue(g >= 0 && g < 1);
+            double maxEntropy = Math.log(p.candidates(role).length) / Math.log(2);
+            assertTrue(p.entropy(role) > 0 && p.entropy(role) <= maxEntropy + 1e-9);
+        }
+    }
+
+    private static void assertMatches(Node[] nodes, SelectionProbabilities actual, boolean geo, boolean asn) {
+        double[][] expected = new double[3][nodes.length];
+        double failure = enumerate(nodes, actual.getDestPort(), geo, asn, expected);
+
+        assertEquals(failure, actual.failureProbability(), 1e-9);
+        for (int role = 0; role < 3; role++) {
+            for (int i = 0; i < nodes.length; i++) {
+                double want = failure >= 1 ? 0 : expected[role][i] / (1 - failure);
+                assertEquals(actual.getSelector() + " role " + role + " relay " + i,
+                        want, actual.probability(role, i), 1e-9);
+            }
+        }
+    }
+
+    // --- reference: the selectors' rules, applied by full enumeration ---
+    private static double enumerate(Node[] nodes, int port, boolean geo, boolean asn, double[][] out) {
+        List<Node> exits = new ArrayList<>();
+        for (Node n : nodes) {
+            if (has(n, "Exit") && has(n, "Fast") && has(n, "Running") && has(n, "Valid")
+                    && n.getBandwidth() > 0 && RelayIndex.exitPolicyAllows(n.getExitPolicy(), port)) exits.add(n);
+        }
+        if (exits.isEmpty()) return 1.0;
+
+        double failure = 0;
+        for (Node e : exits) {
+            double pe = share(e, exits);
+            List<Node> guards = geo ? geoGuards(nodes, e, asn) : torGuards(nodes, e);
+            if (guards.isEmpty()) { failure += pe; continue; }
+
+            for (Node g : guards) {
+                double pg = pe * share(g, guards);
+                List<Node> middles = geo ? geoMiddles(nodes, g, e, asn) : torMiddles(nodes, g, e);
+                if (middles.isEmpty()) { failure += pg; continue; }
+
+                for (Node m : middles) {
+                    double pm = pg * share(m, middles);
+                    out[EvaluationResult.GUARD][indexOf(nodes, g)] += pm;
+                    out[EvaluationResult.MIDDLE][indexOf(nodes, m)] += pm;
+                    out[EvaluationResult.EXIT][indexOf(nodes, e)] += pm;
+                }
+            }
+        }
+        return failure;
+    }
+
+    private static List<Node> torGuards(Node[] nodes, Node e) {
+        List<Node> out = new ArrayList<>();
+        for (Node n : nodes) {
+            if (has(n, "Guard") && has(n, "Running") && has(n, "Valid") && n.getBandwidth() > 0 && !same16(n, e)) out.add(n);
+        }
+        return out;
+    }
+
+    private static List<Node> torMiddles(Node[] nodes, Node g, Node e) {
+        List<Node> out = new ArrayList<>();
+        for (Node n : nodes) {
+            if (has(n, "Fast") && has(n, "Running") && has(n, "Valid") && n.getBandwidth() > 0
+                    && n != g && n != e && !same16(n, g) && !same16(n, e)) out.add(n);
+        }
+        return out;
+    }
+
+    private static List<Node> geoGuards(Node[] nodes, Node e, boolean asn) {
+        for (int tier = 1; tier <= 3; tier++) {
+            List<Node> out = new ArrayList<>();
+            for (Node n : nodes) {
+                if (!has(n, "Guard") || !has(n, "Running") || !has(n, "Valid") || n.getBandwidth() <= 0 || n == e) continue;
+                if (tier <= 2 && (same16(n, e) || sameAsn(asn, n, e))) continue;
+                if (tier == 1 && Objects.equals(n.getCountry(), e.getCountry())) continue;
+                out.add(n);
+            }
+            if (!out.isEmpty()) return out;
+        }
+        return new ArrayList<>();
+    }
+
+    private static List<Node> geoMiddles(Node[] nodes, Node g, Node e, boolean asn) {
+        for (int tier = 1; tier <= 3; tier++) {
+            List<Node> out = new ArrayList<>();
+            for (Node n : nodes) {
+                if (!has(n, "Fast") || !has(n, "Running") || !has(n, "Valid") || n.getBandwidth() <= 0 || n == g || n == e) continue;
+                if (tier <= 2 && (same16(n, g) || same16(n, e) || sameAsn(asn, n, g) || sameAsn(asn, n, e))) continue;
+                if (tier == 1 && (n.getCountry().equals(g.getCountry()) || n.getCountry().equals(e.getCountry()))) continue;
+                out.add(n);
+            }
+            if (!out.isEmpty()) return out;
+        }
+        return new ArrayList<>();
+    }
+
+    private static double share(Node n, List<Node> list) {
+        double total = 0;
+        for (Node x : list) total += x.getBandwidth();
+        return n.getBandwidth() / total;
+    }
+
+    private static boolean has(Node n, String flag) {
+        return Arrays.asList(n.getFlags()).contains(flag);
+    }
+
+    private static boolean same16(Node a, Node b) {
+        String[] pa = a.getIpAddress().split("\\.");
+        String[] pb = b.getIpAddress().split("\\.");
+        return pa[0].equals(pb[0]) && pa[1].equals(pb[1]);
+    }
+
+    private static boolean sameAsn(boolean enabled, Node a, Node b) {
+        return enabled && a.getAsn() != 0 && a.getAsn() == b.getAsn();
+    }
+
+    private static int indexOf(Node[] nodes, Node n) {
+        for (int i = 0; i < nodes.length; i++) if (nodes[i] == n) return i;
+        return -1;
+    }
+}
@@ -0,0 +1,128 @@
+package pt.unl.fct.pds.history;
+
+import junit.framework.TestCase;
+import pt.unl.fct.pds.SyntheticNetwork;
+import pt.unl.fct.pds.model.Node;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+public class RelayHistoryTest extends TestCase {
+    private static final LocalDateTime T0 = LocalDateTime.of(2025, 12, 3, 0, 0);
+
+    public void testStateAtEveryHourMatchesItsConsensus() {
+        List<Node[]> consensuses = churn(200, 40, 7);
+        RelayHistory history = new RelayHistory();
+        for (int h = 0; h < consensuses.size(); h++) history.addConsensus(T0.plusHours(h), consensuses.get(h));
+
+        assertEquals(consensuses.size(), history.hourCount());
+        for (int h = 0; h < consensuses.size(); h++) {
+            Map<String, Node> expected = new HashMap<>();
+            for (Node n : consensuses.get(h)) expected.put(n.getFingerprint(), n);
+
+            NetworkState state = history.stateAt(h);
+            assertEquals(T0.plusHours(h), state.validAfter());
+            Node[] actual = state.toNodes();
+            assertEquals(expected.size(), actual.length);
+            for (Node a : actual) {
+                Node e = expected.get(a.getFingerprint());
+                assertNotNull(e);
+                assertEquals(e.getNickname(), a.getNickname());
+                assertEquals(e.getIpAddress(), a.getIpAddress());
+                assertEquals(e.getOrPort(), a.getOrPort());
+                assertEquals(e.getBandwidth(), a.getBandwidth());
+                assertEquals(e.getCountry(), a.getCountry());
+                assertEquals(e.getExitPolicy(), a.getExitPolicy());
+                assertEquals(e.getVersion(), a.getVersion());
+                assertEquals(e.getAsn(), a.getAsn());
+                assertEquals(new HashSet<>(Arrays.asList(e.getFlags())), new HashSet<>(Arrays.asList(a.getFlags())));
+            }
+        }
+    }
+
+    public void testSeriesFollowsOneRelay() {
+        List<Node[]> consensuses = churn(100, 150, 3);
+        RelayHistory history = new RelayHistory();
+        for (int h = 0; h < consensuses.size(); h++) history.addConsensus(T0.plusHours(h), consensuses.get(h));
+
+        for (String fp : new String[]{ "fp0", "fp5", "fp42" }) {
+            int id = history.relayId(fp);
+            int[] bw = history.series(id, RelayHistory.BANDWIDTH);
+            int[] present = history.series(id, RelayHistory.PRESENT);
+            for (int h = 0; h < consensuses.size(); h++) {
+                Node n = find(consensuses.get(h), fp);
+                assertEquals(n == null ? 0 : 1, present[h]);
+                assertEquals(n == null ? RelayHistory.ABSENT : n.getBandwidth(), bw[h]);
+                assertEquals(bw[h], history.valueAt(id, RelayHistory.BANDWIDTH, h));
+            }
+        }
+        assertEquals(-1, history.relayId("nope"));
+    }
+
+    public void testUnchangedConsensusCostsNothing() {
+        Node[] nodes = SyntheticNetwork.build(300, 1);
+        RelayHistory history = new RelayHistory();
+        history.addConsensus(T0, nodes);
+        long bytes = history.encodedBytes();
+        long changes = history.changeCount();
+        for (int h = 1; h < 24; h++) history.addConsensus(T0.plusHours(h), nodes);
+
+        assertEquals(bytes, history.encodedBytes());
+        assertEquals(changes, history.changeCount());
+        assertEquals(300, history.stateAt(23).size());
+    }
+
+    public void testHourIndexAndOrdering() {
+        RelayHistory history = new RelayHistory();
+        Node[] nodes = SyntheticNetwork.build(5, 2);
+        history.addConsensus(T0, nodes);
+        history.addConsensus(T0.plusHours(2), nodes);
+
+        assertEquals(-1, history.hourIndex(T0.minusMinutes(1)));
+        assertEquals(0, history.hourIndex(T0.plusMinutes(59)));
+        assertEquals(1, history.hourIndex(T0.plusHours(5)));
+        try {
+            history.addConsensus(T0.plusHours(1), nodes);
+            fail("out of order consensus accepted");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    // hourly consensuses where relays drift in bandwidth, leave, rejoin and change address
+    private static List<Node[]> churn(int relays, int hours, long seed) {
+        Random rnd = new Random(seed);
+        Node[] base = SyntheticNetwork.build(relays, seed);
+        List<Node[]> out = new ArrayList<>();
+        for (int h = 0; h < hours; h++) {
+            List<Node> hour = new ArrayList<>();
+            for (Node b : base) {
+                if (rnd.nextInt(10) == 0) continue;
+                if (rnd.nextInt(3) == 0) b.setBandwidth(1 + rnd.nextInt(5000));
+                if (rnd.nextInt(50) == 0) b.setIpAddress("10.9." + rnd.nextInt(256) + "." + rnd.nextInt(256));
+                if (rnd.nextInt(40) == 0) b.setFlags(new String[]{ "Running", "Valid" });
+                hour.add(copy(b));
+            }
+            out.add(hour.toArray(new Node[0]));
+        }
+        return out;
+    }
+
+    private static Node copy(Node b) {
+        Node n = new Node(b.getNickname(), b.getFingerprint(), b.getTimePublished(), b.getIpAddress(),
+                b.getOrPort(), b.getDirPort(), b.getFlags(), b.getVersion(), b.getBandwidth(),
+                b.getCountry(), b.getExitPolicy());
+        n.setAsn(b.getAsn());
+        return n;
+    }
+
+    private static Node find(Node[] nodes, String fp) {
+        for (Node n : nodes) if (n.getFingerprint().equals(fp)) return n;
+        return null;
+    }
+}
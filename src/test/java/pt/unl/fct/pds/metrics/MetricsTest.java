@@ -0,0 +1,112 @@
+package pt.unl.fct.pds.metrics;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import junit.framework.TestCase;
+import pt.unl.fct.pds.SyntheticNetwork;
+import pt.unl.fct.pds.model.Node;
+import pt.unl.fct.pds.utils.GeoSelector;
+import pt.unl.fct.pds.utils.PathSelector;
+
+import java.io.File;
+import java.time.Duration;
+import java.util.List;
+import java.util.Random;
+
+public class MetricsTest extends TestCase {
+
+    @Override
+    protected void setUp() {
+        Metrics.reset();
+    }
+
+    @Override
+    protected void tearDown() {
+        Metrics.setEnabled(false);
+        Metrics.reset();
+    }
+
+    public void testHistogramPercentiles() {
+        LatencyHistogram h = new LatencyHistogram("test");
+        for (long v = 1; v <= 10_000; v++) h.record(v * 100);
+
+        assertEquals(10_000, h.count());
+        assertEquals(1_000_000, h.max());
+        assertEquals(500_050.0, h.mean(), 1e-6);
+        assertTrue(Math.abs(h.percentile(0.5) - 500_000) <= 500_000 / 8);
+        assertTrue(Math.abs(h.percentile(0.99) - 990_000) <= 990_000 / 8);
+        for (int b = 0; b < 300; b++) {
+            assertEquals(b, LatencyHistogram.bucket(LatencyHistogram.upperBound(b)));
+        }
+    }
+
+    public void testDisabledRecordsNothing() {
+        Metrics.setEnabled(false);
+        Node[] nodes = SyntheticNetwork.build(30, 2);
+        new PathSelector(nodes, new Random(1)).selectPath(80);
+
+        assertEquals(0L, Metrics.snapshot().get("tor.exit.latency.count"));
+        assertEquals(0L, Metrics.snapshot().get("tor.guard.tier1"));
+    }
+
+    public void testSelectionsAndTiersAreCounted() {
+        Metrics.setEnabled(true);
+        Node[] nodes = SyntheticNetwork.build(30, 2);
+        PathSelector tor = new PathSelector(nodes, new Random(1));
+        GeoSelector geo = new GeoSelector(nodes, new Random(1));
+        for (int i = 0; i < 20; i++) {
+            tor.selectPath(80);
+            geo.selectPath(80);
+        }
+
+        MetricsSnapshot s = Metrics.snapshot();
+        assertEquals(20L, s.get("tor.exit.latency.count"));
+        assertEquals(20L, s.get("tor.middle.tier1"));
+        assertEquals(20L, s.get("geo.guard.latency.count"));
+        long tiers = s.get("geo.middle.tier1").longValue() + s.get("geo.middle.tier2").longValue()
+                + s.get("geo.middle.tier3").longValue();
+        assertEquals(20L, tiers);
+        assertTrue(s.get("geo.exit.latency.p50").longValue() > 0);
+
+        // no exit policy accepts port 0
+        try {
+            tor.selectPath(0);
+            fail("expected no exit");
+        } catch (IllegalStateException expected) {}
+        assertEquals(1L, Metrics.snapshot().get("tor.exit.empty"));
+    }
+
+    public void testJfrEventsAreEmitted() throws Exception {
+        // events follow the recording alone, not the histogram flag
+        Metrics.setEnabled(false);
+        Node[] nodes = SyntheticNetwork.build(30, 2);
+        File dump = File.createTempFile("metrics", ".jfr");
+        try (Recording recording = new Recording()) {
+            recording.enable("pt.unl.fct.pds.Selection");
+            recording.start();
+            new GeoSelector(nodes, new Random(1)).selectPath(443);
+            recording.stop();
+            recording.dump(dump.toPath());
+
+            List<RecordedEvent> events = RecordingFile.readAllEvents(dump.toPath());
+            int selections = 0;
+            Duration total = Duration.ZERO;
+            for (RecordedEvent e : events) {
+                if (e.getEventType().getName().equals("pt.unl.fct.pds.Selection")) {
+                    assertEquals("Geo", e.getString("selector"));
+                    assertEquals(443, e.getInt("destPort"));
+                    assertFalse(e.getDuration().isNegative());
+                    total = total.plus(e.getDuration());
+                    selections++;
+                }
+            }
+            assertEquals(3, selections);
+            // begin() and commit() give the events JFR's own duration
+            assertTrue(total.toNanos() > 0);
+            assertEquals(0L, Metrics.snapshot().get("geo.exit.latency.count"));
+        } finally {
+            dump.delete();
+        }
+    }
+}
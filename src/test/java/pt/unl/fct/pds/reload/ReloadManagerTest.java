@@ -0,0 +1,143 @@
+package pt.unl.fct.pds.reload;
+
+import junit.framework.TestCase;
+import pt.unl.fct.pds.SyntheticNetwork;
+import pt.unl.fct.pds.model.Circuit;
+import pt.unl.fct.pds.utils.CircuitSelector;
+import pt.unl.fct.pds.utils.GeoSelector;
+import pt.unl.fct.pds.utils.PackedSelector;
+import pt.unl.fct.pds.utils.PathSelector;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDateTime;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Stream;
+
+public class ReloadManagerTest extends TestCase {
+    private static final LocalDateTime T0 = LocalDateTime.of(2025, 12, 3, 9, 0);
+
+    private Path dir;
+    private Path consensus;
+
+    @Override
+    protected void setUp() throws IOException {
+        dir = Files.createTempDirectory("reload");
+        consensus = dir.resolve("consensus.txt");
+        publish(60, 1, T0);
+    }
+
+    @Override
+    protected void tearDown() throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            files.forEach(p -> p.toFile().delete());
+        }
+        Files.deleteIfExists(dir);
+    }
+
+    // writes a consensus next to the watched file and renames it into place
+    private void publish(int relays, long seed, LocalDateTime validAfter) throws IOException {
+        Path tmp = dir.resolve("consensus.tmp");
+        SyntheticNetwork.writeConsensus(SyntheticNetwork.build(relays, seed), validAfter, tmp);
+        Files.move(tmp, consensus, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private ReloadManager manager() {
+        return new ReloadManager(consensus, null, null)
+                .selector("Tor", (relays, asn) -> new PathSelector(relays, new Random(1)))
+                .selector("Geo", (relays, asn) -> new GeoSelector(relays, new Random(1), asn));
+    }
+
+    public void testReloadPublishesNewSnapshotAndKeepsOldOneIntact() throws IOException {
+        try (ReloadManager m = manager()) {
+            NetworkSnapshot first = m.reload();
+            assertEquals(1, first.getVersion());
+            assertEquals(60, first.getNodes().length);
+            assertEquals(T0, first.getValidAfter());
+            // selectors share the snapshot's index instead of building their own
+            assertSame(first.getRelays(), ((PackedSelector) first.selector("Geo")).getRelays());
+
+            publish(80, 2, T0.plusHours(1));
+            NetworkSnapshot second = m.reload();
+            assertSame(second, m.current());
+            assertEquals(2, second.getVersion());
+            assertEquals(80, second.getRelays().size());
+            assertEquals(60, first.getNodes().length);
+
+            Circuit c = m.selector("Geo").selectPath(443);
+            assertTrue(second.getRelays().indexOf(c.getNodes()[0]) >= 0);
+        }
+    }
+
+    public void testFailedReloadKeepsCurrentSnapshot() throws IOException {
+        try (ReloadManager m = manager()) {
+            NetworkSnapshot first = m.reload();
+            Files.write(consensus, new byte[0]);
+            try {
+                m.reload();
+                fail("empty consensus published");
+            } catch (IOException expected) {
+            }
+            assertSame(first, m.current());
+            assertEquals(1, m.getFailures());
+        }
+    }
+
+    public void testWatcherReloadsAfterFileChanges() throws Exception {
+        try (ReloadManager m = manager().quietPeriod(50)) {
+            AtomicReference<NetworkSnapshot> published = new AtomicReference<>();
+            m.addListener(published::set);
+            m.start();
+            assertEquals(1, m.current().getVersion());
+
+            publish(70, 3, T0.plusHours(1));
+            long deadline = System.currentTimeMillis() + 20_000;
+            while (m.current().getVersion() < 2 && System.currentTimeMillis() < deadline) Thread.sleep(20);
+
+            assertTrue("no reload after the consensus changed", m.current().getVersion() >= 2);
+            assertEquals(70, m.current().getNodes().length);
+            assertSame(m.current(), published.get());
+        }
+    }
+
+    public void testSelectionsKeepRunningDuringReloads() throws Exception {
+        try (ReloadManager m = manager()) {
+            m.reload();
+            CircuitSelector tor = m.selector("Tor");
+            AtomicBoolean stop = new AtomicBoolean();
+            AtomicLong built = new AtomicLong();
+            AtomicReference<Throwable> error = new AtomicReference<>();
+
+            Thread[] clients = new Thread[3];
+            for (int t = 0; t < clients.length; t++) {
+                clients[t] = new Thread(() -> {
+                    try {
+                        while (!stop.get()) {
+                            Circuit c = tor.selectPath(443);
+                            assertEquals(3, c.getNodes().length);
+                            built.incrementAndGet();
+                        }
+                    } catch (Throwable e) {
+                        error.set(e);
+                    }
+                });
+                clients[t].start();
+            }
+            for (int i = 0; i < 5; i++) {
+                publish(50 + 10 * i, 10 + i, T0.plusHours(i + 1));
+                m.reload();
+            }
+            stop.set(true);
+            for (Thread t : clients) t.join();
+
+            assertNull(error.get());
+            assertTrue(built.get() > 0);
+            assertEquals(6, m.current().getVersion());
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package pt.unl.fct.pds.service;
+
+import junit.framework.TestCase;
+import pt.unl.fct.pds.SyntheticNetwork;
+import pt.unl.fct.pds.reload.ReloadManager;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public class SelectionServiceTest extends TestCase {
+    private Path consensus;
+    private ReloadManager network;
+    private SelectionService service;
+
+    @Override
+    protected void setUp() throws IOException {
+        consensus = Files.createTempFile("service", ".txt");
+        SyntheticNetwork.writeConsensus(SyntheticNetwork.build(80, 6), LocalDateTime.of(2025, 12, 3, 9, 0), consensus);
+        network = SelectionService.defaultNetwork(consensus, null, null);
+        network.reload();
+        service = new SelectionService(network, 0, 4, 64).start();
+    }
+
+    @Override
+    protected void tearDown() throws IOException {
+        service.close();
+        network.close();
+        Files.deleteIfExists(consensus);
+    }
+
+    private String[] get(String pathAndQuery) throws IOException {
+        HttpURLConnection c = (HttpURLConnection) new URL("http://127.0.0.1:" + service.getPort() + pathAndQuery).openConnection();
+        int status = c.getResponseCode();
+        InputStream in = status < 400 ? c.getInputStream() : c.getErrorStream();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buf = new byte[4096];
+        for (int n; (n = in.read(buf)) > 0; ) out.write(buf, 0, n);
+        in.close();
+        return new String[]{ String.valueOf(status), new String(out.toByteArray(), StandardCharsets.UTF_8) };
+    }
+
+    private static int occurrences(String s, String part) {
+        int n = 0;
+        for (int i = s.indexOf(part); i >= 0; i = s.indexOf(part, i + 1)) n++;
+        return n;
+    }
+
+    public void testSelectBothSelectors() throws IOException {
+        for (String selector : new String[]{ "Tor", "Geo" }) {
+            String[] r = get("/select?selector=" + selector + "&port=443&count=5");
+            assertEquals("200", r[0]);
+            assertTrue(r[1].startsWith("{\"version\":1,\"selector\":\"" + selector + "\",\"port\":443"));
+            assertEquals(5, occurrences(r[1], "\"guard\":"));
+            assertEquals(5, occurrences(r[1], "\"exit\":"));
+        }
+        assertEquals(10, service.getCircuits());
+    }
+
+    public void testErrors() throws IOException {
+        assertEquals("400", get("/select?selector=Tor")[0]);
+        assertEquals("400", get("/select?selector=Tor&port=80&count=0")[0]);
+        assertEquals("404", get("/select?selector=Nope&port=80")[0]);
+        String[] none = get("/select?selector=Tor&port=0");
+        assertEquals("422", none[0]);
+        assertTrue(none[1].contains("\"error\""));
+    }
+
+    public void testStatus() throws IOException {
+        String[] r = get("/status");
+        assertEquals("200", r[0]);
+        assertTrue(r[1].contains("\"relays\":80"));
+        assertTrue(r[1].contains("\"selectors\":[\"Tor\",\"Geo\"]"));
+    }
+
+    public void testConcurrentRequestsAreBatched() throws Exception {
+        // requests queue up while the dispatcher is held back, then drain in batches of at most 64
+        SelectionService held = new SelectionService(network, 0, 4, 64);
+        held.startHttp();
+        ExecutorService clients = Executors.newFixedThreadPool(32);
+        try {
+            List<Future<String[]>> replies = new ArrayList<>();
+            for (int i = 0; i < 200; i++) {
+                String selector = i % 2 == 0 ? "Tor" : "Geo";
+                replies.add(clients.submit(() -> {
+                    HttpURLConnection c = (HttpURLConnection) new URL("http://127.0.0.1:" + held.getPort()
+                            + "/select?selector=" + selector + "&port=443").openConnection();
+                    return new String[]{ String.valueOf(c.getResponseCode()) };
+                }));
+            }
+            long deadline = System.currentTimeMillis() + 10_000;
+            while (held.queued() < 32 && System.currentTimeMillis() < deadline) Thread.sleep(10);
+            assertTrue(held.queued() >= 32);
+            held.startDispatcher();
+            for (Future<String[]> f : replies) assertEquals("200", f.get()[0]);
+        } finally {
+            clients.shutdown();
+            held.close();
+        }
+        assertEquals(200, held.getRequests());
+        assertEquals(200, held.getCircuits());
+        // the first drain alone takes 32 queued requests in two groups (Tor and Geo) of at most 4 tasks
+        assertTrue(held.getBatches() + " batches", held.getBatches() <= held.getRequests() - 24);
+    }
+
+    public void testGroupsAreSplitAcrossWorkers() {
+        List<SelectionService.Request> group = new ArrayList<>();
+        for (int i = 0; i < 32; i++) group.add(new SelectionService.Request(null, "Geo", 443, 1));
+        List<List<SelectionService.Request>> chunks = SelectionService.chunks(group, 4);
+        assertEquals(4, chunks.size());
+        for (List<SelectionService.Request> c : chunks) assertEquals(8, c.size());
+
+        // one large request gets a chunk of its own instead of holding the small ones back
+        group.add(0, new SelectionService.Request(null, "Geo", 443, SelectionService.MAX_COUNT));
+        chunks = SelectionService.chunks(group, 4);
+        assertTrue(chunks.size() <= 4);
+        assertEquals(1, chunks.get(0).size());
+        int requests = 0;
+        for (List<SelectionService.Request> c : chunks) requests += c.size();
+        assertEquals(33, requests);
+
+        assertEquals(1, SelectionService.chunks(group.subList(0, 1), 4).size());
+    }
+}
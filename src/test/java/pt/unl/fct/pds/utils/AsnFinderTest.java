@@ -0,0 +1,71 @@
+package pt.unl.fct.pds.utils;
+
+import junit.framework.TestCase;
+import pt.unl.fct.pds.model.Circuit;
+import pt.unl.fct.pds.model.Node;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Random;
+
+public class AsnFinderTest extends TestCase {
+
+    private File csv;
+
+    @Override
+    protected void setUp() throws IOException {
+        csv = File.createTempFile("asn-blocks", ".csv");
+        try (Writer w = new FileWriter(csv)) {
+            w.write("network,autonomous_system_number,autonomous_system_organization\n");
+            w.write("10.1.0.0/16,64500,\"Example, Inc.\"\n");
+            w.write("10.2.0.0/24,64501,Other\n");
+            w.write("2001:db8::/32,64502,V6Only\n");
+            w.write("10.3.0.0/16,64500,\"Example, Inc.\"\n");
+        }
+    }
+
+    @Override
+    protected void tearDown() {
+        csv.delete();
+    }
+
+    public void testCsvPrefixLookup() throws Exception {
+        try (AsnFinder finder = new AsnFinder(csv.getPath())) {
+            assertEquals(3, finder.size());
+            assertEquals(64500, finder.lookupAsnForIp("10.1.0.0"));
+            assertEquals(64500, finder.lookupAsnForIp("10.1.255.255"));
+            assertEquals(64501, finder.lookupAsnForIp("10.2.0.77:9001"));
+            assertEquals(AsnFinder.UNKNOWN_ASN, finder.lookupAsnForIp("10.2.1.1"));
+            assertEquals(64500, finder.lookupAsnForIp("10.3.4.5"));
+            assertEquals(AsnFinder.UNKNOWN_ASN, finder.lookupAsnForIp("9.9.9.9"));
+            assertEquals(AsnFinder.UNKNOWN_ASN, finder.lookupAsnForIp("not-an-ip"));
+            assertEquals("Example, Inc.", finder.getOrganization(64500));
+        }
+    }
+
+    public void testGeoSelectorAvoidsSameAsn() {
+        // every relay is a Fast/Guard/Exit in its own country and /16, but relays 0-2 share one AS
+        Node[] nodes = new Node[4];
+        for (int i = 0; i < nodes.length; i++) {
+            nodes[i] = new Node("relay" + i, "fp" + i, null, "10." + i + ".0.1", 9001, 0,
+                    new String[]{ "Exit", "Fast", "Guard", "Running", "Valid" }, null,
+                    1000, "C" + i, "accept 1-65535");
+            nodes[i].setAsn(i < 3 ? 64500 : 64501);
+        }
+
+        GeoSelector geo = new GeoSelector(nodes, new Random(7), true);
+        for (int t = 0; t < 50; t++) {
+            Circuit c = geo.selectPath(80);
+            Node[] path = c.getNodes();
+            int shared = 0;
+            if (path[0].getAsn() == path[1].getAsn()) shared++;
+            if (path[0].getAsn() == path[2].getAsn()) shared++;
+            if (path[1].getAsn() == path[2].getAsn()) shared++;
+            // only two ASes exist, so the middle may fall back, but guard and exit must differ
+            assertTrue(path[0].getAsn() != path[2].getAsn());
+            assertTrue(shared <= 1);
+        }
+    }
+}
@@ -0,0 +1,213 @@
+package pt.unl.fct.pds.utils;
+
+import junit.framework.TestCase;
+import pt.unl.fct.pds.SyntheticNetwork;
+import pt.unl.fct.pds.model.Node;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+public class ConsensusParserTest extends TestCase {
+
+    private static Node[] parse(Path file, boolean lazy) {
+        ConsensusParser parser = new ConsensusParser(file.toString(), null);
+        parser.setLazy(lazy);
+        return parser.parseConsensus();
+    }
+
+    private static void assertSameNodes(Node[] expected, Node[] actual) {
+        assertEquals(expected.length, actual.length);
+        for (int i = 0; i < expected.length; i++) {
+            Node e = expected[i], a = actual[i];
+            assertEquals(e.getNickname(), a.getNickname());
+            assertEquals(e.getFingerprint(), a.getFingerprint());
+            assertEquals(e.getTimePublished(), a.getTimePublished());
+            assertEquals(e.getIpAddress(), a.getIpAddress());
+            assertEquals(e.getOrPort(), a.getOrPort());
+            assertEquals(e.getDirPort(), a.getDirPort());
+            assertTrue(Arrays.equals(e.getFlags(), a.getFlags()));
+            assertEquals(e.getVersion(), a.getVersion());
+            assertEquals(e.getBandwidth(), a.getBandwidth());
+            assertEquals(e.getCountry(), a.getCountry());
+            assertEquals(e.getExitPolicy(), a.getExitPolicy());
+        }
+    }
+
+    public void testLazyMatchesEager() throws IOException {
+        Path file = Files.createTempFile("consensus", ".txt");
+        try {
+            SyntheticNetwork.writeConsensus(SyntheticNetwork.build(200, 4), LocalDateTime.of(2024, 3, 1, 12, 0), file);
+            Node[] eager = parse(file, false);
+            Node[] lazy = parse(file, true);
+            assertEquals(200, eager.length);
+            assertSameNodes(eager, lazy);
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    public void testLazyKeepsLineQuirks() throws IOException {
+        String consensus = "valid-after 2024-03-01 12:00:00\r\n"
+                + "r a AAAA digest 2024-02-29   23:59:59 10.0.0.1 9001 0\r\n"
+                + "s Fast Running Valid\r\n"
+                + "v Tor 0.4.8.9\r\n"
+                + "w Bandwidth=+15 Unmeasured=1\r\n"
+                + "p accept 80,443\r\n"
+                + "r b BBBB digest 2024-13-01 00:00:00 10.0.0.2 x 80\n"   // bad date and port
+                + "s Fast Running Valid\n"
+                + "v   \n"
+                + "w Bandwidth=oops\n"
+                + "r truncated\n"
+                + "r c CCCC digest 2024-02-29 10:00:00 10.0.0.3 443 0\n"
+                + "p accept 80,443\n";
+        Path file = Files.createTempFile("consensus", ".txt");
+        try {
+            Files.write(file, consensus.getBytes(StandardCharsets.UTF_8));
+            Node[] eager = parse(file, false);
+            Node[] lazy = parse(file, true);
+            assertEquals(4, lazy.length);
+            assertSameNodes(eager, lazy);
+
+            assertEquals(LocalDateTime.of(2024, 2, 29, 23, 59, 59), lazy[0].getTimePublished());
+            assertEquals(15, lazy[0].getBandwidth());
+            assertNull(lazy[1].getTimePublished());
+            assertEquals("", lazy[1].getVersion());
+            assertSame(lazy[0].getExitPolicy(), lazy[3].getExitPolicy());
+            assertSame(lazy[0].getFlags(), lazy[1].getFlags());
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    public void testBothModesDecodeUtf8() throws IOException {
+        Path file = Files.createTempFile("consensus", ".txt");
+        try {
+            Files.write(file, ("r r\u00e9lais AAAA digest 2024-02-29 23:59:59 10.0.0.1 9001 0\n"
+                    + "s Fast Running Valid\nv Tor 0.4.8.9 (\u00fcber)\nw Bandwidth=5\n").getBytes(StandardCharsets.UTF_8));
+            for (boolean lazy : new boolean[]{ false, true }) {
+                Node n = parse(file, lazy)[0];
+                assertEquals("r\u00e9lais", n.getNickname());
+                assertEquals("Tor 0.4.8.9 (\u00fcber)", n.getVersion());
+            }
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    public void testSettersOverrideDeferredFields() throws IOException {
+        Path file = Files.createTempFile("consensus", ".txt");
+        try {
+            SyntheticNetwork.writeConsensus(SyntheticNetwork.build(5, 1), LocalDateTime.of(2024, 3, 1, 12, 0), file);
+            Node n = parse(file, true)[0];
+            n.setVersion("Tor 0.5.0");
+            n.setTimePublished(null);
+            assertEquals("Tor 0.5.0", n.getVersion());
+            assertNull(n.getTimePublished());
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    public void testMicrodescFlavor() throws IOException {
+        Node[] source = SyntheticNetwork.build(120, 6);
+        Path consensus = Files.createTempFile("consensus", ".txt");
+        Path microdescs = Files.createTempFile("microdescs", ".txt");
+        try {
+            SyntheticNetwork.writeMicrodescConsensus(source, LocalDateTime.of(2024, 3, 1, 12, 0), consensus, microdescs);
+            for (boolean lazy : new boolean[]{ false, true }) {
+                ConsensusParser parser = new ConsensusParser(consensus.toString(), null);
+                parser.setLazy(lazy);
+                Node[] bare = parser.parseConsensus();
+                assertEquals(ConsensusParser.FLAVOR_MICRODESC, parser.getFlavor());
+                assertEquals(LocalDateTime.of(2024, 3, 1, 12, 0), parser.getValidAfter());
+                assertNull(bare[0].getExitPolicy());
+
+                parser.setMicrodescriptors(microdescs.toString());
+                Node[] nodes = parser.parseConsensus();
+                assertEquals(source.length, nodes.length);
+                for (int i = 0; i < nodes.length; i++) {
+                    assertEquals(source[i].getFingerprint(), nodes[i].getFingerprint());
+                    assertEquals(source[i].getTimePublished(), nodes[i].getTimePublished());
+                    assertEquals(source[i].getIpAddress(), nodes[i].getIpAddress());
+                    assertEquals(source[i].getOrPort(), nodes[i].getOrPort());
+                    assertEquals(source[i].getBandwidth(), nodes[i].getBandwidth());
+                    assertTrue(Arrays.equals(source[i].getFlags(), nodes[i].getFlags()));
+                    assertEquals(source[i].getExitPolicy(), nodes[i].getExitPolicy());
+                    assertNotNull(nodes[i].getMicrodescriptor());
+                }
+                new PathSelector(nodes, new Random(1)).selectPath(443);
+            }
+        } finally {
+            Files.deleteIfExists(consensus);
+            Files.deleteIfExists(microdescs);
+        }
+    }
+
+    public void testFlavorWithoutHeader() throws IOException {
+        Path file = Files.createTempFile("consensus", ".txt");
+        try {
+            Files.write(file, ("r a AAAA 2024-02-29 23:59:59 10.0.0.1 9001 0\nm sha256digest\nw Bandwidth=7\n")
+                    .getBytes(StandardCharsets.UTF_8));
+            for (boolean lazy : new boolean[]{ false, true }) {
+                ConsensusParser parser = new ConsensusParser(file.toString(), null);
+                parser.setLazy(lazy);
+                Node n = parser.parseConsensus()[0];
+                assertEquals(ConsensusParser.FLAVOR_MICRODESC, parser.getFlavor());
+                assertEquals("10.0.0.1", n.getIpAddress());
+                assertEquals(9001, n.getOrPort());
+                assertEquals("sha256digest", n.getMicrodescriptor());
+                assertEquals(LocalDateTime.of(2024, 2, 29, 23, 59, 59), n.getTimePublished());
+            }
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    public void testCompressedInput() throws IOException {
+        Path plain = Files.createTempFile("consensus", ".txt");
+        Path gzip = Files.createTempFile("consensus", ".gz");
+        Path zlib = Files.createTempFile("consensus", ".z");
+        Path xz = Files.createTempFile("consensus", ".xz");
+        try {
+            SyntheticNetwork.writeConsensus(SyntheticNetwork.build(300, 8), LocalDateTime.of(2024, 3, 1, 12, 0), plain);
+            byte[] text = Files.readAllBytes(plain);
+            // two gzip members back to back, as appending archives produces
+            try (OutputStream out = Files.newOutputStream(gzip)) {
+                int half = text.length / 2;
+                GZIPOutputStream first = new GZIPOutputStream(out);
+                first.write(text, 0, half);
+                first.finish();
+                GZIPOutputStream second = new GZIPOutputStream(out);
+                second.write(text, half, text.length - half);
+                second.finish();
+            }
+            try (OutputStream out = new DeflaterOutputStream(Files.newOutputStream(zlib))) {
+                out.write(text);
+            }
+            Files.write(xz, new byte[]{ (byte) 0xfd, '7', 'z', 'X', 'Z', 0, 0, 4 });
+
+            assertEquals(ConsensusInput.PLAIN, ConsensusInput.detect(plain));
+            assertEquals(ConsensusInput.GZIP, ConsensusInput.detect(gzip));
+            assertEquals(ConsensusInput.ZLIB, ConsensusInput.detect(zlib));
+            assertEquals(ConsensusInput.XZ, ConsensusInput.detect(xz));
+            assertTrue(Arrays.equals(text, ConsensusInput.readAll(gzip)));
+
+            Node[] expected = parse(plain, false);
+            for (boolean lazy : new boolean[]{ false, true }) {
+                assertSameNodes(expected, parse(gzip, lazy));
+                assertSameNodes(expected, parse(zlib, lazy));
+                assertEquals(0, parse(xz, lazy).length);
+            }
+        } finally {
+            for (Path p : new Path[]{ plain, gzip, zlib, xz }) Files.deleteIfExists(p);
+        }
+    }
+}
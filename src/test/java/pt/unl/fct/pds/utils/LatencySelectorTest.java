@@ -0,0 +1,82 @@
+package pt.unl.fct.pds.utils;
+
+import junit.framework.TestCase;
+import pt.unl.fct.pds.SyntheticNetwork;
+import pt.unl.fct.pds.eval.EvaluationResult;
+import pt.unl.fct.pds.eval.MonteCarloEvaluator;
+import pt.unl.fct.pds.model.Circuit;
+import pt.unl.fct.pds.model.Node;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+public class LatencySelectorTest extends TestCase {
+
+    private static Node[] locatedNetwork() {
+        Node[] nodes = SyntheticNetwork.build(300, 11);
+        assertEquals(nodes.length, new LocationFinder().locate(nodes));
+        return nodes;
+    }
+
+    public void testLatencyModel() {
+        // Lisbon - New York is about 5,400 km
+        double km = LatencyModel.distanceKm(38.7, -9.1, 40.7, -74.0);
+        assertEquals(5400, km, 100);
+        assertEquals(LatencyModel.HOP_OVERHEAD_MS, LatencyModel.rttMs(10, 10, 10, 10), 1e-9);
+        assertEquals(LatencyModel.UNKNOWN_RTT_MS, LatencyModel.rttMs(Double.NaN, 0, 1, 1), 0.0);
+        assertNull(LocationFinder.countryCentroid("Atlantis"));
+    }
+
+    public void testDiversityFloorHolds() {
+        Node[] nodes = locatedNetwork();
+        RelayIndex relays = new RelayIndex(nodes);
+        LatencySelector selector = new LatencySelector(relays, new Random(3), 5.0, 3);
+        for (int i = 0; i < 2000; i++) {
+            Circuit c = selector.selectPath(443);
+            Node[] p = c.getNodes();
+            Set<String> countries = new HashSet<>();
+            for (Node n : p) countries.add(n.getCountry());
+            assertEquals(3, countries.size());
+            int g = relays.indexOf(p[0]), m = relays.indexOf(p[1]), x = relays.indexOf(p[2]);
+            assertFalse(relays.same16(g, m) || relays.same16(g, x) || relays.same16(m, x));
+            assertTrue(relays.exitAllows(x, 443));
+            assertEquals(LatencyModel.circuitRttMs(p), c.getEstimatedRttMs(), 1e-9);
+        }
+    }
+
+    public void testUnresolvedCountriesDoNotBlockSelection() {
+        // no GeoIP database: every relay is "UNKNOWN", a few have no country at all
+        Node[] nodes = SyntheticNetwork.build(120, 5);
+        for (Node n : nodes) n.setCountry("UNKNOWN");
+        for (int i = 0; i < nodes.length; i += 9) nodes[i].setCountry(null);
+        RelayIndex relays = new RelayIndex(nodes);
+        for (int minCountries = 1; minCountries <= 3; minCountries++) {
+            LatencySelector selector = new LatencySelector(relays, new Random(2), LatencySelector.DEFAULT_TAU_MS, minCountries);
+            for (int i = 0; i < 200; i++) {
+                Node[] p = selector.selectPath(443).getNodes();
+                assertTrue(p[0] != p[1] && p[1] != p[2] && p[0] != p[2]);
+            }
+        }
+    }
+
+    public void testBiasLowersPredictedLatency() {
+        Node[] nodes = locatedNetwork();
+        MonteCarloEvaluator eval = new MonteCarloEvaluator(new RelayIndex(nodes), 2);
+        EvaluationResult tor = eval.evaluate("Tor", rng -> new PathSelector(nodes, rng), 443, 4000, 1);
+        EvaluationResult lat = eval.evaluate("Latency",
+                rng -> new LatencySelector(eval.getRelays(), rng, 20.0, 2), 443, 4000, 1);
+
+        assertTrue(tor.hasRttEstimates());
+        assertTrue(lat.meanRttMs() + " vs " + tor.meanRttMs(), lat.meanRttMs() < 0.8 * tor.meanRttMs());
+        assertTrue(lat.rttPercentileMs(0.5) <= lat.rttPercentileMs(0.9));
+    }
+
+    public void testNoLocationsMeansNoRttStatistics() {
+        Node[] nodes = SyntheticNetwork.build(50, 2);
+        EvaluationResult r = new MonteCarloEvaluator(new RelayIndex(nodes), 1)
+                .evaluate("Tor", rng -> new PathSelector(nodes, rng), 443, 100, 1);
+        assertFalse(r.hasRttEstimates());
+        assertTrue(Double.isNaN(r.meanRttMs()));
+    }
+}
@@ -0,0 +1,125 @@
+package pt.unl.fct.pds.utils;
+
+import junit.framework.TestCase;
+import pt.unl.fct.pds.SyntheticNetwork;
+import pt.unl.fct.pds.model.Circuit;
+import pt.unl.fct.pds.model.Node;
+
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+
+public class PackedSelectorTest extends TestCase {
+
+    private static final int[] PORTS = { 443, 80, 22, 6667 };
+
+    // synthetic relays plus the odd cases: no country, no IPv4 address, a duplicated fingerprint
+    private static Node[] network() {
+        Node[] nodes = SyntheticNetwork.build(400, 17);
+        for (int i = 0; i < nodes.length; i += 37) nodes[i].setCountry(null);
+        for (int i = 5; i < nodes.length; i += 53) nodes[i].setIpAddress("2001:db8::" + i);
+        nodes[11].setFingerprint(nodes[12].getFingerprint());
+        return nodes;
+    }
+
+    private static void assertSameCircuit(Circuit expected, Circuit actual) {
+        assertEquals(expected.getId(), actual.getId());
+        assertEquals(expected.getMinBandwidth(), actual.getMinBandwidth());
+        for (int k = 0; k < 3; k++) assertSame(expected.getNodes()[k], actual.getNodes()[k]);
+    }
+
+    public void testMatchesStreamSelectorsDrawForDraw() {
+        Node[] nodes = network();
+        RelayIndex relays = new RelayIndex(nodes);
+        for (int asn = 0; asn < 2; asn++) {
+            CircuitSelector[] reference = {
+                    new StreamPathSelector(nodes, new Random(3)),
+                    new StreamGeoSelector(nodes, new Random(3), asn == 1) };
+            CircuitSelector[] indexed = {
+                    new PathSelector(relays, new Random(3)),
+                    new GeoSelector(relays, new Random(3), asn == 1) };
+            for (int s = 0; s < 2; s++) {
+                for (int k = 0; k < 1500; k++) {
+                    int port = PORTS[k % PORTS.length];
+                    assertSameCircuit(reference[s].selectPath(port), indexed[s].selectPath(port));
+                }
+            }
+        }
+    }
+
+    public void testPackedCircuits() {
+        assertEquals(RelayIndex.PACKED_LIMIT - 1, RelayIndex.middleOf(RelayIndex.pack(0, RelayIndex.PACKED_LIMIT - 1, 0)));
+        long max = RelayIndex.pack(RelayIndex.PACKED_LIMIT - 1, 7, RelayIndex.PACKED_LIMIT - 1);
+        assertEquals(RelayIndex.PACKED_LIMIT - 1, RelayIndex.guardOf(max));
+        assertEquals(7, RelayIndex.middleOf(max));
+        assertEquals(RelayIndex.PACKED_LIMIT - 1, RelayIndex.exitOf(max));
+
+        RelayIndex relays = new RelayIndex(network());
+        GeoSelector geo = new GeoSelector(relays, new Random(9), true);
+        long[] paths = new long[1000];
+        geo.selectPacked(443, paths, 0, paths.length);
+        for (long p : paths) {
+            int g = RelayIndex.guardOf(p), m = RelayIndex.middleOf(p), x = RelayIndex.exitOf(p);
+            assertTrue(relays.hasFlags(g, RelayIndex.FLAG_GUARD));
+            assertTrue(relays.exitAllows(x, 443));
+            assertTrue(g != m && m != x && g != x);
+            Circuit c = relays.circuit(p, 1);
+            assertSame(relays.node(m), c.getNodes()[1]);
+        }
+    }
+
+    public void testFixedGuard() {
+        RelayIndex relays = new RelayIndex(network());
+        PackedSelector[] selectors = { new PathSelector(relays, new Random(4)), new GeoSelector(relays, new Random(4), false),
+                new LatencySelector(relays, new Random(4), LatencySelector.DEFAULT_TAU_MS, 2) };
+        for (PackedSelector s : selectors) {
+            int guard = RelayIndex.guardOf(s.selectPacked(443));
+            for (int k = 0; k < 500; k++) {
+                long p = s.selectPacked(443, guard);
+                int m = RelayIndex.middleOf(p), x = RelayIndex.exitOf(p);
+                assertEquals(guard, RelayIndex.guardOf(p));
+                assertTrue(relays.exitAllows(x, 443));
+                assertTrue(guard != m && m != x && guard != x);
+            }
+        }
+    }
+
+    public void testNoExitForPort() {
+        Node[] nodes = SyntheticNetwork.build(30, 2);
+        for (Node n : nodes) n.setExitPolicy("accept 80");
+        PathSelector tor = new PathSelector(nodes, new Random(1));
+        try {
+            tor.selectPacked(443);
+            fail();
+        } catch (IllegalStateException expected) {
+            // no exit allows 443
+        }
+        assertEquals(0, tor.getRelays().exits(443).length);
+        assertSame(tor.getRelays().exits(80), tor.getRelays().exits(80));
+    }
+
+    public void testSteadyStateSelectionDoesNotAllocate() {
+        if (!(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean)) return;
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        if (!threads.isThreadAllocatedMemorySupported() || !threads.isThreadAllocatedMemoryEnabled()) return;
+
+        RelayIndex relays = new RelayIndex(network());
+        PackedSelector[] selectors = { new PathSelector(relays, new Random(5)), new GeoSelector(relays, new Random(5), true),
+                new LatencySelector(relays, new Random(5), LatencySelector.DEFAULT_TAU_MS, 2) };
+        long[] out = new long[256];
+        for (PackedSelector s : selectors) {
+            for (int port : PORTS) s.selectPacked(port, out, 0, out.length);   // exit lists cached
+        }
+
+        long id = Thread.currentThread().getId();
+        long overhead = -threads.getThreadAllocatedBytes(id) + threads.getThreadAllocatedBytes(id);
+        long before = threads.getThreadAllocatedBytes(id);
+        for (int round = 0; round < 20; round++) {
+            for (PackedSelector s : selectors) {
+                for (int port : PORTS) s.selectPacked(port, out, 0, out.length);
+            }
+        }
+        long allocated = threads.getThreadAllocatedBytes(id) - before - overhead;
+        // 60k circuits; a Circuit each would be megabytes
+        assertTrue(allocated + " bytes", allocated < 1024);
+    }
+}